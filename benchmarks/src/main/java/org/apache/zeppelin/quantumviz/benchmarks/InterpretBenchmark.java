@@ -0,0 +1,130 @@
+//
+//   Copyright 2016  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package org.apache.zeppelin.quantumviz.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zeppelin.display.AngularObjectRegistry;
+import org.apache.zeppelin.display.GUI;
+import org.apache.zeppelin.interpreter.InterpreterContext;
+import org.apache.zeppelin.interpreter.InterpreterContextRunner;
+import org.apache.zeppelin.interpreter.InterpreterOutput;
+import org.apache.zeppelin.interpreter.InterpreterResult;
+import org.apache.zeppelin.quantumviz.QuantumVizInterpreter;
+import org.apache.zeppelin.resource.LocalResourcePool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput and latency of a whole paragraph, for each resource shape, number of points
+ * and number of data elements. Run with -prof gc to report the allocation rate.
+ *
+ * The render cache is disabled by default, so that each invocation serializes and rewrites
+ * every resource.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class InterpretBenchmark {
+
+  static final String RESOURCE_KEY = "benchmark";
+
+  @Param({ Payloads.GTS, Payloads.LIST, Payloads.QUANTUM, Payloads.QUANTUM_PARAMS,
+      Payloads.QUANTUM_LIST })
+  public String shape;
+
+  @Param({ "1000", "100000", "1000000", "10000000" })
+  public int points;
+
+  @Param({ "1", "10", "50" })
+  public int elements;
+
+  /**
+   * none to load resources as they are, user to set global params on each element
+   */
+  @Param({ "none", "user" })
+  public String params;
+
+  @Param({ "0" })
+  public String cacheEntries;
+
+  private QuantumVizInterpreter interpreter;
+  private InterpreterContext context;
+  private String body;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    Properties properties = new Properties();
+    properties.setProperty("warp10.url", "http://localhost:8080");
+    properties.setProperty("quantumviz.cache.maxEntries", this.cacheEntries);
+    this.interpreter = new QuantumVizInterpreter(properties);
+    this.interpreter.open();
+
+    LocalResourcePool pool = new LocalResourcePool("benchmark");
+    pool.put(RESOURCE_KEY, Payloads.build(this.shape, this.points));
+
+    this.context = new InterpreterContext("note", "paragraph", "quantumviz", "benchmark",
+        "", null, new HashMap<String, Object>(), new GUI(),
+        new AngularObjectRegistry("quantumviz", null), pool,
+        new ArrayList<InterpreterContextRunner>(), new InterpreterOutput(null));
+
+    StringBuilder paragraph = new StringBuilder("{\"type\":\"graph\",\"data\":[");
+    for (int i = 0; i < this.elements; i++) {
+      if (i > 0) {
+        paragraph.append(',');
+      }
+      paragraph.append("{\"series\":\"").append(RESOURCE_KEY).append('"');
+      if ("user".equals(this.params)) {
+        paragraph.append(",\"interpolate\":\"step-before\",\"timestamps\":true,")
+            .append("\"xLabel\":\"x").append(i).append("\"");
+      }
+      paragraph.append('}');
+    }
+    this.body = paragraph.append("]}").toString();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    this.interpreter.close();
+  }
+
+  @Benchmark
+  public InterpreterResult interpret() {
+    InterpreterResult result = this.interpreter.interpret(this.body, this.context);
+    if (InterpreterResult.Code.SUCCESS != result.code()) {
+      throw new IllegalStateException(result.message().toString());
+    }
+    return result;
+  }
+}
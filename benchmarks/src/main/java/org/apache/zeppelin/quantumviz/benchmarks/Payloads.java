@@ -0,0 +1,108 @@
+//
+//   Copyright 2016  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package org.apache.zeppelin.quantumviz.benchmarks;
+
+/**
+ * Generate the resources the interpreter loads from Zeppelin pool, in each supported shape.
+ */
+final class Payloads {
+
+  static final String GTS = "gts";
+  static final String LIST = "list";
+  static final String QUANTUM = "quantum";
+  static final String QUANTUM_PARAMS = "quantumParams";
+  static final String QUANTUM_LIST = "quantumList";
+
+  //
+  // Series per resource for the shapes holding several series
+  //
+
+  static final int SERIES = 10;
+
+  private Payloads() {
+  }
+
+  /**
+   * Build a resource
+   * @param shape one of gts, list, quantum, quantumParams or quantumList
+   * @param points total number of points of the resource
+   * @return resource serialized in JSON, as written by Gson in a Scala paragraph
+   */
+  static String build(String shape, int points) {
+    int perSeries = Math.max(1, points / SERIES);
+    StringBuilder out = new StringBuilder(points * 16);
+
+    if (GTS.equals(shape)) {
+      series(out, 0, points);
+    } else if (LIST.equals(shape)) {
+      out.append('[');
+      for (int i = 0; i < SERIES; i++) {
+        if (i > 0) {
+          out.append(',');
+        }
+        series(out, i, perSeries);
+      }
+      out.append(']');
+    } else if (QUANTUM.equals(shape) || QUANTUM_PARAMS.equals(shape)) {
+      quantum(out, 0, SERIES, perSeries, QUANTUM_PARAMS.equals(shape));
+    } else if (QUANTUM_LIST.equals(shape)) {
+      out.append('[');
+      for (int i = 0; i < SERIES; i++) {
+        if (i > 0) {
+          out.append(',');
+        }
+        quantum(out, i, 1, perSeries, true);
+      }
+      out.append(']');
+    } else {
+      throw new IllegalArgumentException("Unknown shape " + shape);
+    }
+    return out.toString();
+  }
+
+  private static void quantum(StringBuilder out, int index, int count, int points,
+      boolean globalParams) {
+    out.append("{\"gts\":[");
+    for (int i = 0; i < count; i++) {
+      if (i > 0) {
+        out.append(',');
+      }
+      series(out, index + i, points);
+    }
+    out.append(']');
+    if (globalParams) {
+      out.append(",\"globalParams\":{\"interpolate\":\"linear\",\"timestamps\":false,"
+          + "\"xLabel\":\"time\",\"yLabel\":\"value\"}");
+    }
+    out.append('}');
+  }
+
+  private static void series(StringBuilder out, int index, int points) {
+    out.append("{\"c\":\"benchmark.series\",\"l\":{\"index\":\"").append(index)
+        .append("\",\"host\":\"h").append(index % 3).append("\"},\"a\":{},\"v\":[");
+    long tick = 1480000000000000L;
+    for (int i = 0; i < points; i++) {
+      if (i > 0) {
+        out.append(',');
+      }
+      tick += 1000000L + (i % 5);
+      out.append('[').append(tick).append(',').append(Math.sin(i / 100.0) * 50 + index)
+          .append(']');
+    }
+    out.append("]}");
+  }
+}
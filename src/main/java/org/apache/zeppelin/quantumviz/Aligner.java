@@ -0,0 +1,295 @@
+//
+//   Copyright 2016  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package org.apache.zeppelin.quantumviz;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Align the numeric series of a resource on a common tick set.
+ *
+ * Series already sharing their ticks are left untouched, unless a step is set or they hold
+ * more than max points. Otherwise the ticks are bucketized with a fixed step, by default the
+ * largest median sampling interval of the series, and the values of each bucket are
+ * aggregated. Buckets where a series has no value hold null. The aligned series are written
+ * without locations nor elevations, the columnar encoding then sending their ticks once for
+ * all of them.
+ */
+final class Aligner
+    implements QuantumRewriter.ResourceTransform, QuantumRewriter.DecodingTransform {
+
+  static final String MEAN = "mean";
+  static final String MIN = "min";
+  static final String MAX = "max";
+  static final String SUM = "sum";
+  static final String FIRST = "first";
+  static final String LAST = "last";
+
+  private final String aggregator;
+  private final long step;
+  private final int maxPoints;
+  private final GtsParser parser = new GtsParser();
+
+  //
+  // Parser of the series left untouched when they are decoded, counted once by the other one
+  //
+
+  private final GtsParser decoder = new GtsParser();
+
+  //
+  // Aligned series of the prepared resource in order, null for the series copied as they are
+  //
+
+  private List<GeoTimeSerie> aligned = Collections.emptyList();
+  private int index = 0;
+
+  /**
+   * @param aggregator one of mean, min, max, sum, first or last
+   * @param step width of the buckets in time units, 0 to compute it from the series
+   * @param maxPoints maximum number of buckets
+   */
+  Aligner(String aggregator, long step, int maxPoints) {
+    this.aggregator = aggregator;
+    this.step = step;
+    this.maxPoints = maxPoints;
+  }
+
+  /**
+   * @return options identifying the output of this aligner
+   */
+  String options() {
+    return "align:" + this.aggregator + ":" + this.step + ":" + this.maxPoints;
+  }
+
+  /**
+   * @return number of points decoded by this transform
+   */
+  long points() {
+    return this.parser.points();
+  }
+
+  @Override
+  public void prepare(CharSequence resource) throws Exception {
+    final List<GeoTimeSerie> series = new ArrayList<>();
+    new QuantumRewriter(null, null, new QuantumRewriter.SeriesTransform() {
+      @Override
+      public void transform(JsonScanner scanner, StringBuilder out) throws Exception {
+        GeoTimeSerie gts = parser.parse(scanner);
+        if (null == gts) {
+          scanner.skipValue();
+        }
+        series.add(null == gts || !gts.isNumeric() || 0 == gts.size() ? null : gts);
+      }
+    }).rewrite(resource, new StringBuilder());
+    this.aligned = align(series);
+    this.index = 0;
+  }
+
+  @Override
+  public void transform(JsonScanner scanner, StringBuilder out) throws Exception {
+    GeoTimeSerie gts = this.index < this.aligned.size() ? this.aligned.get(this.index) : null;
+    this.index++;
+    if (null == gts) {
+      scanner.copyValue(out);
+      return;
+    }
+    scanner.skipValue();
+    GtsWriter.write(gts, out);
+  }
+
+  @Override
+  public GeoTimeSerie decode(JsonScanner scanner) throws Exception {
+    GeoTimeSerie gts = this.index < this.aligned.size() ? this.aligned.get(this.index) : null;
+    this.index++;
+    if (null == gts) {
+      return this.decoder.parse(scanner);
+    }
+    scanner.skipValue();
+    return gts;
+  }
+
+  /**
+   * Align series on a common tick set
+   * @param series numeric series, null for the series to leave untouched
+   * @return aligned series in the same order, null for the series to copy as they are
+   */
+  List<GeoTimeSerie> align(List<GeoTimeSerie> series) {
+    List<GeoTimeSerie> numeric = new ArrayList<>();
+    long points = 0;
+    for (GeoTimeSerie gts : series) {
+      if (null != gts) {
+        numeric.add(gts);
+        points += gts.size();
+      }
+    }
+    List<GeoTimeSerie> result = new ArrayList<>(Collections.<GeoTimeSerie>nCopies(series.size(),
+        null));
+    if (numeric.isEmpty() || (this.step <= 0 && numeric.get(0).size() <= this.maxPoints
+        && isShared(numeric))) {
+      return result;
+    }
+
+    //
+    // Bucket width, widened until the buckets fit in max points
+    //
+
+    long first = Long.MAX_VALUE;
+    long last = Long.MIN_VALUE;
+    long width = this.step;
+    for (GeoTimeSerie gts : numeric) {
+      for (int i = 0; i < gts.size(); i++) {
+        first = Math.min(first, gts.tick(i));
+        last = Math.max(last, gts.tick(i));
+      }
+      if (this.step <= 0) {
+        width = Math.max(width, medianInterval(gts));
+      }
+    }
+    width = Math.max(1, width);
+    if (this.maxPoints > 1 && (last - first) / width >= this.maxPoints - 1) {
+      width = (last - first) / (this.maxPoints - 1) + 1;
+    }
+
+    //
+    // Common ticks: the sorted starts of the buckets holding at least one value
+    //
+
+    long[] ticks = new long[(int) Math.min(Integer.MAX_VALUE, points)];
+    int count = 0;
+    for (GeoTimeSerie gts : numeric) {
+      for (int i = 0; i < gts.size(); i++) {
+        ticks[count++] = bucket(gts.tick(i), width);
+      }
+    }
+    Arrays.sort(ticks, 0, count);
+    int unique = 0;
+    for (int i = 0; i < count; i++) {
+      if (0 == unique || ticks[unique - 1] != ticks[i]) {
+        ticks[unique++] = ticks[i];
+      }
+    }
+    ticks = Arrays.copyOf(ticks, unique);
+
+    for (int i = 0; i < series.size(); i++) {
+      if (null != series.get(i)) {
+        result.set(i, aggregate(series.get(i), ticks, width));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return true if all series hold the same ticks in the same order
+   */
+  private static boolean isShared(List<GeoTimeSerie> numeric) {
+    GeoTimeSerie reference = numeric.get(0);
+    for (GeoTimeSerie gts : numeric) {
+      if (gts.size() != reference.size()) {
+        return false;
+      }
+      for (int i = 0; i < gts.size(); i++) {
+        if (gts.tick(i) != reference.tick(i)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return median interval between the sorted ticks of a series, 0 for a single point
+   */
+  private static long medianInterval(GeoTimeSerie gts) {
+    int size = gts.size();
+    if (size < 2) {
+      return 0;
+    }
+    long[] ticks = new long[size];
+    for (int i = 0; i < size; i++) {
+      ticks[i] = gts.tick(i);
+    }
+    Arrays.sort(ticks);
+    long[] intervals = new long[size - 1];
+    for (int i = 1; i < size; i++) {
+      intervals[i - 1] = ticks[i] - ticks[i - 1];
+    }
+    Arrays.sort(intervals);
+    return intervals[intervals.length / 2];
+  }
+
+  /**
+   * @return start of the bucket of a tick, buckets being aligned on multiples of their width
+   */
+  private static long bucket(long tick, long width) {
+    long quotient = tick / width;
+    if (tick % width != 0 && tick < 0) {
+      quotient--;
+    }
+    return quotient * width;
+  }
+
+  /**
+   * Aggregate the values of a series in the common buckets
+   */
+  private GeoTimeSerie aggregate(GeoTimeSerie gts, long[] ticks, long width) {
+    int size = ticks.length;
+    double[] values = new double[size];
+    long[] at = new long[size];
+    int[] counts = new int[size];
+    for (int i = 0; i < gts.size(); i++) {
+      long tick = gts.tick(i);
+      double value = gts.doubleValue(i);
+      if (Double.isNaN(value)) {
+        continue;
+      }
+      int b = Arrays.binarySearch(ticks, bucket(tick, width));
+      if (0 == counts[b]) {
+        values[b] = value;
+        at[b] = tick;
+      } else if (MIN.equals(this.aggregator)) {
+        values[b] = Math.min(values[b], value);
+      } else if (MAX.equals(this.aggregator)) {
+        values[b] = Math.max(values[b], value);
+      } else if (FIRST.equals(this.aggregator)) {
+        if (tick < at[b]) {
+          values[b] = value;
+          at[b] = tick;
+        }
+      } else if (LAST.equals(this.aggregator)) {
+        if (tick >= at[b]) {
+          values[b] = value;
+          at[b] = tick;
+        }
+      } else {
+        values[b] += value;
+      }
+      counts[b]++;
+    }
+
+    GeoTimeSerie result = gts.cloneEmpty(size);
+    for (int b = 0; b < size; b++) {
+      double value = Double.NaN;
+      if (counts[b] > 0) {
+        value = MEAN.equals(this.aggregator) ? values[b] / counts[b] : values[b];
+      }
+      result.add(ticks[b], Double.NaN, Double.NaN, GeoTimeSerie.NO_ELEVATION, value);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,110 @@
+//
+//   Copyright 2016  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package org.apache.zeppelin.quantumviz;
+
+import java.net.HttpURLConnection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+
+/**
+ * Cancellation of a running paragraph.
+ *
+ * cancel() flags the paragraph and interrupts the threads rendering its elements. The
+ * rendering stops at the next checkpoint: between the phases of an element, and between the
+ * series, lines or points of the loops reading and writing series. Checkpoints throw a
+ * CancellationException, so that the buffers of the element are released on the way up.
+ * Warp 10 requests in flight are disconnected, as a thread blocked reading a socket does not
+ * see its interrupt.
+ */
+final class Cancellation {
+
+  static final String MESSAGE = "Quantumviz interpreter paragraph was cancelled.";
+
+  private final Set<Future<?>> futures =
+      Collections.newSetFromMap(new ConcurrentHashMap<Future<?>, Boolean>());
+  private final Set<HttpURLConnection> connections =
+      Collections.newSetFromMap(new ConcurrentHashMap<HttpURLConnection, Boolean>());
+
+  private volatile boolean cancelled = false;
+
+  void cancel() {
+    this.cancelled = true;
+    for (Future<?> future : this.futures) {
+      future.cancel(true);
+    }
+    for (HttpURLConnection connection : this.connections) {
+      connection.disconnect();
+    }
+  }
+
+  boolean isCancelled() {
+    return this.cancelled;
+  }
+
+  /**
+   * Track the rendering of an element, cancelled with the paragraph
+   * @param future rendering of the element
+   */
+  void track(Future<?> future) {
+    this.futures.add(future);
+    if (this.cancelled) {
+      future.cancel(true);
+    }
+  }
+
+  void untrack(Future<?> future) {
+    this.futures.remove(future);
+  }
+
+  /**
+   * Track a request in flight, disconnected with the paragraph
+   * @param connection connection of the request
+   */
+  void track(HttpURLConnection connection) {
+    this.connections.add(connection);
+    if (this.cancelled) {
+      connection.disconnect();
+    }
+  }
+
+  void untrack(HttpURLConnection connection) {
+    this.connections.remove(connection);
+  }
+
+  /**
+   * Checkpoint of the thread running the paragraph
+   * @throws CancellationException if the paragraph was cancelled
+   */
+  void check() {
+    if (this.cancelled) {
+      throw new CancellationException(MESSAGE);
+    }
+  }
+
+  /**
+   * Checkpoint of the loops rendering an element, which only know their thread
+   * @throws CancellationException if the thread was interrupted by a cancel
+   */
+  static void checkpoint() {
+    if (Thread.currentThread().isInterrupted()) {
+      throw new CancellationException(MESSAGE);
+    }
+  }
+}
@@ -0,0 +1,429 @@
+//
+//   Copyright 2016  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package org.apache.zeppelin.quantumviz;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.json.JSONObject;
+
+/**
+ * Compact columnar encoding of a payload in Quantum format, decoded in the browser by
+ * quantumviz-codec.js.
+ *
+ * The payload is written as a JSON skeleton where the values of each encodable series are
+ * replaced by the index of a binary block. A block holds the columns of a series:
+ * delta-of-delta varint timestamps, XOR compressed doubles (latitudes, longitudes,
+ * floating point values), delta varint longs (elevations, integer values) and packed
+ * booleans. A series holding the same ticks as the series before it, like the series of an
+ * aligned list, shares its timestamp column instead of repeating it. The whole frame is
+ * base64 encoded.
+ */
+final class ColumnarCodec {
+
+  static final String JSON = "json";
+  static final String COLUMNAR = "columnar";
+
+  static final String SCRIPT_RESOURCE = "quantumviz-codec.js";
+
+  private static final byte[] MAGIC = { 'Q', 'V', 'C', 1 };
+
+  static final int FLAG_LATLON = 1;
+  static final int FLAG_ELEVATION = 2;
+  static final int FLAG_SHARED_TICKS = 16;
+  static final int TYPE_DOUBLE = 0;
+  static final int TYPE_LONG = 1;
+  static final int TYPE_BOOLEAN = 2;
+
+  private static final char[] BASE64 =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+  private static final Map<String, String> scripts = new HashMap<>();
+
+  private ColumnarCodec() {
+  }
+
+  /**
+   * @return source of the decoder, defining window.QuantumVizCodec
+   * @throws IOException if the script can not be read from the classpath
+   */
+  static String script() throws IOException {
+    return script(SCRIPT_RESOURCE);
+  }
+
+  /**
+   * @param resource name of a script of the classpath
+   * @return source of the script, read once
+   * @throws IOException if the script can not be read from the classpath
+   */
+  static synchronized String script(String resource) throws IOException {
+    String script = scripts.get(resource);
+    if (null == script) {
+      InputStream in = ColumnarCodec.class.getClassLoader().getResourceAsStream(resource);
+      if (null == in) {
+        throw new IOException("Missing " + resource);
+      }
+      try {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+          bytes.write(buffer, 0, read);
+        }
+        script = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        scripts.put(resource, script);
+      } finally {
+        in.close();
+      }
+    }
+    return script;
+  }
+
+  /**
+   * Encode a payload
+   * @param payload payload in Quantum format
+   * @return base64 frame
+   * @throws Exception if the payload is malformed
+   */
+  static String encode(CharSequence payload) throws Exception {
+    return encode(payload, null, null, null);
+  }
+
+  /**
+   * Rewrite and encode a resource in one pass, the series handed over by the transform being
+   * encoded as they are instead of being written as JSON then decoded again
+   * @param resource resource in Quantum format, GTS or list thereof
+   * @param params global params to set, null to keep the resource shape
+   * @param merger used to update the global params already defined
+   * @param transform applied on each series, null to encode the series of the resource
+   * @return base64 frame, the same as the one of the rewritten resource
+   * @throws Exception if the resource is malformed
+   */
+  static String encode(CharSequence resource, JSONObject params, QuantumRewriter.Merger merger,
+      QuantumRewriter.DecodingTransform transform) throws Exception {
+    BlockWriter blocks = new BlockWriter(transform);
+    StringBuilder skeleton = new StringBuilder();
+    new QuantumRewriter(params, merger, blocks).rewrite(resource, skeleton);
+
+    Bytes frame = new Bytes(skeleton.length() + blocks.out.length + 16);
+    frame.write(MAGIC, MAGIC.length);
+    byte[] json = skeleton.toString().getBytes(StandardCharsets.UTF_8);
+    frame.varint(json.length);
+    frame.write(json, json.length);
+    frame.varint(blocks.count);
+    frame.write(blocks.out.bytes, blocks.out.length);
+    return base64(frame.bytes, frame.length);
+  }
+
+  /**
+   * Replace the values of each series by the index of its block
+   */
+  private static final class BlockWriter implements QuantumRewriter.ResourceTransform {
+
+    private final QuantumRewriter.DecodingTransform transform;
+    private final GtsParser parser = new GtsParser();
+    private final Bytes out = new Bytes(1024);
+    private int count = 0;
+
+    //
+    // Column buffers reused from one series to the other
+    //
+
+    private long[] longs = new long[256];
+    private double[] doubles = new double[256];
+
+    //
+    // Ticks of the previous block, shared by the next one when they are the same
+    //
+
+    private long[] ticks = new long[256];
+    private int tickCount = -1;
+
+    BlockWriter(QuantumRewriter.DecodingTransform transform) {
+      this.transform = transform;
+    }
+
+    @Override
+    public void prepare(CharSequence resource) throws Exception {
+      if (this.transform instanceof QuantumRewriter.ResourceTransform) {
+        ((QuantumRewriter.ResourceTransform) this.transform).prepare(resource);
+      }
+    }
+
+    @Override
+    public void transform(JsonScanner scanner, StringBuilder skeleton) throws Exception {
+      int start = scanner.position();
+      GeoTimeSerie gts = null == this.transform ? this.parser.parse(scanner)
+          : this.transform.decode(scanner);
+      if (null == gts) {
+        scanner.position(start);
+        scanner.copyValue(skeleton);
+        return;
+      }
+      if (!isEncodable(gts)) {
+
+        //
+        // The series may have been transformed, it is written instead of being copied
+        //
+
+        if (null == this.transform) {
+          scanner.position(start);
+          scanner.copyValue(skeleton);
+        } else {
+          GtsWriter.write(gts, skeleton);
+        }
+        return;
+      }
+      write(gts);
+      GtsWriter.write(gts, String.valueOf(this.count++), skeleton);
+    }
+
+    /**
+     * @return true if the series has values and all its points share the same layout
+     */
+    private static boolean isEncodable(GeoTimeSerie gts) {
+      return gts.size() > 0 && GeoTimeSerie.Type.STRING != gts.type()
+          && gts.isLocated() == gts.hasLocations() && gts.isElevated() == gts.hasElevations();
+    }
+
+    /**
+     * Compare the ticks of a series with the ticks of the previous block, and keep them
+     * @return true if they are the same
+     */
+    private boolean isShared(GeoTimeSerie gts) {
+      int size = gts.size();
+      boolean shared = size == this.tickCount;
+      for (int i = 0; i < size && shared; i++) {
+        shared = gts.tick(i) == this.ticks[i];
+      }
+      if (!shared) {
+        if (size > this.ticks.length) {
+          this.ticks = new long[size];
+        }
+        for (int i = 0; i < size; i++) {
+          this.ticks[i] = gts.tick(i);
+        }
+        this.tickCount = size;
+      }
+      return shared;
+    }
+
+    private void write(GeoTimeSerie gts) {
+      int size = gts.size();
+      if (size > this.longs.length) {
+        this.longs = new long[size];
+        this.doubles = new double[size];
+      }
+      boolean shared = isShared(gts);
+
+      int flags = 0;
+      if (gts.isLocated()) {
+        flags |= FLAG_LATLON;
+      }
+      if (gts.isElevated()) {
+        flags |= FLAG_ELEVATION;
+      }
+      if (shared) {
+        flags |= FLAG_SHARED_TICKS;
+      }
+      int type = TYPE_BOOLEAN;
+      if (GeoTimeSerie.Type.LONG == gts.type()) {
+        type = TYPE_LONG;
+      } else if (GeoTimeSerie.Type.DOUBLE == gts.type()) {
+        type = TYPE_DOUBLE;
+      }
+      this.out.varint(size);
+      this.out.write(flags | (type << 2));
+
+      //
+      // Timestamps: first value, first delta, then delta of deltas
+      //
+
+      long delta = 0;
+      for (int i = 0; i < size && !shared; i++) {
+        if (0 == i) {
+          this.out.zigzag(gts.tick(0));
+        } else {
+          long current = gts.tick(i) - gts.tick(i - 1);
+          this.out.zigzag(1 == i ? current : current - delta);
+          delta = current;
+        }
+      }
+
+      if (0 != (flags & FLAG_LATLON)) {
+        for (int i = 0; i < size; i++) {
+          this.doubles[i] = gts.latitude(i);
+        }
+        this.out.xor(this.doubles, size);
+        for (int i = 0; i < size; i++) {
+          this.doubles[i] = gts.longitude(i);
+        }
+        this.out.xor(this.doubles, size);
+      }
+      if (0 != (flags & FLAG_ELEVATION)) {
+        for (int i = 0; i < size; i++) {
+          this.longs[i] = gts.elevation(i);
+        }
+        this.out.deltas(this.longs, size);
+      }
+      if (TYPE_DOUBLE == type) {
+        for (int i = 0; i < size; i++) {
+          this.doubles[i] = gts.doubleValue(i);
+        }
+        this.out.xor(this.doubles, size);
+      } else if (TYPE_LONG == type) {
+        for (int i = 0; i < size; i++) {
+          this.longs[i] = gts.longValue(i);
+        }
+        this.out.deltas(this.longs, size);
+      } else {
+        for (int i = 0; i < size; i++) {
+          this.out.bits(gts.booleanValue(i) ? 1 : 0, 1);
+        }
+        this.out.align();
+      }
+    }
+  }
+
+  /**
+   * Growable byte buffer with varint and bit level writes, bits being written MSB first
+   */
+  static final class Bytes {
+    private byte[] bytes;
+    private int length = 0;
+    private int bit = 0;
+
+    Bytes(int capacity) {
+      this.bytes = new byte[Math.max(16, capacity)];
+    }
+
+    void write(int b) {
+      ensure(1);
+      this.bytes[this.length++] = (byte) b;
+    }
+
+    void write(byte[] source, int count) {
+      ensure(count);
+      System.arraycopy(source, 0, this.bytes, this.length, count);
+      this.length += count;
+    }
+
+    void varint(long value) {
+      while ((value & ~0x7FL) != 0) {
+        write((int) ((value & 0x7F) | 0x80));
+        value >>>= 7;
+      }
+      write((int) value);
+    }
+
+    void zigzag(long value) {
+      varint((value << 1) ^ (value >> 63));
+    }
+
+    void deltas(long[] values, int size) {
+      long previous = 0;
+      for (int i = 0; i < size; i++) {
+        zigzag(values[i] - previous);
+        previous = values[i];
+      }
+    }
+
+    void bits(long value, int count) {
+      for (int i = count - 1; i >= 0; i--) {
+        if (0 == this.bit) {
+          write(0);
+        }
+        if (0 != ((value >>> i) & 1)) {
+          this.bytes[this.length - 1] |= (byte) (0x80 >>> this.bit);
+        }
+        this.bit = (this.bit + 1) & 7;
+      }
+    }
+
+    void align() {
+      this.bit = 0;
+    }
+
+    /**
+     * Gorilla XOR compression of doubles, the stream being byte aligned at its end
+     */
+    void xor(double[] values, int size) {
+      if (0 == size) {
+        return;
+      }
+      long previous = Double.doubleToRawLongBits(values[0]);
+      bits(previous, 64);
+      int previousLeading = -1;
+      int previousTrailing = 0;
+      for (int i = 1; i < size; i++) {
+        long current = Double.doubleToRawLongBits(values[i]);
+        long xor = current ^ previous;
+        previous = current;
+        if (0 == xor) {
+          bits(0, 1);
+          continue;
+        }
+        bits(1, 1);
+        int leading = Math.min(31, Long.numberOfLeadingZeros(xor));
+        int trailing = Long.numberOfTrailingZeros(xor);
+        if (-1 != previousLeading && leading >= previousLeading && trailing >= previousTrailing) {
+          bits(0, 1);
+          bits(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+        } else {
+          int significant = 64 - leading - trailing;
+          bits(1, 1);
+          bits(leading, 5);
+          bits(64 == significant ? 0 : significant, 6);
+          bits(xor >>> trailing, significant);
+          previousLeading = leading;
+          previousTrailing = trailing;
+        }
+      }
+      align();
+    }
+
+    private void ensure(int count) {
+      if (this.length + count > this.bytes.length) {
+        this.bytes = Arrays.copyOf(this.bytes,
+            Math.max(this.length + count, this.bytes.length * 2));
+      }
+    }
+  }
+
+  static String base64(byte[] bytes, int length) {
+    StringBuilder out = new StringBuilder((length + 2) / 3 * 4);
+    for (int i = 0; i < length; i += 3) {
+      int b = (bytes[i] & 0xFF) << 16;
+      if (i + 1 < length) {
+        b |= (bytes[i + 1] & 0xFF) << 8;
+      }
+      if (i + 2 < length) {
+        b |= bytes[i + 2] & 0xFF;
+      }
+      out.append(BASE64[(b >> 18) & 0x3F]);
+      out.append(BASE64[(b >> 12) & 0x3F]);
+      out.append(i + 1 < length ? BASE64[(b >> 6) & 0x3F] : '=');
+      out.append(i + 2 < length ? BASE64[b & 0x3F] : '=');
+    }
+    return out.toString();
+  }
+}
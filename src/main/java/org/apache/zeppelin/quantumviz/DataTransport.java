@@ -0,0 +1,455 @@
+//
+//   Copyright 2016  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package org.apache.zeppelin.quantumviz;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Deliver data payloads out of the paragraph result, as gzip compressed chunks
+ * served by a local HTTP endpoint.
+ *
+ * A payload is published under a random id and each of its chunks is available at
+ * {url}/quantumviz/{id}/{index}. Payloads are kept until the maximum size is reached,
+ * the oldest one being removed first.
+ *
+ * The rollup pyramids of the zoomable elements are queried at
+ * {url}/quantumviz/rollup/{id},{id}...?start=&end=&points=&mode=, which returns the list of
+ * their series over the time range, at most points points each.
+ *
+ * The located points of the tiled maps are queried by web mercator tile at
+ * {url}/quantumviz/tiles/{id}/{z}/{x}/{y}?points=, which returns the list of the series having
+ * points in the tile, clustered when they exceed points points.
+ *
+ * The endpoint has no authentication, payloads are only protected by their random ids. It is
+ * bound to the loopback address unless configured otherwise, and only the pages of the allowed
+ * origins get the CORS header letting them read the responses.
+ */
+final class DataTransport {
+
+  static final String CONTEXT = "/quantumviz/";
+  static final String ROLLUP = "rollup";
+  static final int DEFAULT_ROLLUP_POINTS = 1000;
+  static final int MAX_ROLLUP_POINTS = 100000;
+  static final String TILES = "tiles";
+  static final int DEFAULT_TILE_POINTS = 2000;
+  static final int MAX_TILE_POINTS = 50000;
+  static final String EXPIRED = "Quantumviz data expired, re-run the paragraph";
+
+  /**
+   * Chunks of a published payload
+   */
+  static final class Payload {
+    private final String id;
+    private final List<byte[]> chunks;
+    private final long bytes;
+
+    private Payload(String id, List<byte[]> chunks) {
+      this.id = id;
+      this.chunks = chunks;
+      long size = 0;
+      for (byte[] chunk : chunks) {
+        size += chunk.length;
+      }
+      this.bytes = size;
+    }
+
+    String id() {
+      return this.id;
+    }
+
+    int chunks() {
+      return this.chunks.size();
+    }
+  }
+
+  private final String host;
+  private final int port;
+  private final String publicUrl;
+  private final List<String> origins;
+  private final int chunkSize;
+  private final long maxBytes;
+
+  private final LinkedHashMap<String, Payload> payloads = new LinkedHashMap<>();
+  private long bytes = 0;
+  private RollupCache rollups = new RollupCache(0);
+  private GeoTileCache tiles = new GeoTileCache(0);
+
+  private HttpServer server;
+  private ExecutorService executor;
+  private String url;
+
+  /**
+   * @param host address the endpoint is bound to
+   * @param port port of the endpoint, 0 for any free port
+   * @param publicUrl url of the endpoint seen by the browser, null to use the bound address
+   * @param origins comma separated origins of the pages allowed to read the payloads, * for 
+   * any page, null or empty for the pages of the endpoint origin only
+   * @param chunkSize maximum number of characters per chunk
+   * @param maxBytes maximum compressed size of the published payloads
+   */
+  DataTransport(String host, int port, String publicUrl, String origins, int chunkSize, 
+      long maxBytes) {
+    this.host = host;
+    this.port = port;
+    this.publicUrl = publicUrl;
+    this.origins = new ArrayList<>();
+    if (null != origins) {
+      for (String origin : origins.split(",")) {
+        if (!origin.trim().isEmpty()) {
+          this.origins.add(origin.trim());
+        }
+      }
+    }
+    this.chunkSize = chunkSize;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Start the HTTP endpoint if it is not already running
+   * @throws IOException if the endpoint can not be bound
+   */
+  synchronized void start() throws IOException {
+    if (null != this.server) {
+      return;
+    }
+    HttpServer httpServer = HttpServer.create(new InetSocketAddress(this.host, this.port), 0);
+    httpServer.createContext(CONTEXT, new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        serve(exchange);
+      }
+    });
+    this.executor = Executors.newFixedThreadPool(2, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "quantumviz-transport");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    httpServer.setExecutor(this.executor);
+    httpServer.start();
+    this.server = httpServer;
+
+    //
+    // An endpoint bound to all the interfaces is reached by the host name, an other one 
+    // by its address
+    //
+
+    InetAddress address = httpServer.getAddress().getAddress();
+    if (null != this.publicUrl && !this.publicUrl.isEmpty()) {
+      this.url = this.publicUrl;
+    } else if (address.isAnyLocalAddress()) {
+      this.url = "http://" + InetAddress.getLocalHost().getHostName() + ":"
+          + httpServer.getAddress().getPort();
+    } else {
+      String name = address.getHostAddress();
+      this.url = "http://" + (name.contains(":") ? "[" + name + "]" : name) + ":"
+          + httpServer.getAddress().getPort();
+    }
+  }
+
+  synchronized void stop() {
+    if (null != this.server) {
+      this.server.stop(0);
+      this.executor.shutdownNow();
+      this.server = null;
+    }
+    this.payloads.clear();
+    this.bytes = 0;
+  }
+
+  /**
+   * @param rollups pyramids served to the zoomable elements
+   */
+  synchronized void rollups(RollupCache rollups) {
+    this.rollups = rollups;
+  }
+
+  /**
+   * @param tiles tile indexes served to the tiled maps
+   */
+  synchronized void tiles(GeoTileCache tiles) {
+    this.tiles = tiles;
+  }
+
+  /**
+   * @return base url of the endpoint seen by the browser
+   */
+  synchronized String url() {
+    return this.url;
+  }
+
+  /**
+   * Split and compress a payload, then make it available on the endpoint
+   * @param data payload to publish
+   * @return published payload
+   * @throws IOException if a chunk can not be compressed
+   */
+  Payload publish(CharSequence data) throws IOException {
+    List<byte[]> chunks = new ArrayList<>();
+    int start = 0;
+    do {
+      int end = Math.min(data.length(), start + this.chunkSize);
+
+      //
+      // Never split a surrogate pair, each chunk being decoded on its own
+      //
+
+      if (end < data.length() && Character.isHighSurrogate(data.charAt(end - 1))) {
+        end--;
+      }
+      chunks.add(compress(data.subSequence(start, end).toString()));
+      start = end;
+    } while (start < data.length());
+
+    Payload payload = new Payload(UUID.randomUUID().toString(), chunks);
+    synchronized (this) {
+      this.payloads.put(payload.id, payload);
+      this.bytes += payload.bytes;
+      Iterator<Payload> iterator = this.payloads.values().iterator();
+      while (this.bytes > this.maxBytes && this.payloads.size() > 1) {
+        Payload eldest = iterator.next();
+        iterator.remove();
+        this.bytes -= eldest.bytes;
+      }
+    }
+    return payload;
+  }
+
+  /**
+   * Script loading the chunks of a payload one after the other, then setting
+   * them as the data of the component. When a chunk can not be loaded, the payload having
+   * been evicted or the interpreter restarted, a message asks to run the paragraph again
+   * @param payload published payload
+   * @param elementId id of the component in the page
+   * @param decoder javascript function decoding the payload, null if it is in Quantum format
+   * @return HTML script element
+   */
+  String loader(Payload payload, String elementId, String decoder) {
+    return "<script>"
+        + "(function() {"
+        + "var element = document.getElementById('" + elementId + "');"
+        + "var base = '" + url() + CONTEXT + payload.id() + "/';"
+        + "var chunks = " + payload.chunks() + ";"
+        + "var data = [];"
+        + "function expired() {"
+        + "var message = document.createElement('p');"
+        + "message.textContent = '" + EXPIRED + "';"
+        + "element.parentNode.insertBefore(message, element.nextSibling);"
+        + "}"
+        + "function load(index) {"
+        + "var request = new XMLHttpRequest();"
+        + "request.open('GET', base + index);"
+        + "request.onload = function() {"
+        + "if (200 != request.status) { expired(); return; }"
+        + "data.push(request.responseText);"
+        + "if (index + 1 < chunks) { load(index + 1); } "
+        + "else { element.setAttribute('data', "
+        + (null == decoder ? "data.join('')" : decoder + "(data.join(''))") + "); }"
+        + "};"
+        + "request.onerror = expired;"
+        + "request.send();"
+        + "}"
+        + "load(0);"
+        + "})();"
+        + "</script>";
+  }
+
+  private void serve(HttpExchange exchange) throws IOException {
+    try {
+      String[] path = exchange.getRequestURI().getPath().substring(CONTEXT.length()).split("/");
+      byte[] chunk = null;
+      boolean rollup = 2 == path.length && ROLLUP.equals(path[0]);
+      boolean tile = 5 == path.length && TILES.equals(path[0]);
+      if (rollup) {
+        chunk = rollup(path[1].split(","), exchange.getRequestURI().getRawQuery());
+      } else if (tile) {
+        chunk = tile(path, exchange.getRequestURI().getRawQuery());
+      } else if (2 == path.length) {
+        Payload payload;
+        synchronized (this) {
+          payload = this.payloads.get(path[0]);
+        }
+        int index = parseIndex(path[1]);
+        if (null != payload && index >= 0 && index < payload.chunks.size()) {
+          chunk = payload.chunks.get(index);
+        }
+      }
+
+      
+      //
+      // Only the pages of the allowed origins, such as the Zeppelin one, read the payloads
+      //
+      
+      String origin = exchange.getRequestHeaders().getFirst("Origin");
+      if (this.origins.contains("*")) {
+        exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+      } else if (null != origin && this.origins.contains(origin)) {
+        exchange.getResponseHeaders().set("Access-Control-Allow-Origin", origin);
+        exchange.getResponseHeaders().set("Vary", "Origin");
+      }
+      if (null == chunk) {
+        exchange.sendResponseHeaders(404, -1);
+        return;
+      }
+      exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+      exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+      exchange.getResponseHeaders().set("Cache-Control", 
+          rollup || tile ? "no-store" : "private, max-age=3600");
+      exchange.sendResponseHeaders(200, chunk.length);
+      OutputStream body = exchange.getResponseBody();
+      body.write(chunk);
+      body.flush();
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /**
+   * Query the pyramids of a zoomable element
+   * @param ids ids of the pyramids
+   * @param query start, end, points and mode parameters
+   * @return compressed list of series, null if a pyramid was evicted
+   * @throws IOException if the list can not be compressed
+   */
+  private byte[] rollup(String[] ids, String query) throws IOException {
+    long start = Long.MIN_VALUE;
+    long end = Long.MAX_VALUE;
+    int points = DEFAULT_ROLLUP_POINTS;
+    String mode = RollupPyramid.MINMAX;
+    if (null != query) {
+      for (String param : query.split("&")) {
+        int equal = param.indexOf('=');
+        String name = equal < 0 ? param : param.substring(0, equal);
+        String value = equal < 0 ? "" : param.substring(equal + 1);
+        if ("start".equals(name)) {
+          start = parseLong(value, start);
+        } else if ("end".equals(name)) {
+          end = parseLong(value, end);
+        } else if ("points".equals(name)) {
+          points = (int) Math.max(1, Math.min(MAX_ROLLUP_POINTS, parseLong(value, points)));
+        } else if ("mode".equals(name)) {
+          mode = value;
+        }
+      }
+    }
+
+    //
+    // Spilled pyramids are retained while they are read, so that their segment is not
+    // closed under the query
+    //
+
+    List<RollupPyramid> pyramids = new ArrayList<>();
+    try {
+      synchronized (this) {
+        for (String id : ids) {
+          RollupPyramid pyramid = this.rollups.pyramid(id);
+          if (null == pyramid || !pyramid.retain()) {
+            return null;
+          }
+          pyramids.add(pyramid);
+        }
+      }
+      StringBuilder out = new StringBuilder();
+      out.append('[');
+      for (int i = 0; i < pyramids.size(); i++) {
+        if (i > 0) {
+          out.append(',');
+        }
+        pyramids.get(i).query(start, end, points, mode, out);
+      }
+      out.append(']');
+      return compress(out.toString());
+    } finally {
+      for (RollupPyramid pyramid : pyramids) {
+        pyramid.release();
+      }
+    }
+  }
+
+  /**
+   * Query a tile of a tiled map
+   * @param path tiles, id of the index, zoom level, column and row of the tile
+   * @param query points parameter
+   * @return compressed list of series, null if the index was evicted or the tile does not exist
+   * @throws IOException if the list can not be compressed
+   */
+  private byte[] tile(String[] path, String query) throws IOException {
+    int points = DEFAULT_TILE_POINTS;
+    if (null != query) {
+      for (String param : query.split("&")) {
+        if (param.startsWith("points=")) {
+          points = (int) Math.max(1, Math.min(MAX_TILE_POINTS, 
+              parseLong(param.substring("points=".length()), points)));
+        }
+      }
+    }
+    GeoTileIndex index;
+    synchronized (this) {
+      index = this.tiles.index(path[1]);
+    }
+    StringBuilder out = new StringBuilder();
+    if (null == index || !index.tile(parseIndex(path[2]), parseIndex(path[3]), 
+        parseIndex(path[4]), points, out)) {
+      return null;
+    }
+    return compress(out.toString());
+  }
+
+  private static long parseLong(String value, long defaultValue) {
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+
+  private static int parseIndex(String index) {
+    try {
+      return Integer.parseInt(index);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private static byte[] compress(String chunk) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(32, chunk.length() / 4));
+    GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+    gzip.write(chunk.getBytes(StandardCharsets.UTF_8));
+    gzip.close();
+    return bytes.toByteArray();
+  }
+}
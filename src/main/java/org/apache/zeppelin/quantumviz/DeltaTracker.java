@@ -0,0 +1,433 @@
+//
+//   Copyright 2016  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package org.apache.zeppelin.quantumviz;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * High-water marks of the series of the elements refreshed by delta.
+ *
+ * The mark of a series is its last tick, its number of points and a hash of its points. A
+ * resource is appended to when each of its series still has the same points up to its mark,
+ * whatever their order: only the points after
+ * the mark are then sent, and appended by the chart to the data it already has. Otherwise the
+ * element is rendered in full, and its data published as the new base of the deltas.
+ *
+ * The base and each delta are also published on the data endpoint, so that a page which does
+ * not hold the previous data (reloaded, or opened after the refresh) rebuilds it.
+ */
+final class DeltaTracker {
+
+  static final String FULL = "full";
+  static final String DELTA = "delta";
+
+  //
+  // Deltas sent before the element is rendered in full again
+  //
+
+  static final int MAX_DELTAS = 64;
+
+  /**
+   * High-water mark of a series
+   */
+  static final class Mark {
+    private final String metadata;
+    private final long lastTick;
+    private final int count;
+    private final long hash;
+
+    private Mark(String metadata, long lastTick, int count, long hash) {
+      this.metadata = metadata;
+      this.lastTick = lastTick;
+      this.count = count;
+      this.hash = hash;
+    }
+  }
+
+  /**
+   * Rendered state of an element
+   */
+  static final class State {
+    private final String identity;
+    private final String base;
+    private final List<Mark> marks;
+    private final List<String> deltas;
+    private final long basePoints;
+    private final long deltaPoints;
+
+    private State(String identity, String base, List<Mark> marks, List<String> deltas,
+        long basePoints, long deltaPoints) {
+      this.identity = identity;
+      this.base = base;
+      this.marks = marks;
+      this.deltas = deltas;
+      this.basePoints = basePoints;
+      this.deltaPoints = deltaPoints;
+    }
+
+    /**
+     * @return version of the data held by the chart
+     */
+    String version() {
+      return this.base + ":" + this.deltas.size();
+    }
+  }
+
+  /**
+   * Points appended to the series since the last render
+   */
+  static final class Delta {
+    private final State previous;
+    private final String points;
+    private final List<Mark> marks;
+    private final long count;
+
+    private Delta(State previous, String points, List<Mark> marks, long count) {
+      this.previous = previous;
+      this.points = points;
+      this.marks = marks;
+      this.count = count;
+    }
+
+    /**
+     * @return JSON list of the new points of each series
+     */
+    String points() {
+      return this.points;
+    }
+
+    long count() {
+      return this.count;
+    }
+  }
+
+  private final LinkedHashMap<String, State> states = new LinkedHashMap<>(16, 0.75f, true);
+  private final int maxEntries;
+
+  /**
+   * @param maxEntries maximum number of tracked elements
+   */
+  DeltaTracker(int maxEntries) {
+    this.maxEntries = maxEntries;
+  }
+
+  /**
+   * Decode the series of a rendered resource, in the order the chart lists them
+   * @param resource GTS, GTS list, Quantum object or list thereof
+   * @return decoded series, null if one of them can not be decoded
+   * @throws Exception when the resource is invalid
+   */
+  static List<GeoTimeSerie> parse(CharSequence resource) throws Exception {
+    final List<GeoTimeSerie> series = new ArrayList<>();
+    final GtsParser parser = new GtsParser();
+    final boolean[] decoded = { true };
+    new QuantumRewriter(null, null, new QuantumRewriter.SeriesTransform() {
+      @Override
+      public void transform(JsonScanner scanner, StringBuilder out) throws Exception {
+        GeoTimeSerie gts = parser.parse(scanner);
+        if (null == gts) {
+          decoded[0] = false;
+          scanner.skipValue();
+        } else {
+          series.add(gts);
+        }
+      }
+    }).rewrite(resource, new StringBuilder());
+    return decoded[0] ? series : null;
+  }
+
+  synchronized State get(String key) {
+    return this.states.get(key);
+  }
+
+  /**
+   * Track an element rendered in full
+   * @param key element of a paragraph
+   * @param identity source and options of the element data
+   * @param base published payload of the element data, as id/chunks
+   * @param series decoded series of the element
+   * @return state of the element
+   */
+  synchronized State rendered(String key, String identity, String base,
+      List<GeoTimeSerie> series) {
+    long points = 0;
+    for (GeoTimeSerie gts : series) {
+      points += gts.size();
+    }
+    State state = new State(identity, base, marks(series), Collections.<String>emptyList(),
+        points, 0);
+    this.states.put(key, state);
+    Iterator<String> iterator = this.states.keySet().iterator();
+    while (this.states.size() > this.maxEntries && iterator.hasNext()) {
+      iterator.next();
+      iterator.remove();
+    }
+    return state;
+  }
+
+  /**
+   * Track an element refreshed by a delta
+   * @param key element of a paragraph
+   * @param delta points sent to the chart
+   * @param payload published payload of the delta as id/chunks, null if it is empty
+   * @return state of the element
+   */
+  synchronized State appended(String key, Delta delta, String payload) {
+    State previous = delta.previous;
+    List<String> deltas = previous.deltas;
+    if (null != payload) {
+      deltas = new ArrayList<>(previous.deltas);
+      deltas.add(payload);
+    }
+    State state = new State(previous.identity, previous.base, delta.marks, deltas,
+        previous.basePoints, previous.deltaPoints + delta.count);
+    this.states.put(key, state);
+    return state;
+  }
+
+  synchronized void clear() {
+    this.states.clear();
+  }
+
+  /**
+   * Compute the points appended to the series of an element since its last render
+   * @param state last render of the element, can be null
+   * @param identity source and options of the element data
+   * @param series decoded series of the element
+   * @return the delta, null if the element must be rendered in full
+   */
+  static Delta diff(State state, String identity, List<GeoTimeSerie> series) {
+    return diff(state, identity, series, 0);
+  }
+
+  /**
+   * Compute the points appended to the series of an element since its last render
+   * @param state last render of the element, can be null
+   * @param identity source and options of the element data
+   * @param series decoded series of the element
+   * @param digits significant digits the values are rounded to, 0 to keep them as they are
+   * @return the delta, null if the element must be rendered in full
+   */
+  static Delta diff(State state, String identity, List<GeoTimeSerie> series, int digits) {
+    if (null == state || !state.identity.equals(identity)
+        || state.marks.size() != series.size() || state.deltas.size() >= MAX_DELTAS) {
+      return null;
+    }
+
+    StringBuilder points = new StringBuilder();
+    points.append('[');
+    long count = 0;
+    for (int i = 0; i < series.size(); i++) {
+      GeoTimeSerie gts = series.get(i);
+      Mark mark = state.marks.get(i);
+      if (!mark.metadata.equals(metadata(gts))) {
+        return null;
+      }
+
+      //
+      // Points up to the mark must be the ones already sent
+      //
+
+      int kept = 0;
+      long hash = 0;
+      for (int j = 0; j < gts.size(); j++) {
+        if (gts.tick(j) <= mark.lastTick) {
+          kept++;
+          hash += hash(gts, j);
+        }
+      }
+      if (kept != mark.count || hash != mark.hash) {
+        return null;
+      }
+
+      points.append(i > 0 ? ",[" : "[");
+      int written = 0;
+      for (int j = 0; j < gts.size(); j++) {
+        if (gts.tick(j) > mark.lastTick || 0 == mark.count) {
+          if (written++ > 0) {
+            points.append(',');
+          }
+          GtsWriter.writePoint(gts, j, digits, points);
+        }
+      }
+      points.append(']');
+      count += written;
+    }
+    points.append(']');
+
+    //
+    // Render in full once the deltas outweigh the base
+    //
+
+    if (state.deltaPoints + count > Math.max(state.basePoints, MAX_DELTAS)) {
+      return null;
+    }
+    return new Delta(state, points.toString(), marks(series), count);
+  }
+
+  private static List<Mark> marks(List<GeoTimeSerie> series) {
+    List<Mark> marks = new ArrayList<>(series.size());
+    for (GeoTimeSerie gts : series) {
+      long lastTick = Long.MIN_VALUE;
+      long hash = 0;
+      for (int j = 0; j < gts.size(); j++) {
+        lastTick = Math.max(lastTick, gts.tick(j));
+        hash += hash(gts, j);
+      }
+      marks.add(new Mark(metadata(gts), lastTick, gts.size(), hash));
+    }
+    return marks;
+  }
+
+  private static String metadata(GeoTimeSerie gts) {
+    return gts.getClassName() + gts.getLabels();
+  }
+
+  /**
+   * Hash of a point, summed over the points of a series so that their order does not matter
+   */
+  private static long hash(GeoTimeSerie gts, int index) {
+    long value;
+    switch (gts.type()) {
+      case LONG:
+        value = gts.longValue(index);
+        break;
+      case DOUBLE:
+        value = Double.doubleToLongBits(gts.doubleValue(index));
+        break;
+      case BOOLEAN:
+        value = gts.booleanValue(index) ? 1 : 0;
+        break;
+      case STRING:
+        value = gts.stringValue(index).hashCode();
+        break;
+      default:
+        value = 0;
+        break;
+    }
+    long hash = mix(gts.tick(index)) ^ mix(value + 0x9e3779b97f4a7c15L);
+    hash ^= mix(Double.doubleToLongBits(gts.latitude(index)) + 31 * gts.elevation(index)
+        + 17 * Double.doubleToLongBits(gts.longitude(index)));
+    return hash;
+  }
+
+  private static long mix(long value) {
+    value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+    value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    return value ^ (value >>> 33);
+  }
+
+  /**
+   * Script remembering the data of an element rendered in full, as the base of its deltas
+   * @param elementId id of the component in the page
+   * @param key element of a paragraph
+   * @param state state of the element
+   * @return HTML script element
+   */
+  static String register(String elementId, String key, State state) {
+    return "<script>"
+        + "(function() {"
+        + "var cache = window.QuantumVizDelta = window.QuantumVizDelta || {};"
+        + "cache['" + key + "'] = { version: '" + state.version() + "', "
+        + "element: document.getElementById('" + elementId + "') };"
+        + "})();"
+        + "</script>";
+  }
+
+  /**
+   * Script appending the points of a delta to the data of the previous render, loaded from
+   * the data endpoint when the page does not hold it
+   * @param elementId id of the component in the page
+   * @param key element of a paragraph
+   * @param delta points of the delta
+   * @param state state of the element after the delta
+   * @param url url of the data endpoint
+   * @return HTML script element
+   */
+  static String appender(String elementId, String key, Delta delta, State state, String url) {
+    StringBuilder payloads = new StringBuilder();
+    payloads.append("['").append(delta.previous.base).append("'");
+    for (String payload : delta.previous.deltas) {
+      payloads.append(",'").append(payload).append("'");
+    }
+    payloads.append(']');
+    return "<script>"
+        + "(function() {"
+        + "var cache = window.QuantumVizDelta = window.QuantumVizDelta || {};"
+        + "var element = document.getElementById('" + elementId + "');"
+        + "var key = '" + key + "';"
+        + "var base = '" + url + DataTransport.CONTEXT + "';"
+        + "var payloads = " + payloads + ";"
+        + "var points = " + delta.points.replace("</", "<\\/") + ";"
+        + "function series(data) {"
+        + "var list = [];"
+        + "(Array.isArray(data) ? data : [data]).forEach(function(item) {"
+        + "if (item && Array.isArray(item.v)) { list.push(item); } "
+        + "else if (item && Array.isArray(item.gts)) { list.push.apply(list, item.gts); } "
+        + "else if (item && item.gts) { list.push(item.gts); }"
+        + "});"
+        + "return list;"
+        + "}"
+        + "function append(data, delta) {"
+        + "var list = series(data);"
+        + "for (var i = 0; i < delta.length && i < list.length; i++) {"
+        + "list[i].v = list[i].v.concat(delta[i]);"
+        + "}"
+        + "}"
+        + "function show(data) {"
+        + "append(data, points);"
+        + "cache[key] = { version: '" + state.version() + "', data: data };"
+        + "element.setAttribute('data', JSON.stringify(data));"
+        + "}"
+        + "function get(payload, done) {"
+        + "var parts = payload.split('/');"
+        + "var chunks = [];"
+        + "(function next(index) {"
+        + "var request = new XMLHttpRequest();"
+        + "request.open('GET', base + parts[0] + '/' + index);"
+        + "request.onload = function() {"
+        + "if (200 != request.status) { return; }"
+        + "chunks.push(request.responseText);"
+        + "if (index + 1 < parseInt(parts[1])) { next(index + 1); } "
+        + "else { done(JSON.parse(chunks.join(''))); }"
+        + "};"
+        + "request.send();"
+        + "})(0);"
+        + "}"
+        + "var entry = cache[key];"
+        + "var held = null;"
+        + "if (entry && entry.version == '" + delta.previous.version() + "') {"
+        + "held = entry.data || (entry.element && entry.element.getAttribute('data') "
+        + "? JSON.parse(entry.element.getAttribute('data')) : null);"
+        + "}"
+        + "if (held) { show(held); } else {"
+        + "get(payloads[0], function(data) {"
+        + "(function next(index) {"
+        + "if (index < payloads.length) {"
+        + "get(payloads[index], function(previous) { append(data, previous); next(index + 1); });"
+        + "} else { show(data); }"
+        + "})(1);"
+        + "});"
+        + "}"
+        + "})();"
+        + "</script>";
+  }
+}
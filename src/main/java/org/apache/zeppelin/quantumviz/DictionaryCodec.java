@@ -0,0 +1,183 @@
+//
+//   Copyright 2016  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package org.apache.zeppelin.quantumviz;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Dictionary encoding of the metadata of a payload in Quantum format, decoded in the browser
+ * by quantumviz-dictionary.js.
+ *
+ * Class names, label and attribute keys and values are written once in a string table, each
+ * series referring to them by index: its class name is the index of a string, its labels
+ * and attributes are lists of key and value indices. Values and other members are copied as
+ * they are. The payload is written as {"s":[strings],"d":payload}.
+ */
+final class DictionaryCodec {
+
+  static final String DICTIONARY = "dictionary";
+
+  static final String SCRIPT_RESOURCE = "quantumviz-dictionary.js";
+
+  static final String STRINGS_KEY = "s";
+  static final String DATA_KEY = "d";
+
+  private DictionaryCodec() {
+  }
+
+  /**
+   * @return source of the decoder, defining window.QuantumVizDictionary
+   * @throws IOException if the script can not be read from the classpath
+   */
+  static String script() throws IOException {
+    return ColumnarCodec.script(SCRIPT_RESOURCE);
+  }
+
+  /**
+   * Encode a payload
+   * @param payload payload in Quantum format
+   * @return JSON object holding the string table and the payload referring to it
+   * @throws Exception if the payload is malformed
+   */
+  static String encode(CharSequence payload) throws Exception {
+    Table table = new Table();
+    StringBuilder data = new StringBuilder(payload.length());
+    new QuantumRewriter(null, null, table).rewrite(payload, data);
+
+    StringBuilder out = new StringBuilder(data.length() + table.length + 16);
+    out.append("{\"").append(STRINGS_KEY).append("\":[");
+    for (int i = 0; i < table.strings.size(); i++) {
+      if (i > 0) {
+        out.append(',');
+      }
+      out.append(JSONObject.quote(table.strings.get(i)));
+    }
+    out.append("],\"").append(DATA_KEY).append("\":").append(data).append('}');
+    return out.toString();
+  }
+
+  /**
+   * Replace the metadata of each series by indices of the string table
+   */
+  private static final class Table implements QuantumRewriter.SeriesTransform {
+
+    private final Map<String, Integer> indices = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+    private final StringBuilder series = new StringBuilder();
+    private int length = 0;
+
+    @Override
+    public void transform(JsonScanner scanner, StringBuilder out) throws Exception {
+      int start = scanner.position();
+      int size = this.strings.size();
+      this.series.setLength(0);
+      if (write(scanner, this.series)) {
+        out.append(this.series);
+        return;
+      }
+
+      //
+      // Forget the strings of the series copied as it is
+      //
+
+      while (this.strings.size() > size) {
+        String value = this.strings.remove(this.strings.size() - 1);
+        this.indices.remove(value);
+        this.length -= value.length() + 3;
+      }
+      scanner.position(start);
+      scanner.copyValue(out);
+    }
+
+    /**
+     * @return false if the object has no class name, or labels which are not strings,
+     * the object being then copied as it is
+     */
+    private boolean write(JsonScanner scanner, StringBuilder out) throws JSONException {
+      boolean hasClass = false;
+      scanner.expect('{');
+      out.append('{');
+      if (!scanner.consume('}')) {
+        boolean first = true;
+        do {
+          int keyStart = scanner.position();
+          String key = scanner.readString();
+          scanner.expect(':');
+          if (!first) {
+            out.append(',');
+          }
+          first = false;
+          out.append(scanner.text(), keyStart, scanner.position());
+          if (GtsParser.JSON_CLASS_KEY.equals(key)) {
+            if ('"' != scanner.peek()) {
+              return false;
+            }
+            out.append(index(scanner.readString()));
+            hasClass = true;
+          } else if ((GtsParser.JSON_LABELS_KEY.equals(key)
+              || GtsParser.JSON_ATTRIBUTES_KEY.equals(key)) && '{' == scanner.peek()) {
+            if (!writeStrings(scanner, out)) {
+              return false;
+            }
+          } else {
+            scanner.copyValue(out);
+          }
+        } while (scanner.nextMember('}'));
+      }
+      out.append('}');
+      return hasClass;
+    }
+
+    private boolean writeStrings(JsonScanner scanner, StringBuilder out) throws JSONException {
+      scanner.expect('{');
+      out.append('[');
+      if (!scanner.consume('}')) {
+        boolean first = true;
+        do {
+          String key = scanner.readString();
+          scanner.expect(':');
+          if ('"' != scanner.peek()) {
+            return false;
+          }
+          out.append(first ? "" : ",").append(index(key)).append(',');
+          out.append(index(scanner.readString()));
+          first = false;
+        } while (scanner.nextMember('}'));
+      }
+      out.append(']');
+      return true;
+    }
+
+    private int index(String value) {
+      Integer index = this.indices.get(value);
+      if (null == index) {
+        index = this.strings.size();
+        this.indices.put(value, index);
+        this.strings.add(value);
+        this.length += value.length() + 3;
+      }
+      return index;
+    }
+  }
+}
@@ -0,0 +1,271 @@
+//
+//   Copyright 2016  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package org.apache.zeppelin.quantumviz;
+
+import java.util.Arrays;
+
+/**
+ * Reduce the values of each series to the number of points a chart can display.
+ *
+ * Series are decoded in columnar series, points are selected by index.
+ * Series with non numeric values are left untouched.
+ */
+final class Downsampler implements QuantumRewriter.DecodingTransform {
+
+  static final String LTTB = "lttb";
+  static final String M4 = "m4";
+  static final String MINMAX = "minmax";
+
+  private final String algorithm;
+  private final int maxPoints;
+  private final GtsParser parser = new GtsParser();
+
+  /**
+   * @param algorithm one of lttb, m4 or minmax
+   * @param maxPoints maximum number of points kept per series
+   */
+  Downsampler(String algorithm, int maxPoints) {
+    this.algorithm = algorithm;
+    this.maxPoints = maxPoints;
+  }
+
+  /**
+   * @return options identifying the output of this downsampler
+   */
+  String options() {
+    return this.algorithm + ":" + this.maxPoints;
+  }
+
+  /**
+   * Number of points per pixel column each algorithm needs to draw a faithful line
+   * @param algorithm downsampling algorithm
+   * @return points per pixel
+   */
+  static int pointsPerPixel(String algorithm) {
+    if (M4.equals(algorithm)) {
+      return 4;
+    } else if (MINMAX.equals(algorithm)) {
+      return 2;
+    }
+    return 1;
+  }
+
+  /**
+   * Select the indices of the points to keep
+   * @param gts numeric series
+   * @return sorted indices of the selected points
+   */
+  int[] select(GeoTimeSerie gts) {
+    int size = gts.size();
+    if (size <= this.maxPoints) {
+      int[] all = new int[size];
+      for (int i = 0; i < size; i++) {
+        all[i] = i;
+      }
+      return all;
+    }
+
+    //
+    // The algorithms walk the points in time order, Warp 10 returning the newest first
+    //
+
+    int[] order = gts.isSorted() ? null : gts.order();
+    GeoTimeSerie sorted = null == order ? gts : gts.select(order);
+    int[] selected;
+    if (M4.equals(this.algorithm)) {
+      selected = buckets(sorted, Math.max(1, this.maxPoints / 4), true);
+    } else if (MINMAX.equals(this.algorithm)) {
+      selected = buckets(sorted, Math.max(1, this.maxPoints / 2), false);
+    } else if (this.maxPoints < 3) {
+
+      //
+      // A triangle needs three points, only the bounds of the series fit in the budget
+      //
+
+      selected = 1 == this.maxPoints ? new int[] { size - 1 } : new int[] { 0, size - 1 };
+    } else {
+      selected = lttb(sorted, this.maxPoints);
+    }
+    if (null == order) {
+      return selected;
+    }
+    for (int i = 0; i < selected.length; i++) {
+      selected[i] = order[selected[i]];
+    }
+    Arrays.sort(selected);
+    return selected;
+  }
+
+  /**
+   * Largest-Triangle-Three-Buckets
+   */
+  static int[] lttb(GeoTimeSerie gts, int threshold) {
+    int size = gts.size();
+    int[] sampled = new int[threshold];
+    long origin = gts.tick(0);
+    double every = (double) (size - 2) / (threshold - 2);
+    int a = 0;
+    sampled[0] = 0;
+
+    for (int i = 0; i < threshold - 2; i++) {
+
+      //
+      // Average point of the next bucket
+      //
+
+      int avgStart = (int) Math.floor((i + 1) * every) + 1;
+      int avgEnd = Math.min((int) Math.floor((i + 2) * every) + 1, size);
+      double avgX = 0;
+      double avgY = 0;
+      for (int j = avgStart; j < avgEnd; j++) {
+        avgX += gts.tick(j) - origin;
+        avgY += gts.doubleValue(j);
+      }
+      int avgLength = Math.max(1, avgEnd - avgStart);
+      avgX /= avgLength;
+      avgY /= avgLength;
+
+      //
+      // Point of the current bucket forming the largest triangle
+      //
+
+      int rangeStart = (int) Math.floor(i * every) + 1;
+      int rangeEnd = (int) Math.floor((i + 1) * every) + 1;
+      double ax = gts.tick(a) - origin;
+      double ay = gts.doubleValue(a);
+      double maxArea = -1;
+      int next = rangeStart;
+      for (int j = rangeStart; j < rangeEnd; j++) {
+        double area = Math.abs((ax - avgX) * (gts.doubleValue(j) - ay)
+            - (ax - (gts.tick(j) - origin)) * (avgY - ay));
+        if (area > maxArea) {
+          maxArea = area;
+          next = j;
+        }
+      }
+      sampled[i + 1] = next;
+      a = next;
+    }
+    sampled[threshold - 1] = size - 1;
+    return sampled;
+  }
+
+  /**
+   * Keep the extrema of each time bucket, and its first and last points for M4
+   */
+  static int[] buckets(GeoTimeSerie gts, int count, boolean m4) {
+    int size = gts.size();
+    long min = Long.MAX_VALUE;
+    long max = Long.MIN_VALUE;
+    for (int i = 0; i < size; i++) {
+      min = Math.min(min, gts.tick(i));
+      max = Math.max(max, gts.tick(i));
+    }
+    double span = (double) (max - min) + 1;
+
+    int[] first = new int[count];
+    int[] last = new int[count];
+    int[] low = new int[count];
+    int[] high = new int[count];
+    Arrays.fill(first, -1);
+
+    for (int i = 0; i < size; i++) {
+      int bucket = (int) Math.min(count - 1, (long) ((gts.tick(i) - min) / span * count));
+      double value = gts.doubleValue(i);
+      if (-1 == first[bucket]) {
+        first[bucket] = i;
+        low[bucket] = i;
+        high[bucket] = i;
+      }
+      last[bucket] = i;
+      if (value < gts.doubleValue(low[bucket])) {
+        low[bucket] = i;
+      }
+      if (value > gts.doubleValue(high[bucket])) {
+        high[bucket] = i;
+      }
+    }
+
+    int[] selected = new int[count * 4];
+    int length = 0;
+    for (int bucket = 0; bucket < count; bucket++) {
+      if (-1 == first[bucket]) {
+        continue;
+      }
+      if (m4) {
+        selected[length++] = first[bucket];
+        selected[length++] = last[bucket];
+      }
+      selected[length++] = low[bucket];
+      selected[length++] = high[bucket];
+    }
+
+    //
+    // Keep points in their original order, without duplicates
+    //
+
+    Arrays.sort(selected, 0, length);
+    int unique = 0;
+    for (int i = 0; i < length; i++) {
+      if (0 == unique || selected[unique - 1] != selected[i]) {
+        selected[unique++] = selected[i];
+      }
+    }
+    return Arrays.copyOf(selected, unique);
+  }
+
+  /**
+   * @return number of points decoded by this transform
+   */
+  long points() {
+    return this.parser.points();
+  }
+
+  @Override
+  public void transform(JsonScanner scanner, StringBuilder out) throws Exception {
+    int start = scanner.position();
+    GeoTimeSerie gts = this.parser.parse(scanner);
+    GeoTimeSerie reduced = null == gts ? null : reduce(gts);
+
+    //
+    // Copy the series as it is when there is nothing to reduce
+    //
+
+    if (reduced == gts) {
+      scanner.position(start);
+      scanner.copyValue(out);
+      return;
+    }
+    GtsWriter.write(reduced, out);
+  }
+
+  @Override
+  public GeoTimeSerie decode(JsonScanner scanner) throws Exception {
+    GeoTimeSerie gts = this.parser.parse(scanner);
+    return null == gts ? null : reduce(gts);
+  }
+
+  /**
+   * @return the downsampled series, or the series itself when there is nothing to reduce
+   */
+  private GeoTimeSerie reduce(GeoTimeSerie gts) {
+    if (!gts.isNumeric() || gts.size() <= this.maxPoints) {
+      return gts;
+    }
+    return gts.select(select(gts));
+  }
+}
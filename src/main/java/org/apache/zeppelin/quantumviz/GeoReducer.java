@@ -0,0 +1,315 @@
+//
+//   Copyright 2016  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package org.apache.zeppelin.quantumviz;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Reduce the located points of each series to the number of points a map can display.
+ *
+ * Point clouds are clustered on a geohash grid, each cell being written as a single point
+ * at the centroid of its points, its value being the number of points and its timestamp the
+ * latest one. Trajectories are simplified with Douglas-Peucker, refining the segment with the
+ * largest error first until the point budget is reached. Points without location are dropped,
+ * series without location are left untouched.
+ */
+final class GeoReducer implements QuantumRewriter.DecodingTransform {
+
+  static final String CLUSTER = "cluster";
+  static final String SIMPLIFY = "simplify";
+
+  static final int MAX_PRECISION = 12;
+
+  private final String algorithm;
+  private final int maxPoints;
+  private final int precision;
+  private final GtsParser parser = new GtsParser();
+
+  /**
+   * @param algorithm cluster or simplify
+   * @param maxPoints maximum number of points kept per series
+   * @param precision geohash precision of the clusters, from 1 to 12 characters, 0 to use the
+   * finest precision fitting in maxPoints
+   */
+  GeoReducer(String algorithm, int maxPoints, int precision) {
+    this.algorithm = algorithm;
+    this.maxPoints = Math.max(2, maxPoints);
+    this.precision = precision;
+  }
+
+  /**
+   * @return options identifying the output of this reducer
+   */
+  String options() {
+    return this.algorithm + ":" + this.maxPoints + ":" + this.precision;
+  }
+
+  /**
+   * @return number of points decoded by this transform
+   */
+  long points() {
+    return this.parser.points();
+  }
+
+  @Override
+  public void transform(JsonScanner scanner, StringBuilder out) throws Exception {
+    int start = scanner.position();
+    GeoTimeSerie gts = this.parser.parse(scanner);
+    GeoTimeSerie reduced = null == gts ? null : reduce(gts);
+
+    //
+    // Copy the series as it is when there is nothing to reduce
+    //
+
+    if (reduced == gts) {
+      scanner.position(start);
+      scanner.copyValue(out);
+      return;
+    }
+    GtsWriter.write(reduced, out);
+  }
+
+  @Override
+  public GeoTimeSerie decode(JsonScanner scanner) throws Exception {
+    GeoTimeSerie gts = this.parser.parse(scanner);
+    return null == gts ? null : reduce(gts);
+  }
+
+  /**
+   * @return the reduced series, or the series itself when there is nothing to reduce
+   */
+  private GeoTimeSerie reduce(GeoTimeSerie gts) {
+    if (!gts.hasLocations()
+        || (gts.size() <= this.maxPoints && gts.isLocated() && 0 == this.precision)) {
+      return gts;
+    }
+    if (CLUSTER.equals(this.algorithm)) {
+      return cluster(gts);
+    }
+    return gts.select(simplify(gts, this.maxPoints));
+  }
+
+  /**
+   * Geohash of a location, as a long holding 5 bits per character
+   * @param latitude latitude in degrees
+   * @param longitude longitude in degrees
+   * @param precision number of geohash characters
+   * @return geohash bits
+   */
+  static long geohash(double latitude, double longitude, int precision) {
+    double minLat = -90;
+    double maxLat = 90;
+    double minLon = -180;
+    double maxLon = 180;
+    long hash = 0;
+    for (int bit = 0; bit < precision * 5; bit++) {
+      hash <<= 1;
+      if (0 == (bit & 1)) {
+        double middle = (minLon + maxLon) / 2;
+        if (longitude >= middle) {
+          hash |= 1;
+          minLon = middle;
+        } else {
+          maxLon = middle;
+        }
+      } else {
+        double middle = (minLat + maxLat) / 2;
+        if (latitude >= middle) {
+          hash |= 1;
+          minLat = middle;
+        } else {
+          maxLat = middle;
+        }
+      }
+    }
+    return hash;
+  }
+
+  /**
+   * Aggregate the points of each geohash cell
+   * @param gts located series
+   * @return series holding a point per cell
+   */
+  GeoTimeSerie cluster(GeoTimeSerie gts) {
+    int size = gts.size();
+    long[] hashes = new long[size];
+    int located = 0;
+    for (int i = 0; i < size; i++) {
+      if (!Double.isNaN(gts.latitude(i))) {
+        hashes[located++] = geohash(gts.latitude(i), gts.longitude(i), MAX_PRECISION);
+      }
+    }
+
+    int cellPrecision = this.precision;
+    if (cellPrecision <= 0) {
+      cellPrecision = precisionFor(Arrays.copyOf(hashes, located), this.maxPoints);
+    }
+    int shift = (MAX_PRECISION - cellPrecision) * 5;
+
+    //
+    // Cells are written in the order of their first point
+    //
+
+    Map<Long, double[]> cells = new LinkedHashMap<>();
+    int index = 0;
+    for (int i = 0; i < size; i++) {
+      if (Double.isNaN(gts.latitude(i))) {
+        continue;
+      }
+      Long cell = hashes[index++] >>> shift;
+      double[] aggregate = cells.get(cell);
+      if (null == aggregate) {
+        aggregate = new double[] { 0, 0, 0, Long.MIN_VALUE };
+        cells.put(cell, aggregate);
+      }
+      aggregate[0]++;
+      aggregate[1] += gts.latitude(i);
+      aggregate[2] += gts.longitude(i);
+      aggregate[3] = Math.max(aggregate[3], gts.tick(i));
+    }
+
+    GeoTimeSerie clusters = gts.cloneEmpty(cells.size());
+    for (double[] aggregate : cells.values()) {
+      clusters.add((long) aggregate[3], aggregate[1] / aggregate[0], aggregate[2] / aggregate[0],
+          GeoTimeSerie.NO_ELEVATION, (long) aggregate[0]);
+    }
+    return clusters;
+  }
+
+  /**
+   * Finest geohash precision whose number of cells fits in the budget
+   * @param hashes geohashes of the points at the maximum precision
+   * @param maxPoints maximum number of cells
+   * @return precision in characters
+   */
+  static int precisionFor(long[] hashes, int maxPoints) {
+    Arrays.sort(hashes);
+    for (int precision = MAX_PRECISION; precision > 1; precision--) {
+      int shift = (MAX_PRECISION - precision) * 5;
+      int cells = 0;
+      for (int i = 0; i < hashes.length && cells <= maxPoints; i++) {
+        if (0 == i || (hashes[i] >>> shift) != (hashes[i - 1] >>> shift)) {
+          cells++;
+        }
+      }
+      if (cells <= maxPoints) {
+        return precision;
+      }
+    }
+    return 1;
+  }
+
+  /**
+   * Douglas-Peucker simplification down to a point budget, the segment with the largest
+   * error being split first
+   * @param gts series to simplify, points without location are dropped
+   * @param maxPoints maximum number of points kept
+   * @return sorted indices of the selected points
+   */
+  static int[] simplify(GeoTimeSerie gts, int maxPoints) {
+    int[] located = new int[gts.size()];
+    int count = 0;
+    double latitudes = 0;
+    for (int i = 0; i < gts.size(); i++) {
+      if (!Double.isNaN(gts.latitude(i))) {
+        located[count++] = i;
+        latitudes += gts.latitude(i);
+      }
+    }
+    if (count <= maxPoints) {
+      return Arrays.copyOf(located, count);
+    }
+
+    //
+    // Distances are computed on an equirectangular projection around the mean latitude
+    //
+
+    double scale = Math.cos(Math.toRadians(latitudes / count));
+    double[] x = new double[count];
+    double[] y = new double[count];
+    for (int i = 0; i < count; i++) {
+      x[i] = gts.longitude(located[i]) * scale;
+      y[i] = gts.latitude(located[i]);
+    }
+
+    boolean[] kept = new boolean[count];
+    kept[0] = true;
+    kept[count - 1] = true;
+    int selected = 2;
+    PriorityQueue<double[]> segments = new PriorityQueue<>(64,
+        new Comparator<double[]>() {
+          @Override
+          public int compare(double[] a, double[] b) {
+            return Double.compare(b[0], a[0]);
+          }
+        });
+    addSegment(segments, x, y, 0, count - 1);
+
+    while (selected < maxPoints && !segments.isEmpty()) {
+      double[] segment = segments.poll();
+      int first = (int) segment[1];
+      int last = (int) segment[2];
+      int split = (int) segment[3];
+      kept[split] = true;
+      selected++;
+      addSegment(segments, x, y, first, split);
+      addSegment(segments, x, y, split, last);
+    }
+
+    int[] indices = new int[selected];
+    int length = 0;
+    for (int i = 0; i < count; i++) {
+      if (kept[i]) {
+        indices[length++] = located[i];
+      }
+    }
+    return indices;
+  }
+
+  /**
+   * Queue a segment with the point farthest from it, as { distance, first, last, split }
+   */
+  private static void addSegment(PriorityQueue<double[]> segments, double[] x, double[] y,
+      int first, int last) {
+    if (last - first < 2) {
+      return;
+    }
+    double dx = x[last] - x[first];
+    double dy = y[last] - y[first];
+    double length = dx * dx + dy * dy;
+    double farthest = -1;
+    int split = first + 1;
+    for (int i = first + 1; i < last; i++) {
+      double distance;
+      if (0 == length) {
+        distance = (x[i] - x[first]) * (x[i] - x[first]) + (y[i] - y[first]) * (y[i] - y[first]);
+      } else {
+        double cross = dx * (y[first] - y[i]) - dy * (x[first] - x[i]);
+        distance = cross * cross / length;
+      }
+      if (distance > farthest) {
+        farthest = distance;
+        split = i;
+      }
+    }
+    segments.add(new double[] { farthest, first, last, split });
+  }
+}
@@ -0,0 +1,110 @@
+//
+//   Copyright 2016  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package org.apache.zeppelin.quantumviz;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * LRU cache of the tile indexes of the rendered resources, bounded in bytes.
+ *
+ * Each index is published under a random id, its tiles being queried by the maps when they
+ * move. The id of a resource is kept under its render cache key, so that a resource rendered
+ * again reuses its index as long as it was not evicted.
+ */
+final class GeoTileCache {
+
+  private final LinkedHashMap<String, GeoTileIndex> indexes =
+      new LinkedHashMap<>(16, 0.75f, true);
+  private final Map<String, String> resources = new HashMap<>();
+  private final Map<String, String> owners = new HashMap<>();
+  private final long maxBytes;
+
+  private long bytes = 0;
+
+  /**
+   * @param maxBytes maximum size of the cached indexes, 0 to disable the cache
+   */
+  GeoTileCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  boolean isEnabled() {
+    return this.maxBytes > 0;
+  }
+
+  /**
+   * @param key render cache key of a resource
+   * @return id of the index of the resource, null if it is not cached
+   */
+  synchronized String get(String key) {
+    String id = this.resources.get(key);
+    if (null != id && !this.indexes.containsKey(id)) {
+      this.resources.remove(key);
+      return null;
+    }
+    return id;
+  }
+
+  /**
+   * Publish the index of a resource
+   * @param key render cache key of the resource
+   * @param index index of the located points of the resource
+   * @return id of the index, null if it does not fit in the cache
+   */
+  synchronized String put(String key, GeoTileIndex index) {
+    long size = index.bytes();
+    if (size > this.maxBytes) {
+      return null;
+    }
+    String id = UUID.randomUUID().toString();
+    this.indexes.put(id, index);
+    this.owners.put(id, key);
+    this.resources.put(key, id);
+    this.bytes += size;
+
+    Iterator<Map.Entry<String, GeoTileIndex>> iterator = this.indexes.entrySet().iterator();
+    while (this.bytes > this.maxBytes && iterator.hasNext()) {
+      Map.Entry<String, GeoTileIndex> eldest = iterator.next();
+      iterator.remove();
+      this.bytes -= eldest.getValue().bytes();
+      String owner = this.owners.remove(eldest.getKey());
+      if (null != owner && eldest.getKey().equals(this.resources.get(owner))) {
+        this.resources.remove(owner);
+      }
+    }
+    return id;
+  }
+
+  /**
+   * @param id id of a published index
+   * @return the index, null if it was evicted
+   */
+  synchronized GeoTileIndex index(String id) {
+    return this.indexes.get(id);
+  }
+
+  synchronized void clear() {
+    this.indexes.clear();
+    this.resources.clear();
+    this.owners.clear();
+    this.bytes = 0;
+  }
+}
@@ -0,0 +1,289 @@
+//
+//   Copyright 2016  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package org.apache.zeppelin.quantumviz;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Spatial index of the located points of a resource, serving the web mercator tiles of a map.
+ *
+ * The points of each series are sorted by geohash, so that the points of a geohash cell are
+ * a range found by binary search. A tile is covered by a few cells, its points being the ones
+ * of these ranges within its bounds. When a tile holds more points than its budget, the points
+ * of each series are clustered on the finest geohash grid fitting in the budget.
+ */
+final class GeoTileIndex {
+
+  static final int MAX_ZOOM = 24;
+
+  //
+  // Number of geohash cells covering a tile at most, the coarser the cells the more points
+  // of their ranges fall out of the tile
+  //
+
+  private static final int MAX_CELLS = 64;
+
+  private static final double MAX_LATITUDE = Math.toDegrees(Math.atan(Math.sinh(Math.PI)));
+
+  private final List<GeoTimeSerie> series = new ArrayList<>();
+  private final List<long[]> hashes = new ArrayList<>();
+  private final List<int[]> orders = new ArrayList<>();
+  private final long points;
+
+  /**
+   * @param list series of the resource, the ones without location are left out
+   */
+  GeoTileIndex(List<GeoTimeSerie> list) {
+    long count = 0;
+    for (GeoTimeSerie gts : list) {
+      if (!gts.hasLocations()) {
+        continue;
+      }
+      long[] located = new long[gts.size()];
+      int[] order = new int[gts.size()];
+      int size = 0;
+      for (int i = 0; i < gts.size(); i++) {
+        if (!Double.isNaN(gts.latitude(i))) {
+          located[i] = GeoReducer.geohash(gts.latitude(i), gts.longitude(i),
+              GeoReducer.MAX_PRECISION);
+          order[size++] = i;
+        }
+      }
+      GeoTimeSerie.sort(order, size, located);
+      order = Arrays.copyOf(order, size);
+      long[] sorted = new long[size];
+      for (int i = 0; i < size; i++) {
+        sorted[i] = located[order[i]];
+      }
+      this.series.add(gts);
+      this.hashes.add(sorted);
+      this.orders.add(order);
+      count += size;
+    }
+    this.points = count;
+  }
+
+  /**
+   * @return number of indexed points
+   */
+  long points() {
+    return this.points;
+  }
+
+  /**
+   * @return approximate heap size of the index and of its series
+   */
+  long bytes() {
+    long bytes = 0;
+    for (GeoTimeSerie gts : this.series) {
+      bytes += 64 + gts.size() * (gts.isElevated() ? 40L : 32L);
+    }
+    return bytes + this.points * 12;
+  }
+
+  /**
+   * Bounds of a web mercator tile
+   * @param z zoom level
+   * @param x column, from west to east
+   * @param y row, from north to south
+   * @return south, west, north and east bounds in degrees
+   */
+  static double[] bounds(int z, int x, int y) {
+    double tiles = 1L << z;
+    return new double[] { latitude(y + 1, tiles), x / tiles * 360 - 180,
+        latitude(y, tiles), (x + 1) / tiles * 360 - 180 };
+  }
+
+  private static double latitude(int y, double tiles) {
+    return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * y / tiles))));
+  }
+
+  /**
+   * Write the points of a tile
+   * @param z zoom level, from 0 to 24
+   * @param x column, from 0 to 2^z - 1
+   * @param y row, from 0 to 2^z - 1
+   * @param maxPoints maximum number of points of the tile
+   * @param out builder receiving the list of the series having points in the tile
+   * @return false if the tile does not exist
+   */
+  boolean tile(int z, int x, int y, int maxPoints, StringBuilder out) {
+    if (z < 0 || z > MAX_ZOOM || x < 0 || y < 0 || x >= (1L << z) || y >= (1L << z)) {
+      return false;
+    }
+    double[] bounds = bounds(z, x, y);
+    long[] cells = cells(bounds);
+    int shift = (GeoReducer.MAX_PRECISION - (int) cells[0]) * 5;
+
+    //
+    // The last row and column of the world include their outer bound
+    //
+
+    double south = 0 == z || y == (1L << z) - 1 ? -90 : bounds[0];
+    double north = 0 == y ? 90 : bounds[2];
+    boolean lastColumn = x == (1L << z) - 1;
+
+    List<int[]> selections = new ArrayList<>();
+    int total = 0;
+    for (int s = 0; s < this.series.size(); s++) {
+      GeoTimeSerie gts = this.series.get(s);
+      long[] sorted = this.hashes.get(s);
+      int[] order = this.orders.get(s);
+      int[] selected = new int[0];
+      int size = 0;
+      for (int c = 1; c < cells.length; c++) {
+        int from = lowerBound(sorted, cells[c] << shift);
+        int to = lowerBound(sorted, (cells[c] + 1) << shift);
+        for (int i = from; i < to; i++) {
+          int index = order[i];
+          double latitude = gts.latitude(index);
+          double longitude = gts.longitude(index);
+          if (latitude >= south && latitude < north && longitude >= bounds[1]
+              && (longitude < bounds[3] || lastColumn)) {
+            if (size == selected.length) {
+              selected = Arrays.copyOf(selected, Math.max(16, size * 2));
+            }
+            selected[size++] = index;
+          }
+        }
+      }
+      selected = Arrays.copyOf(selected, size);
+      Arrays.sort(selected);
+      selections.add(selected);
+      total += size;
+    }
+
+    //
+    // Over budget, the series are clustered on a common grid
+    //
+
+    int precision = total > maxPoints ? precisionFor(selections, maxPoints) : 0;
+    out.append('[');
+    boolean first = true;
+    for (int s = 0; s < this.series.size(); s++) {
+      int[] selected = selections.get(s);
+      if (0 == selected.length) {
+        continue;
+      }
+      if (!first) {
+        out.append(',');
+      }
+      first = false;
+      GeoTimeSerie gts = this.series.get(s).select(selected);
+      GtsWriter.write(0 == precision ? gts
+          : new GeoReducer(GeoReducer.CLUSTER, maxPoints, precision).cluster(gts), out);
+    }
+    out.append(']');
+    return true;
+  }
+
+  /**
+   * Geohash cells covering a tile, at the finest precision keeping their number bounded
+   * @return precision of the cells followed by their geohashes
+   */
+  private static long[] cells(double[] bounds) {
+    double south = Math.max(-90, bounds[0]);
+    double north = Math.min(90, bounds[2]);
+    for (int precision = GeoReducer.MAX_PRECISION; precision >= 1; precision--) {
+      double width = 360.0 / (1L << ((5 * precision + 1) / 2));
+      double height = 180.0 / (1L << (5 * precision / 2));
+      long west = (long) Math.floor((bounds[1] + 180) / width);
+      long east = Math.min((long) Math.floor((bounds[3] + 180) / width),
+          (long) (360 / width) - 1);
+      long bottom = (long) Math.floor((south + 90) / height);
+      long top = Math.min((long) Math.floor((north + 90) / height), (long) (180 / height) - 1);
+      long count = (east - west + 1) * (top - bottom + 1);
+      if (count > MAX_CELLS && precision > 1) {
+        continue;
+      }
+
+      //
+      // The world tile also holds the points beyond the latitude limit of web mercator
+      //
+
+      if (north >= MAX_LATITUDE - 1e-9) {
+        top = (long) (180 / height) - 1;
+      }
+      if (south <= 1e-9 - MAX_LATITUDE) {
+        bottom = 0;
+      }
+      long[] cells = new long[1 + (int) ((east - west + 1) * (top - bottom + 1))];
+      cells[0] = precision;
+      int index = 1;
+      for (long column = west; column <= east; column++) {
+        for (long row = bottom; row <= top; row++) {
+          cells[index++] = GeoReducer.geohash(-90 + (row + 0.5) * height,
+              -180 + (column + 0.5) * width, precision);
+        }
+      }
+      return cells;
+    }
+    throw new IllegalStateException();
+  }
+
+  /**
+   * Finest geohash precision whose cells, counted per series, fit in the budget
+   */
+  private int precisionFor(List<int[]> selections, int maxPoints) {
+    List<long[]> selected = new ArrayList<>();
+    for (int s = 0; s < selections.size(); s++) {
+      GeoTimeSerie gts = this.series.get(s);
+      int[] indices = selections.get(s);
+      long[] hashes = new long[indices.length];
+      for (int i = 0; i < indices.length; i++) {
+        hashes[i] = GeoReducer.geohash(gts.latitude(indices[i]), gts.longitude(indices[i]),
+            GeoReducer.MAX_PRECISION);
+      }
+      Arrays.sort(hashes);
+      selected.add(hashes);
+    }
+    for (int precision = GeoReducer.MAX_PRECISION; precision > 1; precision--) {
+      int shift = (GeoReducer.MAX_PRECISION - precision) * 5;
+      int cells = 0;
+      for (long[] hashes : selected) {
+        for (int i = 0; i < hashes.length && cells <= maxPoints; i++) {
+          if (0 == i || (hashes[i] >>> shift) != (hashes[i - 1] >>> shift)) {
+            cells++;
+          }
+        }
+      }
+      if (cells <= maxPoints) {
+        return precision;
+      }
+    }
+    return 1;
+  }
+
+  /**
+   * @return index of the first hash greater than or equal to the key
+   */
+  private static int lowerBound(long[] hashes, long key) {
+    int low = 0;
+    int high = hashes.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (hashes[middle] < key) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+}
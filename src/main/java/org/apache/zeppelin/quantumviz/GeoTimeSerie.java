@@ -0,0 +1,471 @@
+//
+//   Copyright 2016  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package org.apache.zeppelin.quantumviz;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Columnar in memory Geo Time Series.
+ *
+ * Each point is stored in primitive arrays: timestamps, optional latitudes, longitudes
+ * and elevations, and values of a single type. A missing location is stored as NaN,
+ * a missing elevation as NO_ELEVATION. Class name, labels and attributes are interned
+ * by the parser, series with the same labels sharing a single read-only map. Other members
+ * of the GTS object are kept as raw JSON.
+ */
+class GeoTimeSerie {
+
+  static final long NO_ELEVATION = Long.MIN_VALUE;
+
+  enum Type {
+    UNDEFINED, LONG, DOUBLE, BOOLEAN, STRING
+  }
+
+  private String className;
+  private Map<String, String> labels = new LinkedHashMap<>();
+  private Map<String, String> attributes = new LinkedHashMap<>();
+  private final Map<String, String> members = new LinkedHashMap<>();
+
+  private int size = 0;
+  private long[] ticks;
+  private double[] latitudes;
+  private double[] longitudes;
+  private long[] elevations;
+  private int located = 0;
+  private int elevated = 0;
+
+  private Type type = Type.UNDEFINED;
+  private long[] longs;
+  private double[] doubles;
+  private boolean[] booleans;
+  private String[] strings;
+
+  GeoTimeSerie(int capacity) {
+    this.ticks = new long[Math.max(1, capacity)];
+  }
+
+  //
+  // Metadata
+  //
+
+  String getClassName() {
+    return this.className;
+  }
+
+  void setClassName(String className) {
+    this.className = className;
+  }
+
+  Map<String, String> getLabels() {
+    return this.labels;
+  }
+
+  void setLabels(Map<String, String> labels) {
+    this.labels = labels;
+  }
+
+  Map<String, String> getAttributes() {
+    return this.attributes;
+  }
+
+  void setAttributes(Map<String, String> attributes) {
+    this.attributes = attributes;
+  }
+
+  /**
+   * @return other members of the GTS object, as raw JSON values
+   */
+  Map<String, String> getMembers() {
+    return this.members;
+  }
+
+  //
+  // Points
+  //
+
+  int size() {
+    return this.size;
+  }
+
+  Type type() {
+    return this.type;
+  }
+
+  long tick(int index) {
+    return this.ticks[index];
+  }
+
+  /**
+   * @return true if the ticks of the points are ascending
+   */
+  boolean isSorted() {
+    for (int i = 1; i < this.size; i++) {
+      if (this.ticks[i] < this.ticks[i - 1]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return indices of the points sorted by tick, points with the same tick keeping their order
+   */
+  int[] order() {
+    int[] order = new int[this.size];
+    boolean ascending = true;
+    boolean descending = true;
+    for (int i = 0; i < this.size; i++) {
+      order[i] = i;
+      if (i > 0) {
+        ascending &= this.ticks[i] >= this.ticks[i - 1];
+        descending &= this.ticks[i] < this.ticks[i - 1];
+      }
+    }
+    if (ascending) {
+      return order;
+    }
+
+    //
+    // Warp 10 returns the newest points first
+    //
+
+    if (descending) {
+      for (int i = 0; i < this.size; i++) {
+        order[i] = this.size - 1 - i;
+      }
+      return order;
+    }
+
+    sort(order, this.size, this.ticks);
+    return order;
+  }
+
+  /**
+   * Sort indices by key with a merge sort on primitive arrays, indices with the same key
+   * keeping their order
+   * @param order indices to sort, the first size ones
+   * @param size number of indices to sort
+   * @param keys keys of the indices
+   */
+  static void sort(int[] order, int size, long[] keys) {
+    int[] buffer = Arrays.copyOf(order, size);
+    mergeSort(buffer, order, 0, size, keys);
+  }
+
+  //
+  // Sort the range of src into dst, both holding the same indices on entry. The halves are
+  // sorted into src, swapping the arrays at each level, then merged back into dst
+  //
+
+  private static void mergeSort(int[] src, int[] dst, int from, int to, long[] keys) {
+    if (to - from < 16) {
+      for (int i = from + 1; i < to; i++) {
+        int index = dst[i];
+        long key = keys[index];
+        int j = i - 1;
+        while (j >= from && keys[dst[j]] > key) {
+          dst[j + 1] = dst[j];
+          j--;
+        }
+        dst[j + 1] = index;
+      }
+      return;
+    }
+    int middle = (from + to) >>> 1;
+    mergeSort(dst, src, from, middle, keys);
+    mergeSort(dst, src, middle, to, keys);
+    if (keys[src[middle - 1]] <= keys[src[middle]]) {
+      System.arraycopy(src, from, dst, from, to - from);
+      return;
+    }
+    int p = from;
+    int q = middle;
+    for (int i = from; i < to; i++) {
+      if (q >= to || (p < middle && keys[src[p]] <= keys[src[q]])) {
+        dst[i] = src[p++];
+      } else {
+        dst[i] = src[q++];
+      }
+    }
+  }
+
+  /**
+   * @return true if every point has a location
+   */
+  boolean isLocated() {
+    return this.size > 0 && this.located == this.size;
+  }
+
+  /**
+   * @return true if at least one point has a location
+   */
+  boolean hasLocations() {
+    return this.located > 0;
+  }
+
+  boolean isElevated() {
+    return this.size > 0 && this.elevated == this.size;
+  }
+
+  boolean hasElevations() {
+    return this.elevated > 0;
+  }
+
+  double latitude(int index) {
+    return null == this.latitudes ? Double.NaN : this.latitudes[index];
+  }
+
+  double longitude(int index) {
+    return null == this.longitudes ? Double.NaN : this.longitudes[index];
+  }
+
+  long elevation(int index) {
+    return null == this.elevations ? NO_ELEVATION : this.elevations[index];
+  }
+
+  boolean isNumeric() {
+    return Type.LONG == this.type || Type.DOUBLE == this.type;
+  }
+
+  long longValue(int index) {
+    return this.longs[index];
+  }
+
+  boolean booleanValue(int index) {
+    return this.booleans[index];
+  }
+
+  String stringValue(int index) {
+    return this.strings[index];
+  }
+
+  /**
+   * @return value as a double, for numeric series
+   */
+  double doubleValue(int index) {
+    return Type.LONG == this.type ? this.longs[index] : this.doubles[index];
+  }
+
+  /**
+   * @return value boxed as a Long, Double, Boolean or String
+   */
+  Object value(int index) {
+    switch (this.type) {
+      case LONG:
+        return this.longs[index];
+      case DOUBLE:
+        return this.doubles[index];
+      case BOOLEAN:
+        return this.booleans[index];
+      case STRING:
+        return this.strings[index];
+      default:
+        return null;
+    }
+  }
+
+  //
+  // Builder methods, a point is added with its location then one of the value setters
+  //
+
+  private int addPoint(long tick, double latitude, double longitude, long elevation) {
+    if (this.size == this.ticks.length) {
+      grow(this.size * 2);
+    }
+    int index = this.size++;
+    this.ticks[index] = tick;
+    if (!Double.isNaN(latitude) && !Double.isNaN(longitude)) {
+      if (null == this.latitudes) {
+        this.latitudes = new double[this.ticks.length];
+        this.longitudes = new double[this.ticks.length];
+        Arrays.fill(this.latitudes, Double.NaN);
+        Arrays.fill(this.longitudes, Double.NaN);
+      }
+      this.latitudes[index] = latitude;
+      this.longitudes[index] = longitude;
+      this.located++;
+    }
+    if (NO_ELEVATION != elevation) {
+      if (null == this.elevations) {
+        this.elevations = new long[this.ticks.length];
+        Arrays.fill(this.elevations, NO_ELEVATION);
+      }
+      this.elevations[index] = elevation;
+      this.elevated++;
+    }
+    return index;
+  }
+
+  /**
+   * @return false if the series already holds values of an other type
+   */
+  boolean add(long tick, double latitude, double longitude, long elevation, long value) {
+    if (Type.DOUBLE == this.type) {
+      return add(tick, latitude, longitude, elevation, (double) value);
+    }
+    if (!setType(Type.LONG)) {
+      return false;
+    }
+    int index = addPoint(tick, latitude, longitude, elevation);
+    this.longs[index] = value;
+    return true;
+  }
+
+  boolean add(long tick, double latitude, double longitude, long elevation, double value) {
+    if (Type.LONG == this.type) {
+
+      //
+      // Promote the integer values already stored
+      //
+
+      this.doubles = new double[this.ticks.length];
+      for (int i = 0; i < this.size; i++) {
+        this.doubles[i] = this.longs[i];
+      }
+      this.longs = null;
+      this.type = Type.DOUBLE;
+    }
+    if (!setType(Type.DOUBLE)) {
+      return false;
+    }
+    int index = addPoint(tick, latitude, longitude, elevation);
+    this.doubles[index] = value;
+    return true;
+  }
+
+  boolean add(long tick, double latitude, double longitude, long elevation, boolean value) {
+    if (!setType(Type.BOOLEAN)) {
+      return false;
+    }
+    int index = addPoint(tick, latitude, longitude, elevation);
+    this.booleans[index] = value;
+    return true;
+  }
+
+  boolean add(long tick, double latitude, double longitude, long elevation, String value) {
+    if (!setType(Type.STRING)) {
+      return false;
+    }
+    int index = addPoint(tick, latitude, longitude, elevation);
+    this.strings[index] = value;
+    return true;
+  }
+
+  /**
+   * Copy a point of an other series of the same type
+   */
+  void add(GeoTimeSerie other, int index) {
+    long tick = other.tick(index);
+    double latitude = other.latitude(index);
+    double longitude = other.longitude(index);
+    long elevation = other.elevation(index);
+    switch (other.type()) {
+      case LONG:
+        add(tick, latitude, longitude, elevation, other.longValue(index));
+        break;
+      case DOUBLE:
+        add(tick, latitude, longitude, elevation, other.doubleValue(index));
+        break;
+      case BOOLEAN:
+        add(tick, latitude, longitude, elevation, other.booleanValue(index));
+        break;
+      case STRING:
+        add(tick, latitude, longitude, elevation, other.stringValue(index));
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Build a series holding the same metadata and only some points
+   * @param indices indices of the points to keep
+   * @return new series
+   */
+  GeoTimeSerie select(int[] indices) {
+    GeoTimeSerie selected = cloneEmpty(indices.length);
+    for (int index : indices) {
+      selected.add(this, index);
+    }
+    return selected;
+  }
+
+  /**
+   * @return a series holding the same metadata and no point
+   */
+  GeoTimeSerie cloneEmpty(int capacity) {
+    GeoTimeSerie empty = new GeoTimeSerie(capacity);
+    empty.className = this.className;
+    empty.labels = this.labels;
+    empty.attributes = this.attributes;
+    empty.members.putAll(this.members);
+    return empty;
+  }
+
+  private boolean setType(Type newType) {
+    if (this.type == newType) {
+      return true;
+    }
+    if (Type.UNDEFINED != this.type) {
+      return false;
+    }
+    this.type = newType;
+    switch (newType) {
+      case LONG:
+        this.longs = new long[this.ticks.length];
+        break;
+      case DOUBLE:
+        this.doubles = new double[this.ticks.length];
+        break;
+      case BOOLEAN:
+        this.booleans = new boolean[this.ticks.length];
+        break;
+      default:
+        this.strings = new String[this.ticks.length];
+        break;
+    }
+    return true;
+  }
+
+  private void grow(int capacity) {
+    this.ticks = Arrays.copyOf(this.ticks, capacity);
+    if (null != this.latitudes) {
+      this.latitudes = Arrays.copyOf(this.latitudes, capacity);
+      this.longitudes = Arrays.copyOf(this.longitudes, capacity);
+      Arrays.fill(this.latitudes, this.size, capacity, Double.NaN);
+      Arrays.fill(this.longitudes, this.size, capacity, Double.NaN);
+    }
+    if (null != this.elevations) {
+      this.elevations = Arrays.copyOf(this.elevations, capacity);
+      Arrays.fill(this.elevations, this.size, capacity, NO_ELEVATION);
+    }
+    if (null != this.longs) {
+      this.longs = Arrays.copyOf(this.longs, capacity);
+    }
+    if (null != this.doubles) {
+      this.doubles = Arrays.copyOf(this.doubles, capacity);
+    }
+    if (null != this.booleans) {
+      this.booleans = Arrays.copyOf(this.booleans, capacity);
+    }
+    if (null != this.strings) {
+      this.strings = Arrays.copyOf(this.strings, capacity);
+    }
+  }
+}
@@ -0,0 +1,341 @@
+//
+//   Copyright 2016  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package org.apache.zeppelin.quantumviz;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.JSONException;
+
+/**
+ * Decode GTS JSON objects into columnar series.
+ *
+ * Class names, label and attribute keys and values are interned for the lifetime of the
+ * parser, so the series of a list share their metadata strings.
+ */
+final class GtsParser {
+
+  static final String JSON_CLASS_KEY = "c";
+  static final String JSON_LABELS_KEY = "l";
+  static final String JSON_ATTRIBUTES_KEY = "a";
+  static final String JSON_VALUES_KEY = "v";
+
+  //
+  // Long loops check whether their paragraph was cancelled every CHECKPOINT_MASK + 1 items
+  //
+
+  static final int CHECKPOINT_MASK = 0xFFF;
+
+  //
+  // Powers of ten exactly representable as doubles
+  //
+
+  private static final double[] POW10 = new double[23];
+
+  static {
+    POW10[0] = 1;
+    for (int i = 1; i < POW10.length; i++) {
+      POW10[i] = POW10[i - 1] * 10;
+    }
+  }
+
+  private final Map<String, String> strings = new HashMap<>();
+
+  //
+  // Label and attribute maps by their JSON text, series with the same labels sharing a map
+  //
+
+  private final Map<String, Map<String, String>> maps = new HashMap<>();
+  private long points = 0;
+
+  /**
+   * Decode the GTS object the scanner is positioned on
+   * @param scanner scanner positioned on a JSON object
+   * @return decoded series, or null if the object is not a GTS this model can hold, the
+   * scanner being then back on the object
+   * @throws JSONException if the object is malformed
+   */
+  GeoTimeSerie parse(JsonScanner scanner) throws JSONException {
+    int start = scanner.position();
+    GeoTimeSerie gts = new GeoTimeSerie(16);
+    boolean hasValues = false;
+
+    scanner.expect('{');
+    if (!scanner.consume('}')) {
+      do {
+        String key = scanner.readString();
+        scanner.expect(':');
+        if (JSON_CLASS_KEY.equals(key) && '"' == scanner.peek()) {
+          gts.setClassName(intern(scanner.readString()));
+        } else if (JSON_LABELS_KEY.equals(key) && '{' == scanner.peek()) {
+          gts.setLabels(readStrings(scanner));
+        } else if (JSON_ATTRIBUTES_KEY.equals(key) && '{' == scanner.peek()) {
+          gts.setAttributes(readStrings(scanner));
+        } else if (JSON_VALUES_KEY.equals(key) && '[' == scanner.peek()) {
+          if (!readValues(scanner, gts)) {
+            scanner.position(start);
+            return null;
+          }
+          hasValues = true;
+        } else {
+          gts.getMembers().put(key, scanner.rawValue());
+        }
+      } while (scanner.nextMember('}'));
+    }
+
+    if (!hasValues) {
+      scanner.position(start);
+      return null;
+    }
+    this.points += gts.size();
+    return gts;
+  }
+
+  /**
+   * @return number of points decoded by this parser
+   */
+  long points() {
+    return this.points;
+  }
+
+  String intern(String value) {
+    String interned = this.strings.get(value);
+    if (null == interned) {
+      this.strings.put(value, value);
+      interned = value;
+    }
+    return interned;
+  }
+
+  private Map<String, String> readStrings(JsonScanner scanner) throws JSONException {
+    int start = scanner.skipValue();
+    String text = scanner.text().subSequence(start, scanner.position()).toString();
+    Map<String, String> map = this.maps.get(text);
+    if (null != map) {
+      return map;
+    }
+
+    scanner.position(start);
+    map = new LinkedHashMap<>();
+    scanner.expect('{');
+    if (!scanner.consume('}')) {
+      do {
+        String key = intern(scanner.readString());
+        scanner.expect(':');
+        String value = '"' == scanner.peek() ? scanner.readString() : scanner.rawValue();
+        map.put(key, intern(value));
+      } while (scanner.nextMember('}'));
+    }
+    map = Collections.unmodifiableMap(map);
+    this.maps.put(text, map);
+    return map;
+  }
+
+  /**
+   * Read values, each point being [ts, (lat, lon,) (elev,) value]
+   * @return false if a point can not be stored in the model
+   */
+  private boolean readValues(JsonScanner scanner, GeoTimeSerie gts) throws JSONException {
+    CharSequence text = scanner.text();
+    int[] starts = new int[5];
+    int[] ends = new int[5];
+
+    scanner.expect('[');
+    if (scanner.consume(']')) {
+      return true;
+    }
+    int count = 0;
+    do {
+      if (0 == (++count & CHECKPOINT_MASK)) {
+        Cancellation.checkpoint();
+      }
+      if ('[' != scanner.peek()) {
+        return false;
+      }
+      scanner.expect('[');
+      int length = 0;
+      do {
+        if (5 == length) {
+          return false;
+        }
+        starts[length] = scanner.skipValue();
+        ends[length++] = scanner.position();
+      } while (scanner.nextMember(']'));
+      if (length < 2) {
+        return false;
+      }
+
+      if (!isNumber(text, starts[0], ends[0])) {
+        return false;
+      }
+      long tick = parseTick(text, starts[0], ends[0]);
+      double latitude = Double.NaN;
+      double longitude = Double.NaN;
+      long elevation = GeoTimeSerie.NO_ELEVATION;
+      if (length >= 4) {
+        if (!isNumber(text, starts[1], ends[1]) || !isNumber(text, starts[2], ends[2])) {
+          return false;
+        }
+        latitude = parseDouble(text, starts[1], ends[1]);
+        longitude = parseDouble(text, starts[2], ends[2]);
+      }
+      if (3 == length || 5 == length) {
+        int index = length - 2;
+        if (!isNumber(text, starts[index], ends[index])) {
+          return false;
+        }
+        elevation = parseTick(text, starts[index], ends[index]);
+      }
+      if (!addValue(gts, text, starts[length - 1], ends[length - 1], tick, latitude,
+          longitude, elevation)) {
+        return false;
+      }
+    } while (scanner.nextMember(']'));
+    return true;
+  }
+
+  private boolean addValue(GeoTimeSerie gts, CharSequence text, int start, int end, long tick,
+      double latitude, double longitude, long elevation) throws JSONException {
+    char first = text.charAt(start);
+    if ('"' == first) {
+      JsonScanner value = new JsonScanner(text);
+      value.position(start);
+      return gts.add(tick, latitude, longitude, elevation, value.readString());
+    } else if ('t' == first || 'f' == first) {
+      return gts.add(tick, latitude, longitude, elevation, 't' == first);
+    } else if ('n' == first) {
+
+      //
+      // Missing values are written as null by GtsWriter, read them back as NaN
+      //
+
+      return gts.add(tick, latitude, longitude, elevation, Double.NaN);
+    } else if (!isNumber(text, start, end)) {
+      return false;
+    } else if (isInteger(text, start, end)) {
+      return gts.add(tick, latitude, longitude, elevation, parseLong(text, start, end));
+    }
+    return gts.add(tick, latitude, longitude, elevation, parseDouble(text, start, end));
+  }
+
+  private static boolean isNumber(CharSequence text, int start, int end) {
+    char c = text.charAt(start);
+    return end > start && ('-' == c || (c >= '0' && c <= '9'));
+  }
+
+  /**
+   * @return true if the number has no fraction, no exponent and fits in a long
+   */
+  private static boolean isInteger(CharSequence text, int start, int end) {
+    int digits = 0;
+    for (int i = start; i < end; i++) {
+      char c = text.charAt(i);
+      if (c >= '0' && c <= '9') {
+        digits++;
+      } else if (!('-' == c && i == start)) {
+        return false;
+      }
+    }
+    return digits > 0 && digits <= 18;
+  }
+
+  private static long parseTick(CharSequence text, int start, int end) {
+    if (isInteger(text, start, end)) {
+      return parseLong(text, start, end);
+    }
+    return (long) parseDouble(text, start, end);
+  }
+
+  static long parseLong(CharSequence text, int start, int end) {
+    boolean negative = '-' == text.charAt(start);
+    long value = 0;
+    for (int i = negative ? start + 1 : start; i < end; i++) {
+      value = value * 10 + (text.charAt(i) - '0');
+    }
+    return negative ? -value : value;
+  }
+
+  /**
+   * Parse a JSON number. Numbers with at most 15 significant digits and a small exponent
+   * are computed exactly from their mantissa, other numbers use Double.parseDouble.
+   */
+  static double parseDouble(CharSequence text, int start, int end) {
+    int i = start;
+    boolean negative = '-' == text.charAt(i);
+    if (negative) {
+      i++;
+    }
+    long mantissa = 0;
+    int digits = 0;
+    int exponent = 0;
+    boolean fraction = false;
+    for (; i < end; i++) {
+      char c = text.charAt(i);
+      if (c >= '0' && c <= '9') {
+        if (digits > 0 || '0' != c) {
+          digits++;
+        }
+        mantissa = mantissa * 10 + (c - '0');
+        if (fraction) {
+          exponent--;
+        }
+        if (digits > 15) {
+          return Double.parseDouble(text.subSequence(start, end).toString());
+        }
+      } else if ('.' == c && !fraction) {
+        fraction = true;
+      } else {
+        break;
+      }
+    }
+    if (i < end) {
+      char c = text.charAt(i);
+      if (('e' == c || 'E' == c) && i + 1 < end) {
+        i++;
+        boolean negativeExponent = '-' == text.charAt(i);
+        if ('-' == text.charAt(i) || '+' == text.charAt(i)) {
+          i++;
+        }
+        int value = 0;
+        for (; i < end && value < 1000; i++) {
+          char d = text.charAt(i);
+          if (d < '0' || d > '9') {
+            break;
+          }
+          value = value * 10 + (d - '0');
+        }
+        exponent += negativeExponent ? -value : value;
+      }
+      if (i < end) {
+        return Double.parseDouble(text.subSequence(start, end).toString().trim());
+      }
+    }
+    double result;
+    if (0 == exponent) {
+      result = mantissa;
+    } else if (exponent < 0 && exponent >= -22) {
+      result = mantissa / POW10[-exponent];
+    } else if (exponent > 0 && exponent <= 22) {
+      result = mantissa * POW10[exponent];
+    } else {
+      return Double.parseDouble(text.subSequence(start, end).toString());
+    }
+    return negative ? -result : result;
+  }
+}
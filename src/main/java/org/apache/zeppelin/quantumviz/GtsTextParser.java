@@ -0,0 +1,249 @@
+//
+//   Copyright 2016  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package org.apache.zeppelin.quantumviz;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decode series in the Warp 10 GTS input format, line by line.
+ *
+ * Each line is TS/LAT:LON/ELEV CLASS{LABELS}{ATTRIBUTES} VALUE, a line starting with '='
+ * holding an other point of the previous series. Series are written as a JSON list of GTS
+ * as soon as their last point is read, so only a single series is held in memory.
+ */
+final class GtsTextParser {
+
+  private final Map<String, String> strings = new HashMap<>();
+
+  /**
+   * Decode all the series of a reader
+   * @param reader lines in GTS input format
+   * @param out builder receiving a JSON list of GTS
+   * @return number of series
+   * @throws IOException if the reader fails or a line is malformed
+   */
+  int parse(BufferedReader reader, StringBuilder out) throws IOException {
+    GeoTimeSerie current = null;
+    int count = 0;
+    int number = 0;
+    String line;
+
+    out.append('[');
+    while (null != (line = reader.readLine())) {
+      if (0 == (++number & GtsParser.CHECKPOINT_MASK)) {
+        Cancellation.checkpoint();
+      }
+      line = line.trim();
+      if (line.isEmpty() || '#' == line.charAt(0)) {
+        continue;
+      }
+      if ('=' == line.charAt(0)) {
+        if (null == current) {
+          throw new IOException("Line " + number + " continues an undefined series");
+        }
+        parsePoint(line, 1, current, number);
+        continue;
+      }
+
+      if (null != current) {
+        if (count++ > 0) {
+          out.append(',');
+        }
+        GtsWriter.write(current, out);
+      }
+      current = new GeoTimeSerie(64);
+      parsePoint(line, 0, current, number);
+    }
+    if (null != current) {
+      if (count++ > 0) {
+        out.append(',');
+      }
+      GtsWriter.write(current, out);
+    }
+    out.append(']');
+    return count;
+  }
+
+  /**
+   * Decode a point, with the metadata of its series when the line is not a continuation
+   */
+  private void parsePoint(String line, int start, GeoTimeSerie gts, int number)
+      throws IOException {
+
+    //
+    // TS/LAT:LON/ELEV
+    //
+
+    int space = line.indexOf(' ', start);
+    int firstSlash = line.indexOf('/', start);
+    int secondSlash = firstSlash < 0 ? -1 : line.indexOf('/', firstSlash + 1);
+    if (space < 0 || firstSlash < 0 || secondSlash < 0 || secondSlash > space) {
+      throw error(number, "expects TS/LAT:LON/ELEV");
+    }
+    if (firstSlash == start) {
+      throw error(number, "expects a timestamp");
+    }
+    long tick = GtsParser.parseLong(line, start, firstSlash);
+    double latitude = Double.NaN;
+    double longitude = Double.NaN;
+    if (secondSlash > firstSlash + 1) {
+      int colon = line.indexOf(':', firstSlash);
+      if (colon < 0 || colon > secondSlash) {
+        throw error(number, "expects LAT:LON");
+      }
+      latitude = GtsParser.parseDouble(line, firstSlash + 1, colon);
+      longitude = GtsParser.parseDouble(line, colon + 1, secondSlash);
+    }
+    long elevation = GeoTimeSerie.NO_ELEVATION;
+    if (space > secondSlash + 1) {
+      elevation = GtsParser.parseLong(line, secondSlash + 1, space);
+    }
+
+    //
+    // CLASS{LABELS}{ATTRIBUTES}, only for the first point of a series
+    //
+
+    int position = space + 1;
+    if (0 == start) {
+      int brace = line.indexOf('{', position);
+      if (brace < 0) {
+        throw error(number, "expects CLASS{LABELS}");
+      }
+      gts.setClassName(intern(decode(line.substring(position, brace))));
+      int end = line.indexOf('}', brace);
+      if (end < 0) {
+        throw error(number, "expects CLASS{LABELS}");
+      }
+      gts.setLabels(parseStrings(line, brace + 1, end));
+      position = end + 1;
+      if (position < line.length() && '{' == line.charAt(position)) {
+        end = line.indexOf('}', position);
+        if (end < 0) {
+          throw error(number, "expects {ATTRIBUTES}");
+        }
+        gts.setAttributes(parseStrings(line, position + 1, end));
+        position = end + 1;
+      }
+      while (position < line.length() && ' ' == line.charAt(position)) {
+        position++;
+      }
+    }
+    if (position >= line.length()) {
+      throw error(number, "expects a value");
+    }
+
+    if (!addValue(gts, line.substring(position).trim(), tick, latitude, longitude, elevation)) {
+      throw error(number, "holds a value whose type differs from the previous ones");
+    }
+  }
+
+  private boolean addValue(GeoTimeSerie gts, String value, long tick, double latitude,
+      double longitude, long elevation) throws IOException {
+    char first = value.charAt(0);
+    if ('\'' == first || '"' == first) {
+      return gts.add(tick, latitude, longitude, elevation,
+          decode(value.substring(1, Math.max(1, value.length() - 1))));
+    } else if ("T".equals(value) || "true".equals(value)) {
+      return gts.add(tick, latitude, longitude, elevation, true);
+    } else if ("F".equals(value) || "false".equals(value)) {
+      return gts.add(tick, latitude, longitude, elevation, false);
+    }
+    boolean integer = true;
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (!((c >= '0' && c <= '9') || ('-' == c && 0 == i) || ('+' == c && 0 == i))) {
+        integer = false;
+        break;
+      }
+    }
+    try {
+      if (integer && value.length() < 19) {
+        return gts.add(tick, latitude, longitude, elevation, Long.parseLong(value));
+      }
+      return gts.add(tick, latitude, longitude, elevation, Double.parseDouble(value));
+    } catch (NumberFormatException e) {
+      throw new IOException("Unsupported value " + value);
+    }
+  }
+
+  private Map<String, String> parseStrings(String line, int start, int end) {
+    Map<String, String> map = new LinkedHashMap<>();
+    int position = start;
+    while (position < end) {
+      int comma = line.indexOf(',', position);
+      if (comma < 0 || comma > end) {
+        comma = end;
+      }
+      int equal = line.indexOf('=', position);
+      if (equal > position && equal < comma) {
+        map.put(intern(decode(line.substring(position, equal))),
+            intern(decode(line.substring(equal + 1, comma))));
+      }
+      position = comma + 1;
+    }
+    return map;
+  }
+
+  private String intern(String value) {
+    String interned = this.strings.get(value);
+    if (null == interned) {
+      this.strings.put(value, value);
+      interned = value;
+    }
+    return interned;
+  }
+
+  /**
+   * Decode a percent encoded UTF-8 string
+   */
+  static String decode(String value) {
+    if (value.indexOf('%') < 0) {
+      return value;
+    }
+    StringBuilder decoded = new StringBuilder(value.length());
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if ('%' == c && i + 2 < value.length() && Character.digit(value.charAt(i + 1), 16) >= 0
+          && Character.digit(value.charAt(i + 2), 16) >= 0) {
+        bytes.write(Character.digit(value.charAt(i + 1), 16) * 16
+            + Character.digit(value.charAt(i + 2), 16));
+        i += 2;
+        continue;
+      }
+      if (bytes.size() > 0) {
+        decoded.append(new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+        bytes.reset();
+      }
+      decoded.append(c);
+    }
+    if (bytes.size() > 0) {
+      decoded.append(new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+    }
+    return decoded.toString();
+  }
+
+  private static IOException error(int number, String message) {
+    return new IOException("Line " + number + " " + message);
+  }
+}
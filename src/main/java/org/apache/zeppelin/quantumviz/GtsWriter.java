@@ -0,0 +1,263 @@
+//
+//   Copyright 2016  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package org.apache.zeppelin.quantumviz;
+
+import java.util.Map;
+
+import org.json.JSONObject;
+
+/**
+ * Write columnar series as GTS JSON objects.
+ *
+ * Doubles are written with the fewest fraction digits reading back to the same double when
+ * they have a short decimal form, which most sensor values have, and with Double.toString
+ * otherwise. Values can be rounded to a number of significant digits before being written.
+ */
+final class GtsWriter {
+
+  //
+  // Powers of ten exactly represented as doubles
+  //
+
+  private static final double[] POW10 = new double[23];
+
+  static {
+    POW10[0] = 1;
+    for (int i = 1; i < POW10.length; i++) {
+      POW10[i] = POW10[i - 1] * 10;
+    }
+  }
+
+  //
+  // Largest number of fraction digits tried, and the integer below which doubles are exact
+  //
+
+  private static final int MAX_FRACTION_DIGITS = 17;
+  private static final double MAX_EXACT = 9007199254740992.0;
+
+  static final int MAX_DIGITS = 17;
+
+  private GtsWriter() {
+  }
+
+  /**
+   * Write a series with all its points
+   * @param gts series to write
+   * @param out builder receiving the GTS object
+   */
+  static void write(GeoTimeSerie gts, StringBuilder out) {
+    write(gts, 0, out);
+  }
+
+  /**
+   * Write a series with all its points, its values being rounded
+   * @param gts series to write
+   * @param digits significant digits of the floating point values, 0 to keep them as they are
+   * @param out builder receiving the GTS object
+   */
+  static void write(GeoTimeSerie gts, int digits, StringBuilder out) {
+    writeMetadata(gts, out);
+    out.append(",\"").append(GtsParser.JSON_VALUES_KEY).append("\":");
+    writeValues(gts, digits, out);
+    out.append('}');
+  }
+
+  /**
+   * Write a series, its values being replaced by a raw JSON value
+   * @param gts series to write
+   * @param values raw JSON value written as the values of the series
+   * @param out builder receiving the GTS object
+   */
+  static void write(GeoTimeSerie gts, CharSequence values, StringBuilder out) {
+    writeMetadata(gts, out);
+    out.append(",\"").append(GtsParser.JSON_VALUES_KEY).append("\":");
+    out.append(values);
+    out.append('}');
+  }
+
+  /**
+   * Write the opening brace and the metadata members of a series
+   */
+  private static void writeMetadata(GeoTimeSerie gts, StringBuilder out) {
+    out.append("{\"").append(GtsParser.JSON_CLASS_KEY).append("\":");
+    out.append(JSONObject.quote(null == gts.getClassName() ? "" : gts.getClassName()));
+    out.append(",\"").append(GtsParser.JSON_LABELS_KEY).append("\":");
+    writeStrings(gts.getLabels(), out);
+    out.append(",\"").append(GtsParser.JSON_ATTRIBUTES_KEY).append("\":");
+    writeStrings(gts.getAttributes(), out);
+    for (Map.Entry<String, String> member : gts.getMembers().entrySet()) {
+      out.append(',').append(JSONObject.quote(member.getKey())).append(':');
+      out.append(member.getValue());
+    }
+  }
+
+  static void writeStrings(Map<String, String> strings, StringBuilder out) {
+    out.append('{');
+    boolean first = true;
+    for (Map.Entry<String, String> entry : strings.entrySet()) {
+      if (!first) {
+        out.append(',');
+      }
+      first = false;
+      out.append(JSONObject.quote(entry.getKey())).append(':');
+      out.append(JSONObject.quote(entry.getValue()));
+    }
+    out.append('}');
+  }
+
+  /**
+   * Write the points of a series as a JSON array
+   */
+  static void writeValues(GeoTimeSerie gts, int digits, StringBuilder out) {
+    out.append('[');
+    for (int i = 0; i < gts.size(); i++) {
+      if (i > 0) {
+        out.append(',');
+      }
+      writePoint(gts, i, digits, out);
+    }
+    out.append(']');
+  }
+
+  static void writePoint(GeoTimeSerie gts, int index, StringBuilder out) {
+    writePoint(gts, index, 0, out);
+  }
+
+  /**
+   * Write a point, its floating point value being rounded
+   * @param digits significant digits of the value, 0 to keep it as it is
+   */
+  static void writePoint(GeoTimeSerie gts, int index, int digits, StringBuilder out) {
+    out.append('[').append(gts.tick(index));
+    double latitude = gts.latitude(index);
+    if (!Double.isNaN(latitude)) {
+      out.append(',');
+      writeDouble(latitude, out);
+      out.append(',');
+      writeDouble(gts.longitude(index), out);
+    }
+    long elevation = gts.elevation(index);
+    if (GeoTimeSerie.NO_ELEVATION != elevation) {
+      out.append(',').append(elevation);
+    }
+    out.append(',');
+    switch (gts.type()) {
+      case LONG:
+        out.append(gts.longValue(index));
+        break;
+      case DOUBLE:
+        writeDouble(0 == digits ? gts.doubleValue(index) : round(gts.doubleValue(index), digits),
+            out);
+        break;
+      case BOOLEAN:
+        out.append(gts.booleanValue(index));
+        break;
+      case STRING:
+        out.append(JSONObject.quote(gts.stringValue(index)));
+        break;
+      default:
+        out.append("null");
+        break;
+    }
+    out.append(']');
+  }
+
+  /**
+   * Write a double as a JSON number, NaN and infinite values being written as null
+   */
+  static void writeDouble(double value, StringBuilder out) {
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      out.append("null");
+    } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+      out.append((long) value);
+    } else if (!writeDecimal(value, out)) {
+      out.append(value);
+    }
+  }
+
+  /**
+   * Write a double in plain decimal notation, with the fewest fraction digits whose decimal
+   * reads back to the same double. The decimal m / 10^d is checked with an exact division:
+   * m and 10^d being exact doubles, the division yields the double nearest to the decimal.
+   * @return false if the double has no such decimal with at most 17 fraction digits, or is
+   * small enough for the scientific notation to be shorter
+   */
+  private static boolean writeDecimal(double value, StringBuilder out) {
+    double abs = Math.abs(value);
+    if (abs < 1e-3) {
+      return false;
+    }
+    for (int d = 1; d <= MAX_FRACTION_DIGITS; d++) {
+      double scaled = abs * POW10[d];
+      if (scaled >= MAX_EXACT) {
+        return false;
+      }
+      double mantissa = Math.rint(scaled);
+      if (mantissa / POW10[d] == abs) {
+        writeDecimal(value < 0, (long) mantissa, d, out);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Write mantissa / 10^fraction, without trailing zeros
+   */
+  private static void writeDecimal(boolean negative, long mantissa, int fraction,
+      StringBuilder out) {
+    char[] digits = new char[20];
+    int length = 0;
+    while (mantissa > 0 || length <= fraction) {
+      digits[length++] = (char) ('0' + mantissa % 10);
+      mantissa /= 10;
+    }
+    int last = 0;
+    while (last < fraction && '0' == digits[last]) {
+      last++;
+    }
+    if (negative) {
+      out.append('-');
+    }
+    for (int i = length - 1; i >= last; i--) {
+      if (i == fraction - 1) {
+        out.append('.');
+      }
+      out.append(digits[i]);
+    }
+  }
+
+  /**
+   * Round a double to a number of significant digits
+   * @param value value to round
+   * @param digits significant digits, from 1 to 17
+   * @return the double nearest to the rounded decimal
+   */
+  static double round(double value, int digits) {
+    if (0 == value || Double.isNaN(value) || Double.isInfinite(value)) {
+      return value;
+    }
+    int scale = digits - 1 - (int) Math.floor(Math.log10(Math.abs(value)));
+    if (scale >= 0 && scale < POW10.length) {
+      double scaled = value * POW10[scale];
+      return Math.abs(scaled) < MAX_EXACT ? Math.rint(scaled) / POW10[scale] : value;
+    } else if (scale < 0 && -scale < POW10.length) {
+      return Math.rint(value / POW10[-scale]) * POW10[-scale];
+    }
+    return value;
+  }
+}
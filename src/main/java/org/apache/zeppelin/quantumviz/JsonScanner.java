@@ -0,0 +1,474 @@
+//
+//   Copyright 2016  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package org.apache.zeppelin.quantumviz;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Forward only JSON tokenizer working directly on the characters of a resource.
+ *
+ * Values can be skipped or copied as raw text ranges, so large arrays of points
+ * are never materialized as objects.
+ */
+final class JsonScanner {
+
+  //
+  // Object or array open while checking a value. An object records its names, org.json
+  // rejecting duplicates, and whether the next value is one of them
+  //
+
+  private static final class Container {
+    private final char close;
+    private final int start;
+    private final Set<String> names;
+    private boolean name;
+
+    Container(char open, int start) {
+      this.close = open == '{' ? '}' : ']';
+      this.start = start;
+      this.names = open == '{' ? new HashSet<String>() : null;
+      this.name = open == '{';
+    }
+
+    /**
+     * @return the container as written by org.json, when it is used as a name
+     */
+    String toString(CharSequence text, int end) {
+      String raw = text.subSequence(this.start, end).toString();
+      return '}' == this.close ? new JSONObject(raw).toString() : new JSONArray(raw).toString();
+    }
+  }
+
+  private final CharSequence text;
+  private final int length;
+  private int pos;
+
+  JsonScanner(CharSequence text) {
+    this.text = text;
+    this.length = text.length();
+    this.pos = 0;
+  }
+
+  CharSequence text() {
+    return this.text;
+  }
+
+  int position() {
+    return this.pos;
+  }
+
+  void position(int position) {
+    this.pos = position;
+  }
+
+  /**
+   * Skip blank characters
+   * @return next character or -1 when the end of the text is reached
+   */
+  int peek() {
+    while (this.pos < this.length) {
+      char c = this.text.charAt(this.pos);
+      if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+        return c;
+      }
+      this.pos++;
+    }
+    return -1;
+  }
+
+  /**
+   * Consume next non blank character, which must be the expected one
+   * @param expected character expected
+   * @throws JSONException if an other character is found
+   */
+  void expect(char expected) throws JSONException {
+    if (peek() != expected) {
+      throw error("Expected '" + expected + "'");
+    }
+    this.pos++;
+  }
+
+  /**
+   * Consume next non blank character if it is the expected one
+   * @param expected character expected
+   * @return true iif the character was consumed
+   */
+  boolean consume(char expected) {
+    if (peek() == expected) {
+      this.pos++;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Consume the separator following a member of an object or an array
+   * @param close closing character of the current container
+   * @return true if an other member follows, false if the container is closed
+   * @throws JSONException when neither a comma nor the closing character is found
+   */
+  boolean nextMember(char close) throws JSONException {
+    int c = peek();
+    this.pos++;
+    if (c == ',') {
+      return true;
+    } else if (c == close) {
+      return false;
+    }
+    throw error("Expected ',' or '" + close + "'");
+  }
+
+  /**
+   * Read a JSON string and decode its escape sequences
+   * @return decoded string
+   * @throws JSONException if the string is malformed
+   */
+  String readString() throws JSONException {
+    expect('"');
+    StringBuilder builder = null;
+    int start = this.pos;
+    while (this.pos < this.length) {
+      char c = this.text.charAt(this.pos++);
+      if (c == '"') {
+        if (null == builder) {
+          return this.text.subSequence(start, this.pos - 1).toString();
+        }
+        builder.append(this.text, start, this.pos - 1);
+        return builder.toString();
+      } else if (c == '\\') {
+        if (null == builder) {
+          builder = new StringBuilder();
+        }
+        builder.append(this.text, start, this.pos - 1);
+        builder.append(readEscape());
+        start = this.pos;
+      }
+    }
+    throw error("Unterminated string");
+  }
+
+  /**
+   * Skip the next JSON value, whatever its type
+   * @return start offset of the skipped value
+   * @throws JSONException if the value is malformed
+   */
+  int skipValue() throws JSONException {
+    int c = peek();
+    int start = this.pos;
+    if (c == '"') {
+      skipString();
+    } else if (c == '{' || c == '[') {
+      skipContainer();
+    } else if (c == -1) {
+      throw error("Unexpected end of text");
+    } else {
+      skipLiteral();
+    }
+    return start;
+  }
+
+  /**
+   * Skip the next value, checking it with the lenient grammar of org.json: names and strings
+   * may be single quoted or bare words, any bare word is a value, ';' separates the members
+   * of an object, a separator may precede the closing character and a missing array element
+   * is null. As with org.json, duplicate names are rejected and the text following the
+   * value is not checked. Containers are followed with a stack, not by recursion
+   * @param open opening character of the value, '{' or '['
+   * @throws JSONException if the value is malformed
+   */
+  void checkLenientValue(char open) throws JSONException {
+    if (nextClean() != open) {
+      throw error("Expected '" + open + "'");
+    }
+    this.pos--;
+    List<Container> containers = new ArrayList<>();
+    while (true) {
+      Container parent = containers.isEmpty() ? null : containers.get(containers.size() - 1);
+      boolean name = null != parent && parent.name;
+      char c = nextClean();
+      String value = null;
+      if (c == '{' || c == '[') {
+        Container container = new Container(c, this.pos - 1);
+        char next = nextClean();
+        if (c == '{' && 0 == next) {
+          throw error("Expected '}'");
+        }
+        if (next != container.close) {
+          this.pos--;
+          containers.add(container);
+          continue;
+        }
+        value = name ? container.toString(this.text, this.pos) : null;
+      } else if (c == ',' && null != parent && null == parent.names) {
+
+        //
+        // Missing array element, read as null
+        //
+
+        this.pos--;
+      } else if (c == '"' || c == '\'') {
+        value = checkLenientString(c);
+      } else {
+        this.pos--;
+        String word = readWord();
+        value = name ? JSONObject.stringToValue(word).toString() : null;
+      }
+
+      //
+      // Close the containers ending after the value, up to the next member
+      //
+
+      while (!containers.isEmpty()) {
+        Container container = containers.get(containers.size() - 1);
+        if (container.name) {
+          if (!container.names.add(value)) {
+            throw error("Duplicate name \"" + value + "\"");
+          }
+          if (nextClean() != ':') {
+            throw error("Expected ':'");
+          }
+          container.name = false;
+          break;
+        }
+        c = nextClean();
+        if (c == ',' || (c == ';' && null != container.names)) {
+          if (nextClean() != container.close) {
+            this.pos--;
+            container.name = null != container.names;
+            break;
+          }
+        } else if (c != container.close) {
+          throw error("Expected ',' or '" + container.close + "'");
+        }
+        containers.remove(containers.size() - 1);
+        value = !containers.isEmpty() && containers.get(containers.size() - 1).name
+            ? container.toString(this.text, this.pos) : null;
+      }
+      if (containers.isEmpty()) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Copy the next JSON value as it is written in the text
+   * @param out builder receiving the raw value
+   * @throws JSONException if the value is malformed
+   */
+  void copyValue(StringBuilder out) throws JSONException {
+    int start = skipValue();
+    out.append(this.text, start, this.pos);
+  }
+
+  /**
+   * Read the next JSON value as raw text
+   * @return raw value
+   * @throws JSONException if the value is malformed
+   */
+  String rawValue() throws JSONException {
+    int start = skipValue();
+    return this.text.subSequence(start, this.pos).toString();
+  }
+
+  JSONException error(String message) {
+    return new JSONException(message + " at " + this.pos);
+  }
+
+  private void skipString() throws JSONException {
+    this.pos++;
+    while (this.pos < this.length) {
+      char c = this.text.charAt(this.pos++);
+      if (c == '"') {
+        return;
+      } else if (c == '\\') {
+        this.pos++;
+      }
+    }
+    throw error("Unterminated string");
+  }
+
+  private void skipContainer() throws JSONException {
+    int depth = 0;
+    while (this.pos < this.length) {
+      char c = this.text.charAt(this.pos);
+      if (c == '"') {
+        skipString();
+        continue;
+      }
+      this.pos++;
+      if (c == '{' || c == '[') {
+        depth++;
+      } else if (c == '}' || c == ']') {
+        depth--;
+        if (0 == depth) {
+          return;
+        }
+      }
+    }
+    throw error("Unterminated container");
+  }
+
+  /**
+   * @return next character, 0 at the end of the text
+   */
+  private char next() {
+    return this.pos++ < this.length ? this.text.charAt(this.pos - 1) : 0;
+  }
+
+  /**
+   * Skip blank and control characters as org.json does
+   * @return next character, 0 at the end of the text
+   */
+  private char nextClean() {
+    while (true) {
+      char c = next();
+      if (c == 0 || c > ' ') {
+        return c;
+      }
+    }
+  }
+
+  /**
+   * Skip a string quoted with single or double quotes, with the escapes of org.json
+   * @return decoded string
+   */
+  private String checkLenientString(char quote) throws JSONException {
+    StringBuilder builder = new StringBuilder();
+    while (true) {
+      char c = next();
+      if (c == 0 || c == '\n' || c == '\r') {
+        throw error("Unterminated string");
+      } else if (c == quote) {
+        return builder.toString();
+      } else if (c != '\\') {
+        builder.append(c);
+        continue;
+      }
+      c = next();
+      switch (c) {
+        case 'b':
+          builder.append('\b');
+          break;
+        case 't':
+          builder.append('\t');
+          break;
+        case 'n':
+          builder.append('\n');
+          break;
+        case 'f':
+          builder.append('\f');
+          break;
+        case 'r':
+          builder.append('\r');
+          break;
+        case 'u':
+          if (this.pos + 4 > this.length) {
+            throw error("Illegal escape");
+          }
+          try {
+            builder.append((char) Integer.parseInt(
+                this.text.subSequence(this.pos, this.pos + 4).toString(), 16));
+          } catch (NumberFormatException e) {
+            throw error("Illegal escape");
+          }
+          this.pos += 4;
+          break;
+        case '"':
+        case '\'':
+        case '\\':
+        case '/':
+          builder.append(c);
+          break;
+        default:
+          throw error("Illegal escape");
+      }
+    }
+  }
+
+  /**
+   * Read an unquoted value or name, up to a blank character other than a space or a
+   * character of the JSON syntax
+   * @return word trimmed of its spaces
+   */
+  private String readWord() throws JSONException {
+    int start = this.pos;
+    char c = next();
+    while (c >= ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0) {
+      c = next();
+    }
+    this.pos--;
+    String word = this.text.subSequence(start, this.pos).toString().trim();
+    if (word.isEmpty()) {
+      throw error("Missing value");
+    }
+    return word;
+  }
+
+  private void skipLiteral() throws JSONException {
+    int start = this.pos;
+    while (this.pos < this.length) {
+      char c = this.text.charAt(this.pos);
+      if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+        break;
+      }
+      this.pos++;
+    }
+    if (start == this.pos) {
+      throw error("Unexpected character");
+    }
+  }
+
+  private char readEscape() throws JSONException {
+    if (this.pos >= this.length) {
+      throw error("Unterminated string");
+    }
+    char c = this.text.charAt(this.pos++);
+    switch (c) {
+      case 'b':
+        return '\b';
+      case 't':
+        return '\t';
+      case 'n':
+        return '\n';
+      case 'f':
+        return '\f';
+      case 'r':
+        return '\r';
+      case 'u':
+        if (this.pos + 4 > this.length) {
+          throw error("Illegal escape");
+        }
+        try {
+          char decoded = (char) Integer.parseInt(
+              this.text.subSequence(this.pos, this.pos + 4).toString(), 16);
+          this.pos += 4;
+          return decoded;
+        } catch (NumberFormatException e) {
+          throw error("Illegal escape");
+        }
+      default:
+        return c;
+    }
+  }
+}
@@ -0,0 +1,499 @@
+//
+//   Copyright 2016  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package org.apache.zeppelin.quantumviz;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serialize the objects of Zeppelin resource pool in JSON, in a single walk of the object
+ * graph written in a reusable buffer.
+ *
+ * Maps, Iterables, Java arrays, primitive arrays, Scala collections and beans are supported,
+ * org.json and Gson trees being written as they are.
+ * The handler of each class is resolved once then cached. NaN and infinite values are written
+ * as null, as in the series written by the interpreter.
+ */
+final class JsonSerializer {
+
+  static final int MAX_DEPTH = 256;
+
+  //
+  // Buffers above this capacity are released once the resource is serialized
+  //
+
+  private static final int MAX_RETAINED = 4 * 1024 * 1024;
+
+  /**
+   * Write the values of a class
+   */
+  private interface Handler {
+    void write(JsonSerializer serializer, Object value, StringBuilder out, int depth)
+        throws Exception;
+  }
+
+  private final Map<Class<?>, Handler> handlers = new ConcurrentHashMap<>();
+
+  private final ThreadLocal<StringBuilder> buffers = new ThreadLocal<StringBuilder>() {
+    @Override
+    protected StringBuilder initialValue() {
+      return new StringBuilder(4096);
+    }
+  };
+
+  /**
+   * Serialize a resource. Strings are expected to hold JSON and are returned as they are.
+   * @param object resource to serialize
+   * @return JSON text, empty for a null resource
+   * @throws Exception if the resource can not be serialized
+   */
+  String serialize(Object object) throws Exception {
+    if (null == object) {
+      return "";
+    } else if (object instanceof String) {
+      return (String) object;
+    }
+    StringBuilder buffer = this.buffers.get();
+    try {
+      write(object, buffer, 0);
+      return buffer.toString();
+    } finally {
+      if (buffer.capacity() > MAX_RETAINED) {
+        this.buffers.remove();
+      } else {
+        buffer.setLength(0);
+      }
+    }
+  }
+
+  /**
+   * Write a value of the object graph
+   * @param value value to write, can be null
+   * @param out builder receiving the JSON value
+   * @param depth depth of the value in the graph
+   * @throws Exception if the graph is too deep or a bean getter fails
+   */
+  void write(Object value, StringBuilder out, int depth) throws Exception {
+    if (null == value) {
+      out.append("null");
+      return;
+    }
+    if (depth > MAX_DEPTH) {
+      throw new Exception("Quantumviz interpreter can not serialize resources nested "
+          + "deeper than " + MAX_DEPTH + " levels.");
+    }
+    Class<?> type = value.getClass();
+    Handler handler = this.handlers.get(type);
+    if (null == handler) {
+      handler = resolve(type);
+      this.handlers.put(type, handler);
+    }
+    handler.write(this, value, out, depth);
+  }
+
+  /**
+   * Write a JSON string
+   */
+  static void quote(CharSequence value, StringBuilder out) {
+    out.append('"');
+    int start = 0;
+    int length = value.length();
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      if (c >= 0x20 && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029') {
+        continue;
+      }
+      out.append(value, start, i);
+      start = i + 1;
+      switch (c) {
+        case '"':
+          out.append("\\\"");
+          break;
+        case '\\':
+          out.append("\\\\");
+          break;
+        case '\n':
+          out.append("\\n");
+          break;
+        case '\r':
+          out.append("\\r");
+          break;
+        case '\t':
+          out.append("\\t");
+          break;
+        default:
+          String hex = Integer.toHexString(c);
+          out.append("\\u");
+          for (int j = hex.length(); j < 4; j++) {
+            out.append('0');
+          }
+          out.append(hex);
+      }
+    }
+    out.append(value, start, length).append('"');
+  }
+
+  static void writeFloat(float value, StringBuilder out) {
+    if (Float.isNaN(value) || Float.isInfinite(value)) {
+      out.append("null");
+    } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+      out.append((long) value);
+    } else {
+      out.append(value);
+    }
+  }
+
+  private static Handler resolve(Class<?> type) {
+    if (Double.class == type || Float.class == type) {
+      return Double.class == type ? DOUBLE : FLOAT;
+    } else if (Number.class.isAssignableFrom(type) || Boolean.class == type) {
+      return LITERAL;
+    } else if (CharSequence.class.isAssignableFrom(type) || Character.class == type
+        || type.isEnum() || (null != type.getSuperclass() && type.getSuperclass().isEnum())) {
+      return STRING;
+    } else if (isA(type, "org.json.JSONObject") || isA(type, "org.json.JSONArray")
+        || isA(type, "org.json.JSONObject$Null") || isA(type, "com.google.gson.JsonElement")) {
+
+      //
+      // JSON trees write themselves, before JSONArray and Gson arrays are taken as Iterables
+      //
+
+      return LITERAL;
+    } else if (Map.class.isAssignableFrom(type)) {
+      return MAP;
+    } else if (Iterable.class.isAssignableFrom(type)) {
+      return ITERABLE;
+    } else if (type.isArray()) {
+      return array(type.getComponentType());
+    } else if (isA(type, "scala.collection.GenMap") || isA(type, "scala.collection.Map")) {
+      return new ScalaHandler(type, true);
+    } else if (isA(type, "scala.collection.GenTraversableOnce")
+        || isA(type, "scala.collection.IterableOnce")) {
+      return new ScalaHandler(type, false);
+    } else if (type.getName().startsWith("java.") || type.getName().startsWith("javax.")) {
+      return STRING;
+    }
+    return new BeanHandler(type);
+  }
+
+  /**
+   * @return true if the class or one of its super types has the given name
+   */
+  private static boolean isA(Class<?> type, String name) {
+    if (null == type) {
+      return false;
+    }
+    if (type.getName().equals(name)) {
+      return true;
+    }
+    for (Class<?> implemented : type.getInterfaces()) {
+      if (isA(implemented, name)) {
+        return true;
+      }
+    }
+    return isA(type.getSuperclass(), name);
+  }
+
+  private static final Handler LITERAL = new Handler() {
+    @Override
+    public void write(JsonSerializer serializer, Object value, StringBuilder out, int depth) {
+      out.append(value.toString());
+    }
+  };
+
+  private static final Handler DOUBLE = new Handler() {
+    @Override
+    public void write(JsonSerializer serializer, Object value, StringBuilder out, int depth) {
+      GtsWriter.writeDouble((Double) value, out);
+    }
+  };
+
+  private static final Handler FLOAT = new Handler() {
+    @Override
+    public void write(JsonSerializer serializer, Object value, StringBuilder out, int depth) {
+      writeFloat((Float) value, out);
+    }
+  };
+
+  private static final Handler STRING = new Handler() {
+    @Override
+    public void write(JsonSerializer serializer, Object value, StringBuilder out, int depth) {
+      quote(value instanceof Enum ? ((Enum<?>) value).name() : value.toString(), out);
+    }
+  };
+
+  private static final Handler MAP = new Handler() {
+    @Override
+    public void write(JsonSerializer serializer, Object value, StringBuilder out, int depth)
+        throws Exception {
+      out.append('{');
+      boolean first = true;
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        if (!first) {
+          out.append(',');
+        }
+        first = false;
+        quote(String.valueOf(entry.getKey()), out);
+        out.append(':');
+        serializer.write(entry.getValue(), out, depth + 1);
+      }
+      out.append('}');
+    }
+  };
+
+  private static final Handler ITERABLE = new Handler() {
+    @Override
+    public void write(JsonSerializer serializer, Object value, StringBuilder out, int depth)
+        throws Exception {
+      out.append('[');
+      int count = 0;
+      for (Object element : (Iterable<?>) value) {
+        if (count > 0) {
+          out.append(',');
+        }
+        if (0 == (++count & GtsParser.CHECKPOINT_MASK)) {
+          Cancellation.checkpoint();
+        }
+        serializer.write(element, out, depth + 1);
+      }
+      out.append(']');
+    }
+  };
+
+  /**
+   * @return handler of the arrays of a component type, primitive arrays being written
+   * without boxing their values
+   */
+  private static Handler array(Class<?> component) {
+    if (!component.isPrimitive()) {
+      return new Handler() {
+        @Override
+        public void write(JsonSerializer serializer, Object value, StringBuilder out, int depth)
+            throws Exception {
+          Object[] array = (Object[]) value;
+          out.append('[');
+          for (int i = 0; i < array.length; i++) {
+            if (i > 0) {
+              out.append(',');
+            }
+            if (0 == (i & GtsParser.CHECKPOINT_MASK)) {
+              Cancellation.checkpoint();
+            }
+            serializer.write(array[i], out, depth + 1);
+          }
+          out.append(']');
+        }
+      };
+    }
+    if (double.class == component) {
+      return new Handler() {
+        @Override
+        public void write(JsonSerializer serializer, Object value, StringBuilder out, int depth) {
+          double[] array = (double[]) value;
+          out.append('[');
+          for (int i = 0; i < array.length; i++) {
+            if (i > 0) {
+              out.append(',');
+            }
+            GtsWriter.writeDouble(array[i], out);
+          }
+          out.append(']');
+        }
+      };
+    }
+    if (float.class == component) {
+      return new Handler() {
+        @Override
+        public void write(JsonSerializer serializer, Object value, StringBuilder out, int depth) {
+          float[] array = (float[]) value;
+          out.append('[');
+          for (int i = 0; i < array.length; i++) {
+            if (i > 0) {
+              out.append(',');
+            }
+            writeFloat(array[i], out);
+          }
+          out.append(']');
+        }
+      };
+    }
+    if (long.class == component) {
+      return new Handler() {
+        @Override
+        public void write(JsonSerializer serializer, Object value, StringBuilder out, int depth) {
+          long[] array = (long[]) value;
+          out.append('[');
+          for (int i = 0; i < array.length; i++) {
+            if (i > 0) {
+              out.append(',');
+            }
+            out.append(array[i]);
+          }
+          out.append(']');
+        }
+      };
+    }
+    if (int.class == component) {
+      return new Handler() {
+        @Override
+        public void write(JsonSerializer serializer, Object value, StringBuilder out, int depth) {
+          int[] array = (int[]) value;
+          out.append('[');
+          for (int i = 0; i < array.length; i++) {
+            if (i > 0) {
+              out.append(',');
+            }
+            out.append(array[i]);
+          }
+          out.append(']');
+        }
+      };
+    }
+
+    //
+    // Less common primitive arrays (short, byte, char, boolean) are written element by element
+    //
+
+    return new Handler() {
+      @Override
+      public void write(JsonSerializer serializer, Object value, StringBuilder out, int depth)
+          throws Exception {
+        int length = Array.getLength(value);
+        out.append('[');
+        for (int i = 0; i < length; i++) {
+          if (i > 0) {
+            out.append(',');
+          }
+          serializer.write(Array.get(value, i), out, depth + 1);
+        }
+        out.append(']');
+      }
+    };
+  }
+
+  /**
+   * Scala collections, iterated through reflection so that Scala is not required. Maps
+   * iterate over Tuple2 whose members are the key and the value.
+   */
+  private static final class ScalaHandler implements Handler {
+    private final boolean map;
+    private final Method iterator;
+    private final Method hasNext;
+    private final Method next;
+    private final Method key;
+    private final Method value;
+
+    ScalaHandler(Class<?> type, boolean map) {
+      this.map = map;
+      try {
+        this.iterator = type.getMethod("iterator");
+        this.hasNext = this.iterator.getReturnType().getMethod("hasNext");
+        this.next = this.iterator.getReturnType().getMethod("next");
+        if (map) {
+          Class<?> tuple = Class.forName("scala.Tuple2", false, type.getClassLoader());
+          this.key = tuple.getMethod("_1");
+          this.value = tuple.getMethod("_2");
+        } else {
+          this.key = null;
+          this.value = null;
+        }
+      } catch (ReflectiveOperationException e) {
+        throw new IllegalArgumentException("Unsupported Scala collection " + type.getName(), e);
+      }
+    }
+
+    @Override
+    public void write(JsonSerializer serializer, Object collection, StringBuilder out,
+        int depth) throws Exception {
+      Object elements = this.iterator.invoke(collection);
+      out.append(this.map ? '{' : '[');
+      int count = 0;
+      while ((Boolean) this.hasNext.invoke(elements)) {
+        Object element = this.next.invoke(elements);
+        if (count > 0) {
+          out.append(',');
+        }
+        if (0 == (++count & GtsParser.CHECKPOINT_MASK)) {
+          Cancellation.checkpoint();
+        }
+        if (this.map) {
+          quote(String.valueOf(this.key.invoke(element)), out);
+          out.append(':');
+          serializer.write(this.value.invoke(element), out, depth + 1);
+        } else {
+          serializer.write(element, out, depth + 1);
+        }
+      }
+      out.append(this.map ? '}' : ']');
+    }
+  }
+
+  /**
+   * Beans, written as an object of their readable properties
+   */
+  private static final class BeanHandler implements Handler {
+    private final List<String> names = new ArrayList<>();
+    private final List<Method> getters = new ArrayList<>();
+
+    BeanHandler(Class<?> type) {
+      Map<String, Method> properties = new LinkedHashMap<>();
+      try {
+        for (PropertyDescriptor property
+            : Introspector.getBeanInfo(type, Object.class).getPropertyDescriptors()) {
+          Method getter = property.getReadMethod();
+          if (null != getter && 0 == getter.getParameterTypes().length) {
+            properties.put(property.getName(), getter);
+          }
+        }
+      } catch (IntrospectionException e) {
+        throw new IllegalArgumentException("Unsupported resource type " + type.getName(), e);
+      }
+      for (Map.Entry<String, Method> property : properties.entrySet()) {
+        try {
+          property.getValue().setAccessible(true);
+        } catch (SecurityException e) {
+          continue;
+        }
+        this.names.add(property.getKey());
+        this.getters.add(property.getValue());
+      }
+    }
+
+    @Override
+    public void write(JsonSerializer serializer, Object bean, StringBuilder out, int depth)
+        throws Exception {
+      out.append('{');
+      for (int i = 0; i < this.names.size(); i++) {
+        if (i > 0) {
+          out.append(',');
+        }
+        quote(this.names.get(i), out);
+        out.append(':');
+        serializer.write(this.getters.get(i).invoke(bean), out, depth + 1);
+      }
+      out.append('}');
+    }
+  }
+}
@@ -0,0 +1,122 @@
+//
+//   Copyright 2016  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package org.apache.zeppelin.quantumviz;
+
+/**
+ * Round the floating point values of each series to a number of significant digits.
+ *
+ * Noisy values then have short decimal forms, written with a few characters. The output of
+ * an other transform, such as a downsampler, can be rounded: only the points it keeps are
+ * decoded again. Locations are left untouched, as are the series with non floating point
+ * values.
+ */
+final class Quantizer
+    implements QuantumRewriter.ResourceTransform, QuantumRewriter.DecodingTransform {
+
+  private final QuantumRewriter.SeriesTransform transform;
+  private final int digits;
+  private final GtsParser parser = new GtsParser();
+  private final StringBuilder buffer = new StringBuilder();
+
+  /**
+   * @param transform transform whose output is rounded, null to round the series themselves
+   * @param digits significant digits, from 1 to 17
+   */
+  Quantizer(QuantumRewriter.SeriesTransform transform, int digits) {
+    this.transform = transform;
+    this.digits = digits;
+  }
+
+  /**
+   * @return options identifying the rounding, appended to the options of the transform
+   */
+  String options() {
+    return "digits:" + this.digits;
+  }
+
+  int digits() {
+    return this.digits;
+  }
+
+  /**
+   * @return number of points decoded by this transform
+   */
+  long points() {
+    return this.parser.points();
+  }
+
+  @Override
+  public void prepare(CharSequence resource) throws Exception {
+    if (this.transform instanceof QuantumRewriter.ResourceTransform) {
+      ((QuantumRewriter.ResourceTransform) this.transform).prepare(resource);
+    }
+  }
+
+  @Override
+  public void transform(JsonScanner scanner, StringBuilder out) throws Exception {
+    JsonScanner source = scanner;
+    if (null != this.transform) {
+      this.buffer.setLength(0);
+      this.transform.transform(scanner, this.buffer);
+      source = new JsonScanner(this.buffer);
+    }
+    int start = source.position();
+    GeoTimeSerie gts = this.parser.parse(source);
+    if (null == gts || GeoTimeSerie.Type.DOUBLE != gts.type()) {
+      if (null == this.transform) {
+        source.position(start);
+        source.copyValue(out);
+      } else {
+        out.append(this.buffer);
+      }
+      return;
+    }
+    GtsWriter.write(gts, this.digits, out);
+  }
+
+  @Override
+  public GeoTimeSerie decode(JsonScanner scanner) throws Exception {
+    GeoTimeSerie gts;
+    if (this.transform instanceof QuantumRewriter.DecodingTransform) {
+      gts = ((QuantumRewriter.DecodingTransform) this.transform).decode(scanner);
+    } else if (null != this.transform) {
+      int start = scanner.position();
+      this.buffer.setLength(0);
+      this.transform.transform(scanner, this.buffer);
+      gts = this.parser.parse(new JsonScanner(this.buffer));
+      if (null == gts) {
+        scanner.position(start);
+      }
+    } else {
+      gts = this.parser.parse(scanner);
+    }
+    if (null == gts || GeoTimeSerie.Type.DOUBLE != gts.type()) {
+      return gts;
+    }
+
+    //
+    // Round a copy, the series may be held by the transform
+    //
+
+    GeoTimeSerie rounded = gts.cloneEmpty(gts.size());
+    for (int i = 0; i < gts.size(); i++) {
+      rounded.add(gts.tick(i), gts.latitude(i), gts.longitude(i), gts.elevation(i),
+          GtsWriter.round(gts.doubleValue(i), this.digits));
+    }
+    return rounded;
+  }
+}
@@ -0,0 +1,307 @@
+//
+//   Copyright 2016  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package org.apache.zeppelin.quantumviz;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Rewrite a resource in a single pass: set the user global params and transform each series.
+ *
+ * Only the keys of the top level objects are decoded: series are handed to the
+ * series transform, any other member is copied through as raw text.
+ */
+final class QuantumRewriter {
+
+  static final String JSON_GLOBALPARAMS_KEY = "globalParams";
+  static final String JSON_GTS_KEY = "gts";
+
+  /**
+   * Merge user params with the global params already defined in a resource
+   */
+  interface Merger {
+    JSONObject merge(JSONObject globalParams) throws Exception;
+  }
+
+  /**
+   * Write a single GTS object, the scanner being positioned on it
+   */
+  interface SeriesTransform {
+    void transform(JsonScanner scanner, StringBuilder out) throws Exception;
+  }
+
+  /**
+   * Series transform needing all the series of a resource before writing the first one,
+   * prepared with the whole resource then called on each series in order
+   */
+  interface ResourceTransform extends SeriesTransform {
+    void prepare(CharSequence resource) throws Exception;
+  }
+
+  /**
+   * Series transform able to hand over the series it would write, so that an encoder writes
+   * them without decoding their JSON again
+   */
+  interface DecodingTransform extends SeriesTransform {
+
+    /**
+     * @param scanner scanner positioned on a GTS object, moved past it
+     * @return transformed series, or null if the object is not a GTS, the scanner being then
+     * back on the object
+     */
+    GeoTimeSerie decode(JsonScanner scanner) throws Exception;
+  }
+
+  //
+  // Keys a GTS object starts with
+  //
+
+  private static final Set<String> GTS_KEYS = new HashSet<>(Arrays.asList(
+      GtsParser.JSON_CLASS_KEY, GtsParser.JSON_LABELS_KEY, GtsParser.JSON_ATTRIBUTES_KEY,
+      GtsParser.JSON_VALUES_KEY));
+
+  /**
+   * Shape of a resource
+   */
+  enum Shape {
+    GTS, GTS_LIST, QUANTUM, QUANTUM_LIST, OTHER
+  }
+
+  //
+  // How the globalParams member of a Quantum object is written: SET merges the user params
+  // in the global params already defined, or adds them
+  //
+
+  private enum Mode {
+    SET, KEEP
+  }
+
+  private final JSONObject params;
+  private final Merger merger;
+  private final SeriesTransform transform;
+
+  /**
+   * @param params global params to set on objects which do not define any, null to keep
+   * the resource shape and its global params
+   * @param merger used to update the global params already defined
+   * @param transform applied on each series, null to copy series as they are
+   */
+  QuantumRewriter(JSONObject params, Merger merger, SeriesTransform transform) {
+    this.params = params;
+    this.merger = merger;
+    this.transform = transform;
+  }
+
+  /**
+   * Write the resource in out, as a list of Quantum objects when global params are set
+   * @param resource GTS, GTS list, Quantum object or list thereof
+   * @param out builder receiving the result
+   * @throws Exception when the resource or the params are invalid
+   */
+  void rewrite(CharSequence resource, StringBuilder out) throws Exception {
+
+    //
+    // Nothing to rewrite, the resource is copied as it is
+    //
+
+    if (null == this.params && null == this.transform) {
+      out.append(resource);
+      return;
+    }
+    if (this.transform instanceof ResourceTransform) {
+      ((ResourceTransform) this.transform).prepare(resource);
+    }
+
+    JsonScanner scanner = new JsonScanner(resource);
+    switch (shape(resource)) {
+      case QUANTUM_LIST:
+        rewriteArray(scanner, null == this.params ? Mode.KEEP : Mode.SET, out);
+        break;
+      case QUANTUM:
+        if (null == this.params) {
+          rewriteObject(scanner, Mode.KEEP, out);
+        } else {
+          out.append('[');
+          rewriteObject(scanner, Mode.SET, out);
+          out.append(']');
+        }
+        break;
+      case GTS:
+      case GTS_LIST:
+        wrap(scanner, out);
+        break;
+      default:
+        if (null != this.params && '[' == scanner.peek()) {
+          throw new JSONException("JSONArray[0] is not a JSONObject.");
+        }
+        out.append(resource);
+    }
+  }
+
+  /**
+   * Classify a resource from its first tokens. The first key of its first object tells a
+   * Quantum object from a GTS, only objects starting with an other key being scanned further.
+   * @param resource resource to classify
+   * @return shape of the resource, OTHER for values which are neither objects nor lists
+   * of objects
+   * @throws JSONException if the first object is malformed
+   */
+  static Shape shape(CharSequence resource) throws JSONException {
+    JsonScanner scanner = new JsonScanner(resource);
+    int c = scanner.peek();
+    if ('{' == c) {
+      return isQuantum(scanner) ? Shape.QUANTUM : Shape.GTS;
+    }
+    if ('[' == c) {
+      scanner.expect('[');
+      if ('{' == scanner.peek()) {
+        return isQuantum(scanner) ? Shape.QUANTUM_LIST : Shape.GTS_LIST;
+      }
+    }
+    return Shape.OTHER;
+  }
+
+  /**
+   * Check the keys of the object at the current position
+   * @param scanner scanner positioned on an object
+   * @return true if the object holds a gts or a globalParams key
+   * @throws JSONException if the object is malformed
+   */
+  private static boolean isQuantum(JsonScanner scanner) throws JSONException {
+    scanner.expect('{');
+    if (scanner.consume('}')) {
+      return false;
+    }
+    boolean first = true;
+    do {
+      String key = scanner.readString();
+      if (JSON_GLOBALPARAMS_KEY.equals(key) || JSON_GTS_KEY.equals(key)) {
+        return true;
+      }
+      if (first && GTS_KEYS.contains(key)) {
+        return false;
+      }
+      first = false;
+      scanner.expect(':');
+      scanner.skipValue();
+    } while (scanner.nextMember('}'));
+    return false;
+  }
+
+  private void wrap(JsonScanner scanner, StringBuilder out) throws Exception {
+    if (null == this.params) {
+      writeSeries(scanner, out);
+      return;
+    }
+    out.append("[{\"").append(JSON_GTS_KEY).append("\":");
+    writeSeries(scanner, out);
+    out.append(",\"").append(JSON_GLOBALPARAMS_KEY).append("\":");
+    out.append(this.params.toString());
+    out.append("}]");
+  }
+
+  /**
+   * Write a single GTS or a list of GTS
+   */
+  private void writeSeries(JsonScanner scanner, StringBuilder out) throws Exception {
+    Cancellation.checkpoint();
+    int c = scanner.peek();
+    if (null == this.transform) {
+      scanner.copyValue(out);
+    } else if ('{' == c) {
+      this.transform.transform(scanner, out);
+    } else if ('[' == c) {
+      scanner.expect('[');
+      out.append('[');
+      if (!scanner.consume(']')) {
+        do {
+          writeSeries(scanner, out);
+          if (!scanner.nextMember(']')) {
+            break;
+          }
+          out.append(',');
+        } while (true);
+      }
+      out.append(']');
+    } else {
+      scanner.copyValue(out);
+    }
+  }
+
+  private void rewriteArray(JsonScanner scanner, Mode mode,
+      StringBuilder out) throws Exception {
+    scanner.expect('[');
+    out.append('[');
+    boolean more = true;
+    while (more) {
+      if ('{' == scanner.peek()) {
+        rewriteObject(scanner, mode, out);
+      } else {
+        scanner.copyValue(out);
+      }
+      more = scanner.nextMember(']');
+      if (more) {
+        out.append(',');
+      }
+    }
+    out.append(']');
+  }
+
+  private void rewriteObject(JsonScanner scanner, Mode mode,
+      StringBuilder out) throws Exception {
+    scanner.expect('{');
+    out.append('{');
+    boolean written = false;
+    boolean empty = scanner.consume('}');
+
+    while (!empty) {
+      int keyStart = scanner.position();
+      String key = scanner.readString();
+      out.append(scanner.text(), keyStart, scanner.position());
+      scanner.expect(':');
+      out.append(':');
+
+      if (JSON_GLOBALPARAMS_KEY.equals(key) && Mode.SET == mode) {
+        JSONObject globalParams = new JSONObject(scanner.rawValue());
+        out.append(this.merger.merge(globalParams).toString());
+        written = true;
+      } else if (JSON_GTS_KEY.equals(key)) {
+        writeSeries(scanner, out);
+      } else {
+        scanner.copyValue(out);
+      }
+
+      if (!scanner.nextMember('}')) {
+        break;
+      }
+      out.append(',');
+    }
+
+    if (Mode.SET == mode && !written) {
+      if (!empty) {
+        out.append(',');
+      }
+      out.append('"').append(JSON_GLOBALPARAMS_KEY).append("\":");
+      out.append(this.params.toString());
+    }
+    out.append('}');
+  }
+}
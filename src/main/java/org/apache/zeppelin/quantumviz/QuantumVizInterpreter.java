@@ -17,6 +17,8 @@
 package org.apache.zeppelin.quantumviz;
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintWriter;
@@ -25,10 +27,24 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.LinkedHashSet;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.net.ssl.HttpsURLConnection;
 
@@ -42,9 +58,13 @@ import org.apache.zeppelin.interpreter.InterpreterResult.Type;
 import org.apache.zeppelin.interpreter.thrift.InterpreterCompletion;
 import org.apache.zeppelin.resource.Resource;
 import org.apache.zeppelin.resource.ResourcePool;
+import org.apache.zeppelin.scheduler.Scheduler;
+import org.apache.zeppelin.scheduler.SchedulerFactory;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Interpreter QuantumViz for Zeppelin
@@ -56,24 +76,53 @@ public class QuantumVizInterpreter extends Interpreter
   private String SETTING_STRING = "custom";
   private String SETTING_TYPE_GEO = "geo";
   private String SETTING_TYPE_GRAPH = "graph";
+  private String SETTING_TRANSPORT_INLINE = "inline";
+  private String SETTING_TRANSPORT_CHUNKED = "chunked";
+  private String SETTING_OUTPUT_RESULT = "result";
+  private String SETTING_OUTPUT_STREAM = "stream";
+  private String DISPLAY_GEO = "warp10-display-map";
   private String SETTING_DEFAULT_MAX_HEIGHT = "600px";
   private String SETTING_DEFAULT_MAX_WIDTH = "95%";
+  private int SETTING_REFERENCE_PIXEL_WIDTH = 1920;
   
   private String JSON_TYPE_KEY = "type";
+  private String JSON_TRANSPORT_KEY = "transport";
+  private String JSON_ENCODING_KEY = "encoding";
+  private String JSON_OUTPUT_KEY = "output";
   private String JSON_MAX_HEIGHT_KEY = "default-height";
   private String JSON_MAX_WIDTH_KEY = "default-width";
   private String JSON_HEIGHT_KEY = "height";
   private String JSON_WIDTH_KEY = "width";
   private String JSON_DATA_KEY = "data";
   private String JSON_SERIES_KEY = "series";
+  private String JSON_FETCH_KEY = "fetch";
+  private String JSON_EXEC_KEY = "exec";
+  private String JSON_QUERY_KEY = "query";
   private String JSON_INTEPOLATE_KEY = "interpolate";
   private String JSON_TIMESTAMP_KEY = "timestamps";
   private String JSON_XLABEL_KEY = "xLabel";
   private String JSON_YLABEL_KEY = "yLabel";
   private String JSON_GLOBALPARAMS_KEY = "globalParams";
   private String JSON_GTS_KEY = "gts";
+  private String JSON_DOWNSAMPLE_KEY = "downsample";
+  private String JSON_MAXPOINTS_KEY = "maxPoints";
+  private String JSON_REDUCE_KEY = "reduce";
+  private String JSON_PRECISION_KEY = "precision";
+  private String JSON_ROLLUP_KEY = "rollup";
+  private String JSON_REFRESH_KEY = "refresh";
+  private String JSON_TILES_KEY = "tiles";
+  private String JSON_ALIGN_KEY = "align";
+  private String JSON_STEP_KEY = "step";
+  private String JSON_DIGITS_KEY = "digits";
   
   private List<String> listQuantumInterpolate = Arrays.asList("linear", "cardinal", "step-before");
+  private List<String> listDownsample = Arrays.asList(Downsampler.LTTB, Downsampler.M4, 
+      Downsampler.MINMAX);
+  private List<String> listReduce = Arrays.asList(GeoReducer.CLUSTER, GeoReducer.SIMPLIFY);
+  private List<String> listAlign = Arrays.asList(Aligner.MEAN, Aligner.MIN, Aligner.MAX, 
+      Aligner.SUM, Aligner.FIRST, Aligner.LAST);
+  private List<String> listEncoding = Arrays.asList(ColumnarCodec.JSON, ColumnarCodec.COLUMNAR, 
+      DictionaryCodec.DICTIONARY);
   
   //
   // Private Pair class
@@ -90,9 +139,177 @@ public class QuantumVizInterpreter extends Interpreter
     }
 
   }
+  
+  //
+  // Series of a running paragraph: each distinct key of the resource pool is fetched once, 
+  // all keys being fetched concurrently, and each distinct series is loaded from Warp 10 
+  // and transformed once, however many elements use it. The timeout of a fetch runs from 
+  // its start, not from the time it spent queued behind other elements
+  //
+  
+  private class ParagraphResources {
+    private final ResourcePool pool;
+    private final Cancellation cancellation;
+    private final Map<String, Future<Pair<String, String>>> loads = new HashMap<>();
+    private final ConcurrentHashMap<String, Long> starts = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, FutureTask<?>> tasks = new ConcurrentHashMap<>();
+
+    public ParagraphResources(ResourcePool pool, Cancellation cancellation) {
+      this.pool = pool;
+      this.cancellation = cancellation;
+    }
+    
+    /**
+     * @return cancellation of the paragraph, disconnecting its Warp 10 requests
+     */
+    public Cancellation cancellation() {
+      return this.cancellation;
+    }
+    
+    /**
+     * Start the time of a fetch, when it leaves the queue
+     */
+    public void start(String seriesKey) {
+      this.starts.put(seriesKey, System.nanoTime());
+    }
+    
+    /**
+     * @return source and serialized series of a key of the resource pool
+     */
+    public Pair<String, String> load(String seriesKey) throws Exception {
+      Future<Pair<String, String>> load = this.loads.get(seriesKey);
+      if (null == load) {
+        throw new Exception("Quantumviz interpreter encouters an incorrect series type: "
+            + "series not found in Zeppelin resource pool.");
+      }
+      long timeout = TimeUnit.MILLISECONDS.toNanos(resourceTimeout);
+      try {
+        if (0 == timeout) {
+          return load.get();
+        }
+        while (true) {
+          Long start = this.starts.get(seriesKey);
+          long wait = null == start ? timeout : start + timeout - System.nanoTime();
+          try {
+            return load.get(Math.max(0, wait), TimeUnit.NANOSECONDS);
+          } catch (TimeoutException eTimeout) {
+            start = this.starts.get(seriesKey);
+            if (null != start && System.nanoTime() - start >= timeout) {
+              load.cancel(true);
+              throw new Exception("Quantumviz interpreter can not load series " + seriesKey 
+                  + " from Zeppelin resource pool within " + resourceTimeout + " ms.");
+            }
+          }
+        }
+      } catch (ExecutionException eLoad) {
+        throw cause(eLoad);
+      }
+    }
+    
+    /**
+     * Run a task once per paragraph, elements running it later on waiting for its result
+     * @param key identifier of the task
+     * @param task task to run
+     * @return result of the task
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T once(String key, Callable<T> task) throws Exception {
+      FutureTask<T> future = new FutureTask<>(task);
+      FutureTask<?> running = this.tasks.putIfAbsent(key, future);
+      if (null == running) {
+        future.run();
+        running = future;
+      }
+      try {
+        return (T) running.get();
+      } catch (ExecutionException eTask) {
+        throw cause(eTask);
+      }
+    }
+    
+    /**
+     * Stop the loads still running, when the paragraph fails
+     */
+    public void cancel() {
+      for (Future<Pair<String, String>> load : this.loads.values()) {
+        load.cancel(true);
+      }
+    }
+    
+    private Exception cause(ExecutionException e) {
+      return e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+    }
+  }
 
   static final String URL_KEY = "warp10.url";
-  String current_Url;
+  static final String API_URL_KEY = "warp10.api.url";
+  static final int WARP10_CONNECT_TIMEOUT = 10000;
+  static final String WARP10_READ_TIMEOUT_KEY = "warp10.read.timeout";
+  static final int DEFAULT_WARP10_READ_TIMEOUT = 300000;
+  static final String CACHE_ENTRIES_KEY = "quantumviz.cache.maxEntries";
+  static final String CACHE_BYTES_KEY = "quantumviz.cache.maxBytes";
+  static final int DEFAULT_CACHE_ENTRIES = 64;
+  static final long DEFAULT_CACHE_BYTES = 128L * 1024 * 1024;
+  static final String TRANSPORT_KEY = "quantumviz.transport";
+  static final String TRANSPORT_HOST_KEY = "quantumviz.transport.host";
+  static final String TRANSPORT_PORT_KEY = "quantumviz.transport.port";
+  static final String TRANSPORT_URL_KEY = "quantumviz.transport.url";
+  static final String TRANSPORT_ORIGINS_KEY = "quantumviz.transport.origins";
+  static final String DEFAULT_TRANSPORT_HOST = "127.0.0.1";
+  static final String DEFAULT_TRANSPORT_ORIGINS = "http://localhost:8080,http://127.0.0.1:8080";
+  static final String TRANSPORT_CHUNK_KEY = "quantumviz.transport.chunkSize";
+  static final String TRANSPORT_BYTES_KEY = "quantumviz.transport.maxBytes";
+  static final int DEFAULT_TRANSPORT_CHUNK = 1024 * 1024;
+  static final long DEFAULT_TRANSPORT_BYTES = 256L * 1024 * 1024;
+  static final String CONCURRENCY_KEY = "quantumviz.concurrency";
+  static final String OUTPUT_KEY = "quantumviz.output";
+  static final String METRICS_LOG_KEY = "quantumviz.metrics.log";
+  static final String RESOURCE_TIMEOUT_KEY = "quantumviz.resource.timeout";
+  static final long DEFAULT_RESOURCE_TIMEOUT = 60000L;
+  static final String ROLLUP_BYTES_KEY = "quantumviz.rollup.maxBytes";
+  static final long DEFAULT_ROLLUP_BYTES = 256L * 1024 * 1024;
+  static final String TILES_BYTES_KEY = "quantumviz.tiles.maxBytes";
+  static final long DEFAULT_TILES_BYTES = 256L * 1024 * 1024;
+  static final String SPILL_DIR_KEY = "quantumviz.spill.dir";
+  static final String SPILL_THRESHOLD_KEY = "quantumviz.spill.threshold";
+  static final String SPILL_BYTES_KEY = "quantumviz.spill.maxBytes";
+  static final long DEFAULT_SPILL_THRESHOLD = 64L * 1024 * 1024;
+  static final long DEFAULT_SPILL_BYTES = 4L * 1024 * 1024 * 1024;
+  static final int DELTA_ENTRIES = 1024;
+  static final String SCHEDULER_CONCURRENCY_KEY = "quantumviz.scheduler.concurrency";
+  static final int DEFAULT_SCHEDULER_CONCURRENCY = 10;
+  
+  //
+  // Paragraphs run concurrently with the parallel scheduler: the settings read in open are 
+  // volatile, the caches synchronized and the per paragraph state kept in concurrent maps
+  //
+  
+  volatile String current_Url;
+  
+  private volatile RenderCache renderCache = new RenderCache(0, 0);
+  private volatile RollupCache rollupCache = new RollupCache(0);
+  private volatile GeoTileCache tileCache = new GeoTileCache(0);
+  private volatile SpillStore spillStore;
+  private final DeltaTracker deltaTracker = new DeltaTracker(DELTA_ENTRIES);
+  private final JsonSerializer serializer = new JsonSerializer();
+  private volatile DataTransport dataTransport;
+  private volatile Warp10Client warp10Client;
+  private volatile String defaultTransport = SETTING_TRANSPORT_INLINE;
+  private volatile String defaultOutput = SETTING_OUTPUT_RESULT;
+  private volatile ExecutorService elementExecutor;
+  private volatile int concurrency = 1;
+  private final QuantumVizMetrics metrics = new QuantumVizMetrics();
+  private volatile boolean logMetrics = false;
+  private volatile long resourceTimeout = DEFAULT_RESOURCE_TIMEOUT;
+  
+  //
+  // Metrics of the running paragraphs, by paragraph id
+  //
+  
+  private final Map<String, QuantumVizMetrics.Paragraph> running = new ConcurrentHashMap<>();
+  private final Map<String, Cancellation> cancellations = new ConcurrentHashMap<>();
+  
+  private static final Logger LOGGER = LoggerFactory.getLogger(QuantumVizInterpreter.class);
 
   private final HashMap<String, Properties> propertiesMap;
 
@@ -103,17 +320,69 @@ public class QuantumVizInterpreter extends Interpreter
     //property.
   }
 
+  /**
+   * The map is not synchronized, while paragraphs run concurrently: callers reading or 
+   * writing it from paragraphs must hold its lock, synchronizing on the map itself
+   * 
+   * @return the properties map of the interpreter
+   */
   public HashMap<String, Properties> getPropertiesMap() {
     return propertiesMap;
   }
 
-  public void cancel(InterpreterContext arg0) {
-    //
+  /**
+   * Paragraphs are rendered by a parallel scheduler, so that a large paragraph does not 
+   * block the other notes bound to the interpreter. With a concurrency of 1, they are 
+   * rendered one after the other
+   */
+  public Scheduler getScheduler() {
+    int paragraphs = NumberUtils.toInt(getProperty(SCHEDULER_CONCURRENCY_KEY), 
+        DEFAULT_SCHEDULER_CONCURRENCY);
+    if (paragraphs <= 1) {
+      return SchedulerFactory.singleton().createOrGetFIFOScheduler(
+          QuantumVizInterpreter.class.getName() + this.hashCode());
+    }
+    return SchedulerFactory.singleton().createOrGetParallelScheduler(
+        QuantumVizInterpreter.class.getName() + this.hashCode(), paragraphs);
+  }
 
+  /**
+   * @return statistics of the cache of rendered data elements
+   */
+  public Map<String, Long> getCacheStatistics() {
+    return renderCache.getStatistics();
   }
 
-  public void close() {
+  /**
+   * @return counters and per phase timers of the interpreter, also registered as an MXBean
+   */
+  public QuantumVizMetricsMXBean getMetrics() {
+    return metrics;
+  }
+
+  public void cancel(InterpreterContext context) {
+    Cancellation cancellation = this.cancellations.get(context.getParagraphId());
+    if (null != cancellation) {
+      cancellation.cancel();
+    }
+  }
 
+  public void close() {
+    this.renderCache.clear();
+    this.rollupCache.clear();
+    this.tileCache.clear();
+    this.deltaTracker.clear();
+    if (null != this.spillStore) {
+      this.spillStore.close();
+    }
+    if (null != this.dataTransport) {
+      this.dataTransport.stop();
+    }
+    if (null != this.elementExecutor) {
+      this.elementExecutor.shutdownNow();
+      this.elementExecutor = null;
+    }
+    this.metrics.unregister();
   }
 
   public List<InterpreterCompletion> completion(String arg0, int arg1) {
@@ -126,9 +395,9 @@ public class QuantumVizInterpreter extends Interpreter
     return FormType.SIMPLE;
   }
 
-  public int getProgress(InterpreterContext arg0) {
-    //
-    return 0;
+  public int getProgress(InterpreterContext context) {
+    QuantumVizMetrics.Paragraph paragraph = this.running.get(context.getParagraphId());
+    return null == paragraph ? 0 : paragraph.progress();
   }
 
   //
@@ -138,14 +407,50 @@ public class QuantumVizInterpreter extends Interpreter
   // When using Angular to save variable NaN and Infinity are transformed in String !
   //
   public InterpreterResult interpret(String body, InterpreterContext context) {
+    
+    //
+    // Track the paragraph while it runs, for getProgress and the metrics summary
+    //
+    
+    QuantumVizMetrics.Paragraph paragraph = this.metrics.paragraph();
+    Cancellation cancellation = new Cancellation();
+    this.running.put(context.getParagraphId(), paragraph);
+    this.cancellations.put(context.getParagraphId(), cancellation);
+    InterpreterResult result = null;
+    try {
+      result = interpret(body, context, paragraph, cancellation);
+    } finally {
+      this.running.remove(context.getParagraphId());
+      this.cancellations.remove(context.getParagraphId());
+      if (cancellation.isCancelled()) {
+        
+        //
+        // Clear the interrupt of a cancelled element rendered by the calling thread
+        //
+        
+        Thread.interrupted();
+      } else if (null == result || InterpreterResult.Code.ERROR == result.code()) {
+        paragraph.error();
+      }
+      if (this.logMetrics) {
+        LOGGER.info("Quantumviz paragraph " + context.getParagraphId() + ": " 
+            + paragraph.summary());
+      }
+    }
+    return result;
+  }
+  
+  private InterpreterResult interpret(String body, InterpreterContext context, 
+      final QuantumVizMetrics.Paragraph paragraph, final Cancellation cancellation) {
 
     //
     // Store the resource pool already defined in context
     //
 
-    ResourcePool resources = context.getResourcePool();
+    final ResourcePool resources = context.getResourcePool();
     
     JSONObject jsObject = null;
+    long parseStart = System.nanoTime();
     try {
       jsObject = new JSONObject(body);
     } catch (JSONException e) {
@@ -153,6 +458,8 @@ public class QuantumVizInterpreter extends Interpreter
       // return a Zeppelin error    
       return new InterpreterResult(InterpreterResult.Code.ERROR, 
           "Quantumviz interpreter expects a valid JSON as input");
+    } finally {
+      paragraph.record(QuantumVizMetrics.Phase.PARSE, parseStart);
     }
     //String bodyLines[] = body.split("\n");
     
@@ -199,6 +506,69 @@ public class QuantumVizInterpreter extends Interpreter
       }
     }
     
+    //
+    // Check if data is inlined in the result or delivered by chunks
+    //
+    
+    String transport = this.defaultTransport;
+    if (jsObject.has(this.JSON_TRANSPORT_KEY)) {
+      transport = jsObject.optString(this.JSON_TRANSPORT_KEY);
+    }
+    if (!(transport.equals(this.SETTING_TRANSPORT_INLINE) 
+        || transport.equals(this.SETTING_TRANSPORT_CHUNKED))) {
+      
+      // return a Zeppelin error     
+      return new InterpreterResult(InterpreterResult.Code.ERROR, 
+          "Quantumviz interpreter expects transport to be "
+          + "one of the following one [" 
+          + this.SETTING_TRANSPORT_INLINE + ", " + this.SETTING_TRANSPORT_CHUNKED + "].");
+    }
+    if (transport.equals(this.SETTING_TRANSPORT_CHUNKED)) {
+      try {
+        this.dataTransport.start();
+      } catch (IOException eTransport) {
+        
+        // return a Zeppelin error
+        return new InterpreterResult(InterpreterResult.Code.ERROR, 
+            "Quantumviz interpreter can not start its data endpoint: " + eTransport.getMessage());
+      }
+    }
+    
+    //
+    // Check if data is written in Quantum format, with the columnar or dictionary encoding
+    //
+    
+    String encoding = ColumnarCodec.JSON;
+    if (jsObject.has(this.JSON_ENCODING_KEY)) {
+      encoding = jsObject.optString(this.JSON_ENCODING_KEY);
+      if (!this.listEncoding.contains(encoding)) {
+        
+        // return a Zeppelin error     
+        return new InterpreterResult(InterpreterResult.Code.ERROR, 
+            "Quantumviz interpreter expects encoding to be one of " 
+            + this.listEncoding.toString());
+      }
+    }
+    
+    //
+    // Check if the result is returned at the end or streamed element by element
+    //
+    
+    String output = this.defaultOutput;
+    if (jsObject.has(this.JSON_OUTPUT_KEY)) {
+      output = jsObject.optString(this.JSON_OUTPUT_KEY);
+    }
+    if (!(output.equals(this.SETTING_OUTPUT_RESULT) 
+        || output.equals(this.SETTING_OUTPUT_STREAM))) {
+      
+      // return a Zeppelin error     
+      return new InterpreterResult(InterpreterResult.Code.ERROR, 
+          "Quantumviz interpreter expects output to be "
+          + "one of the following one [" 
+          + this.SETTING_OUTPUT_RESULT + ", " + this.SETTING_OUTPUT_STREAM + "].");
+    }
+    boolean stream = output.equals(this.SETTING_OUTPUT_STREAM);
+    
     //
     // Check if div default height is set by the user
     //    
@@ -241,286 +611,1385 @@ public class QuantumVizInterpreter extends Interpreter
       + "/polymer/polymer.html\"> ");
     
     //
-    // In case it's a graph or a geo map, use appropriate component
+    // In case it's a graph or a geo map, use appropriate component
+    //
+
+    String display = "";
+    if (type.equals(this.SETTING_TYPE_GRAPH)) {
+      res.append("<link   rel=\"import\" href=\"" + current_Url 
+        + "/warp10-quantumviz/warp10-display-alt-chart.html\"> ");
+      display = "warp10-display-chart";
+    } else if (type.equals(this.SETTING_TYPE_GEO)) {
+      res.append("<link   rel=\"import\" href=\"" + current_Url 
+          + "/warp10-quantumviz/warp10-display-map.html\">");
+      display = this.DISPLAY_GEO;
+    }
+    
+    //
+    // Encoded data is decoded in the browser, next to the components
+    //
+    
+    if (!encoding.equals(ColumnarCodec.JSON)) {
+      try {
+        res.append("<script>").append(encoding.equals(ColumnarCodec.COLUMNAR) 
+            ? ColumnarCodec.script() : DictionaryCodec.script()).append("</script>");
+      } catch (IOException eScript) {
+        
+        // return a Zeppelin error
+        return new InterpreterResult(InterpreterResult.Code.ERROR, eScript.getMessage());
+      }
+    }
+    
+    //
+    // Check if data types match a single object or a list thereof
+    //
+    
+    JSONArray bodyElements = new JSONArray();
+    if (jsObject.get(this.JSON_DATA_KEY) instanceof JSONArray) {
+      bodyElements = jsObject.getJSONArray(this.JSON_DATA_KEY);
+    } else if (jsObject.get(this.JSON_DATA_KEY) instanceof JSONObject) {
+      bodyElements.put(jsObject.get(this.JSON_DATA_KEY));
+    } else {
+      
+      // return a Zeppelin error
+      return new InterpreterResult(InterpreterResult.Code.ERROR, 
+          "Quantumviz interpreter encouters an incorrect data type: "
+          + "expects a single JSON object or list thereof.");
+    }
+    paragraph.total(bodyElements.length());
+    
+    //
+    // Fetch the distinct series keys of the paragraph up front and concurrently. 
+    // They are queued before the elements, so an element never waits for a load 
+    // which is queued behind it
+    //
+    
+    final ParagraphResources pool = new ParagraphResources(resources, cancellation);
+    Set<String> seriesKeys = new LinkedHashSet<>();
+    for (Object dataObject : bodyElements) {
+      if (dataObject instanceof JSONObject 
+          && ((JSONObject) dataObject).opt(this.JSON_SERIES_KEY) instanceof String) {
+        seriesKeys.add(((JSONObject) dataObject).getString(this.JSON_SERIES_KEY));
+      }
+    }
+    for (final String seriesKey : seriesKeys) {
+      pool.loads.put(seriesKey, submitElement(new Callable<Pair<String, String>>() {
+        @Override
+        public Pair<String, String> call() throws Exception {
+          pool.start(seriesKey);
+          return loadResource(resources, seriesKey, paragraph);
+        }
+      }, bodyElements.length(), cancellation));
+    }
+
+    //
+    // Render each graph/geo map the user add, independent elements being rendered 
+    // concurrently, then append their result strings in the original order
+    //
+    
+    final String elementDisplay = display;
+    final String elementHeight = maxHeight;
+    final String elementWidth = maxWidth;
+    final String elementTransport = transport;
+    final String elementEncoding = encoding;
+    List<Callable<String>> tasks = new ArrayList<>();
+    for (int i = 0; i < bodyElements.length(); i++) {
+      final Object dataObject = bodyElements.get(i);
+      final String elementKey = context.getParagraphId() + "/" + i;
+      tasks.add(new Callable<String>() {
+        @Override
+        public String call() throws Exception {
+          return renderElement(dataObject, elementKey, pool, elementDisplay, elementHeight, 
+              elementWidth, elementTransport, elementEncoding, paragraph, cancellation);
+        }
+      });
+    }
+    
+    //
+    // Only a window of elements is rendered ahead of the one being written, so that
+    // a streamed paragraph holds at most this window in memory
+    //
+    
+    int window = Math.max(1, this.concurrency);
+    List<Future<String>> elements = new ArrayList<>();
+    for (int i = 0; i < tasks.size() && i < window; i++) {
+      elements.add(submitElement(tasks.get(i), tasks.size(), cancellation));
+    }
+    
+    try {
+      for (int i = 0; i < elements.size(); i++) {
+        String element;
+        try {
+          cancellation.check();
+          element = elements.get(i).get();
+          cancellation.untrack(elements.get(i));
+        } catch (ExecutionException | InterruptedException | CancellationException eElement) {
+          
+          //
+          // Report the first failing element, the following ones are not needed anymore
+          //
+          
+          for (int j = i; j < elements.size(); j++) {
+            elements.get(j).cancel(true);
+          }
+          pool.cancel();
+          if (eElement instanceof InterruptedException) {
+            Thread.currentThread().interrupt();
+          }
+          Throwable cause = null == eElement.getCause() ? eElement : eElement.getCause();
+          if (cancellation.isCancelled()) {
+            cause = new CancellationException(Cancellation.MESSAGE);
+          }
+          
+          // return a Zeppelin error
+          return new InterpreterResult(InterpreterResult.Code.ERROR, cause.getMessage());
+        }
+        elements.set(i, null);
+        if (i + window < tasks.size()) {
+          elements.add(submitElement(tasks.get(i + window), tasks.size(), cancellation));
+        }
+        
+        //
+        // The scripts heading the paragraph are streamed with its first element, so that 
+        // a paragraph failing on it writes nothing
+        //
+        
+        if (stream) {
+          if (0 == i) {
+            context.out.setType(Type.HTML);
+            context.out.write(res.toString());
+            res.setLength(0);
+          }
+          context.out.write(element);
+          context.out.flush();
+        } else {
+          res.append(element);
+        }
+      }
+    } catch (IOException eOutput) {
+      for (Future<String> element : elements) {
+        if (null != element) {
+          element.cancel(true);
+        }
+      }
+      pool.cancel();
+      
+      // return a Zeppelin error
+      return new InterpreterResult(InterpreterResult.Code.ERROR, 
+          "Quantumviz interpreter can not write its output: " + eOutput.getMessage());
+    }
+    
+    if (stream) {
+      return new InterpreterResult(InterpreterResult.Code.SUCCESS);
+    }
+    
+    //res.append("");
+
+    return new InterpreterResult(InterpreterResult.Code.SUCCESS, Type.HTML, res.toString());
+    //return new InterpreterResult(InterpreterResult.Code.SUCCESS, res.toString());
+
+  }
+
+  /**
+   * Start rendering a data element or loading a resource, the single element of a paragraph 
+   * being rendered by the calling thread
+   * 
+   * @param task rendering of the element
+   * @param count number of elements of the paragraph
+   * @param cancellation cancellation of the paragraph, tracking the rendering
+   * @return result of the rendering
+   */
+  private <T> Future<T> submitElement(Callable<T> task, int count, 
+      Cancellation cancellation) {
+    if (count > 1) {
+      Future<T> future = this.elementExecutor.submit(task);
+      cancellation.track(future);
+      return future;
+    }
+    FutureTask<T> future = new FutureTask<>(task);
+    cancellation.track(future);
+    future.run();
+    return future;
+  }
+
+  /**
+   * Render a data element: its div, the web component and its data
+   * 
+   * @param dataObject current data element
+   * @param elementKey paragraph id and index of the element, keying its delta refreshes
+   * @param resources series of the paragraph
+   * @param display web component to use
+   * @param maxHeight default height of the div
+   * @param maxWidth default width of the div
+   * @param transport transport of the data
+   * @param encoding encoding of the data: json, columnar or dictionary
+   * @param paragraph metrics of the paragraph
+   * @param cancellation cancellation of the paragraph, checked between phases
+   * @return HTML of the element
+   * @throws Exception to return a Zeppelin error
+   */
+  private String renderElement(Object dataObject, String elementKey, 
+      ParagraphResources resources, String display, String maxHeight, String maxWidth, 
+      String transport, String encoding, QuantumVizMetrics.Paragraph paragraph, 
+      Cancellation cancellation) throws Exception {
+    cancellation.check();
+      
+    //
+    // Verify it the current element is valid
+    //
+    
+    if (!(dataObject instanceof JSONObject)) {
+      throw new Exception("Quantumviz interpreter encouters an incorrect data type: "
+          + "each element must be a valid JSON object.");
+    }
+    JSONObject jsonElement = (JSONObject) dataObject;
+    
+    //
+    // Create visualization div
+    //
+    
+    StringBuilder res = new StringBuilder();
+    res.append("<div>");
+    
+    //
+    // Check if user defined an height and a width for current div
+    //
+    
+    String height = initializeWidthHeight(maxHeight, jsonElement, this.JSON_HEIGHT_KEY);
+    String width = initializeWidthHeight(maxWidth, jsonElement, this.JSON_WIDTH_KEY);
+    
+    //
+    // Set up its style (height and width)
+    //
+    
+    res.append("<" + display + " style=\"height:" + height + ";"
+        + "max-width:" + width + ";\"");
+    
+    //
+    // Check if the chart zooms on the rollups of its series, queried on the data endpoint
+    //
+    
+    boolean rollup = isRollup(jsonElement);
+    
+    //
+    // Check if the map loads the tiles of its viewport, queried on the data endpoint
+    //
+    
+    boolean tiled = isTiled(jsonElement, display);
+    
+    //
+    // Load series from Zeppelin resource pool or from Warp 10
+    //
+    
+    Pair<String, String> series = loadSeries(jsonElement, width, resources, paragraph);
+    cancellation.check();
+    
+    //
+    // Manage globalParams key with user value
+    //
+    
+    QuantumRewriter.SeriesTransform transform = null;
+    String transformOptions = null;
+    GeoReducer reducer = getGeoReducer(jsonElement, width, display);
+    Aligner aligner = getAligner(jsonElement, null != reducer);
+    Downsampler downsampler = null;
+    if (null != reducer) {
+      transform = reducer;
+      transformOptions = reducer.options();
+    } else if (null != aligner) {
+      transform = aligner;
+      transformOptions = aligner.options();
+    } else {
+      downsampler = getDownsampler(jsonElement, width);
+      if (null != downsampler) {
+        transform = downsampler;
+        transformOptions = downsampler.options();
+      }
+    }
+    
+    //
+    // Round the values written by the transform, or the values of the series
+    //
+    
+    Quantizer quantizer = getQuantizer(jsonElement, transform);
+    if (null != quantizer) {
+      transform = quantizer;
+      transformOptions = (null == transformOptions ? "" : transformOptions + ":") 
+          + quantizer.options();
+    }
+    
+    //
+    // Only send the points appended since the last refresh, when the resource was 
+    // appended to. The points are diffed on the resource, so reduced, aligned and 
+    // downsampled series are rendered in full, only rounding being applied point by point
+    //
+    
+    boolean delta = isDeltaRefresh(jsonElement) && null == reducer && null == aligner 
+        && null == downsampler;
+    List<GeoTimeSerie> decoded = null;
+    String identity = null;
+    if (delta) {
+      long start = System.nanoTime();
+      decoded = DeltaTracker.parse(series.second);
+      paragraph.record(QuantumVizMetrics.Phase.PARSE, start);
+      identity = series.first + "\n" + transformOptions + "\n" 
+          + (hasGlobalParams(jsonElement) ? getGlobalParams(jsonElement).toString() : "");
+      DeltaTracker.Delta points = null == decoded ? null 
+          : DeltaTracker.diff(this.deltaTracker.get(elementKey), identity, decoded, 
+          null == quantizer ? 0 : quantizer.digits());
+      if (null != points) {
+        return renderDelta(res, display, elementKey, points, series.second.length(), paragraph);
+      }
+    }
+    cancellation.check();
+    
+    StringBuilder data = new StringBuilder();
+    long start = System.nanoTime();
+    boolean columnar = ColumnarCodec.COLUMNAR.equals(encoding);
+    String decoder = null;
+    
+    //
+    // Encode the series handed over by the transform, rather than writing them as JSON 
+    // and decoding them again
+    //
+    
+    boolean fused = columnar && null == decoded 
+        && transform instanceof QuantumRewriter.DecodingTransform;
+    if (fused) {
+      data.append(encodeColumnar(series.first, series.second, jsonElement, 
+          (QuantumRewriter.DecodingTransform) transform, transformOptions, resources));
+      decoder = "QuantumVizCodec.decode";
+      paragraph.record(QuantumVizMetrics.Phase.ENCODE, start);
+    } else {
+      writeData(series.first, series.second, jsonElement, transform, transformOptions, 
+          resources, data);
+      paragraph.record(QuantumVizMetrics.Phase.TRANSFORM, start);
+    }
+    cancellation.check();
+    String json = null != decoded ? data.toString() : null;
+    if (!fused && !ColumnarCodec.JSON.equals(encoding)) {
+      start = System.nanoTime();
+      String encoded = columnar ? ColumnarCodec.encode(data) : DictionaryCodec.encode(data);
+      data.setLength(0);
+      data.append(encoded);
+      decoder = columnar ? "QuantumVizCodec.decode" : "QuantumVizDictionary.decode";
+      paragraph.record(QuantumVizMetrics.Phase.ENCODE, start);
+    }
+    cancellation.check();
+    start = System.nanoTime();
+    
+    //
+    // Append data string in the component, or publish it on the data endpoint 
+    // and let the component load it
+    //
+    
+    String loader = "";
+    String elementId = null;
+    DataTransport.Payload payload = null;
+    if (transport.equals(this.SETTING_TRANSPORT_CHUNKED)) {
+      payload = this.dataTransport.publish(data);
+      elementId = "qv-" + payload.id();
+      res.append(" id=\"" + elementId + "\">");
+      loader = this.dataTransport.loader(payload, elementId, decoder);
+    } else if (null != decoder) {
+      
+      //
+      // Base64 frames are safe in a script, dictionary payloads are quoted as JSON strings
+      //
+      
+      elementId = "qv-" + UUID.randomUUID().toString();
+      res.append(" id=\"" + elementId + "\">");
+      loader = "<script>document.getElementById('" + elementId + "').setAttribute('data', "
+          + decoder + "(" + (columnar ? "'" + data + "'" : JSONObject.quote(data.toString())) 
+          + "));</script>";
+    } else {
+      if (rollup || tiled || null != decoded) {
+        elementId = "qv-" + UUID.randomUUID().toString();
+        res.append(" id=\"" + elementId + "\" ");
+      }
+      res.append("data='");
+      appendAttribute(data, res);
+      res.append("'");
+    }
+    if (rollup) {
+      loader += zoomScript(elementId, 
+          getRollupIds(series.first, series.second, resources), jsonElement, width);
+    }
+    if (tiled) {
+      loader += tileScript(elementId, getTileId(series.first, series.second, resources), 
+          jsonElement);
+    }
+    
+    //
+    // The data rendered in full is the base of the next deltas, published for the pages 
+    // which do not hold it
+    //
+    
+    if (null != decoded) {
+      DataTransport.Payload base = null != payload && null == decoder ? payload 
+          : this.dataTransport.publish(json);
+      DeltaTracker.State state = this.deltaTracker.rendered(elementKey, identity, 
+          base.id() + "/" + base.chunks(), decoded);
+      loader += DeltaTracker.register(elementId, elementKey, state);
+    }
+    
+    //
+    // Close web component
+    // 
+    
+    res.append(" </" + display + "> <p> </p>");
+    res.append("</div>");
+    res.append(loader);
+    paragraph.record(QuantumVizMetrics.Phase.OUTPUT, start);
+    
+    //
+    // Only the points decoded by the transform are counted, cache hits decode none
+    //
+    
+    long points = null != reducer ? reducer.points() 
+        : (null != aligner ? aligner.points() 
+        : (null != downsampler ? downsampler.points() 
+        : (null != quantizer ? quantizer.points() : 0)));
+    paragraph.element(series.second.length(), data.length(), points);
+    return res.toString();
+  }
+
+  /**
+   * Load the series of a data element, from Zeppelin resource pool or from Warp 10
+   * 
+   * @param jsonElement current data element
+   * @param width width of the current div
+   * @param resources series of the paragraph
+   * @param paragraph metrics of the paragraph
+   * @return the source of the series and the series serialized in JSON
+   * @throws Exception to return a Zeppelin error
+   */
+  private Pair<String, String> loadSeries(JSONObject jsonElement, String width, 
+      ParagraphResources resources, final QuantumVizMetrics.Paragraph paragraph) 
+      throws Exception {
+    
+    //
+    // Fetch series from Warp 10, the response being decoded line by line
+    //
+    
+    if (!jsonElement.has(this.JSON_SERIES_KEY) && jsonElement.has(this.JSON_FETCH_KEY)) {
+      if (!(jsonElement.get(this.JSON_FETCH_KEY) instanceof JSONObject)) {
+        throw new Exception("Quantumviz interpreter encouters an incorrect fetch type: "
+            + "fetch corresponds to the parameters of a Warp 10 fetch request "
+            + "(token, selector, start, stop...).");
+      }
+      JSONObject fetch = jsonElement.getJSONObject(this.JSON_FETCH_KEY);
+      final Map<String, String> params = new LinkedHashMap<>();
+      for (String key : fetch.keySet()) {
+        params.put(key, String.valueOf(fetch.get(key)));
+      }
+      final String source = this.warp10Client.url() + Warp10Client.FETCH + params;
+      final Cancellation cancellation = resources.cancellation();
+      return resources.once(source, new Callable<Pair<String, String>>() {
+        @Override
+        public Pair<String, String> call() throws Exception {
+          StringBuilder serialized = new StringBuilder();
+          long start = System.nanoTime();
+          try {
+            warp10Client.fetch(params, serialized, cancellation);
+          } catch (IOException eFetch) {
+            throw new Exception("Quantumviz interpreter can not fetch series from Warp 10: " 
+                + eFetch.getMessage());
+          } finally {
+            paragraph.record(QuantumVizMetrics.Phase.LOAD, start);
+          }
+          return new Pair<>(source, serialized.toString());
+        }
+      });
+    }
+    
+    //
+    // Execute a WarpScript, its result being on top of the stack
+    //
+    
+    if (!jsonElement.has(this.JSON_SERIES_KEY) && jsonElement.has(this.JSON_EXEC_KEY)) {
+      if (!(jsonElement.get(this.JSON_EXEC_KEY) instanceof String)) {
+        throw new Exception("Quantumviz interpreter encouters an incorrect exec type: "
+            + "exec corresponds to a WarpScript string.");
+      }
+      return execSeries(jsonElement.getString(this.JSON_EXEC_KEY), resources, paragraph);
+    }
+    
+    //
+    // Fetch and reduce series on Warp 10, by default to one point per pixel column
+    //
+    
+    if (!jsonElement.has(this.JSON_SERIES_KEY) && jsonElement.has(this.JSON_QUERY_KEY)) {
+      if (!(jsonElement.get(this.JSON_QUERY_KEY) instanceof JSONObject)) {
+        throw new Exception("Quantumviz interpreter encouters an incorrect query type: "
+            + "query corresponds to a selector, a time range and a number of points "
+            + "(token, selector, end, timespan, sample, points).");
+      }
+      Warp10Query query = Warp10Query.parse(jsonElement.getJSONObject(this.JSON_QUERY_KEY), 
+          getPixelWidth(width));
+      return execSeries(query.script(), resources, paragraph);
+    }
+    
+    //
+    // Check if there is a series key
+    //
+    
+    if (!jsonElement.has(this.JSON_SERIES_KEY)) {
+      throw new Exception("Quantumviz interpreter encouters an incorrect data type: "
+          + "each element needs a series, fetch, exec or query key.");
+    }
+    
+    //
+    // Check if there is a series key
+    //
+    
+    if (!(jsonElement.get(this.JSON_SERIES_KEY) instanceof String )) {
+      throw new Exception("Quantumviz interpreter encouters an incorrect series type: "
+          + "series corresponds to a key string to load an element from "
+          + "Zeppelin resource pool.");
+    }
+    
+    //
+    // The resource was already requested with the other keys of the paragraph
+    //
+    
+    return resources.load(jsonElement.getString(this.JSON_SERIES_KEY));
+  }
+
+  /**
+   * Execute a WarpScript on Warp 10, once per paragraph
+   * 
+   * @param warpscript script leaving the series on top of the stack
+   * @param resources series of the paragraph
+   * @param paragraph metrics of the paragraph
+   * @return the source of the series and the series serialized in JSON
+   * @throws Exception to return a Zeppelin error
+   */
+  private Pair<String, String> execSeries(final String warpscript, ParagraphResources resources, 
+      final QuantumVizMetrics.Paragraph paragraph) throws Exception {
+    final String source = this.warp10Client.url() + Warp10Client.EXEC + "/" 
+        + RenderCache.fingerprint(warpscript);
+    final Cancellation cancellation = resources.cancellation();
+    return resources.once(source, new Callable<Pair<String, String>>() {
+      @Override
+      public Pair<String, String> call() throws Exception {
+        StringBuilder serialized = new StringBuilder();
+        long start = System.nanoTime();
+        try {
+          warp10Client.exec(warpscript, serialized, cancellation);
+        } catch (IOException eExec) {
+          throw new Exception("Quantumviz interpreter can not execute WarpScript on Warp 10: " 
+              + eExec.getMessage());
+        } finally {
+          paragraph.record(QuantumVizMetrics.Phase.LOAD, start);
+        }
+        return new Pair<>(source, serialized.toString());
+      }
+    });
+  }
+  
+  /**
+   * Load a resource from Zeppelin resource pool and serialize it
+   * 
+   * @param resources Zeppelin resource pool
+   * @param seriesKey key of the resource
+   * @param paragraph metrics of the paragraph
+   * @return the source of the series and the series serialized in JSON
+   * @throws Exception if the resource is not found
+   */
+  private Pair<String, String> loadResource(ResourcePool resources, String seriesKey, 
+      QuantumVizMetrics.Paragraph paragraph) throws Exception {
+    
+    //
+    // Load resources from Zeppelin if founded, a single remote call per key
+    //
+    
+    long start = System.nanoTime();
+    Resource resource = resources.get(seriesKey);
+    if (resource == null) {
+      throw new Exception("Quantumviz interpreter encouters an incorrect series type: "
+          + "series not found in Zeppelin resource pool.");
+    }
+    Object value = resource.get();
+    paragraph.record(QuantumVizMetrics.Phase.LOAD, start);
+    Cancellation.checkpoint();
+    
+    start = System.nanoTime();
+    String serialized = this.serializer.serialize(value);
+    paragraph.record(QuantumVizMetrics.Phase.SERIALIZE, start);
+    return new Pair<>(resource.getResourceId().getResourcePoolId() + "/" 
+        + resource.getResourceId().getName(), serialized);
+  }
+
+  /**
+   * Append a value in a single quoted HTML attribute
+   * @param value value to escape
+   * @param out builder receiving the escaped value
+   */
+  private void appendAttribute(CharSequence value, StringBuilder out) {
+    int start = 0;
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if ('\'' == c || '&' == c) {
+        out.append(value, start, i);
+        out.append('\'' == c ? "&#39;" : "&amp;");
+        start = i + 1;
+      }
+    }
+    out.append(value, start, value.length());
+  }
+
+  /**
+   * Write the data of an element, using the render cache when the resource was already rendered
+   * with the same options
+   * @param source source of the series (resource pool, Warp 10 request)
+   * @param serialized serialized series
+   * @param jsonElement current data element
+   * @param transform downsampler or geo reducer of the element, can be null
+   * @param transformOptions options identifying the output of the transform
+   * @param resources series of the paragraph, each series being transformed once
+   * @param out builder receiving the result
+   * @throws Exception when the resource or the user params are invalid
+   */
+  private void writeData(String source, final String serialized, JSONObject jsonElement, 
+      final QuantumRewriter.SeriesTransform transform, String transformOptions, 
+      ParagraphResources resources, StringBuilder out) throws Exception {
+    
+    String paramsKey = hasGlobalParams(jsonElement) ? getGlobalParams(jsonElement).toString() : null;
+    
+    //
+    // Nothing to render when the resource is written as it is
+    //
+    
+    if (null == paramsKey && null == transform) {
+      out.append(serialized);
+      return;
+    }
+    
+    //
+    // Elements of the paragraph using the same series with the same options share 
+    // its transformation, a single one running it
+    //
+    
+    Callable<String> transformation = new Callable<String>() {
+      @Override
+      public String call() throws Exception {
+        StringBuilder transformed = new StringBuilder();
+        new QuantumRewriter(null, null, transform).rewrite(serialized, transformed);
+        return transformed.toString();
+      }
+    };
+    
+    if (!this.renderCache.isEnabled()) {
+      String base = null == transform ? serialized 
+          : resources.once(source + "\n" + transformOptions, transformation);
+      manageGlobalParameter(base, jsonElement, null, out);
+      return;
+    }
+    
+    String key = RenderCache.key(source, serialized, 
+        null == transform ? "none" : transformOptions);
+    RenderCache.Entry entry = this.renderCache.get(key, paramsKey);
+    
+    //
+    // Paragraphs run concurrently, the payload and its params are read at once
+    //
+    
+    String cached = null == entry ? null : entry.payload(paramsKey);
+    if (null != cached) {
+      out.append(cached);
+      return;
+    }
+    
+    //
+    // Only the global params changed, patch the transformed resource
+    //
+    
+    if (null != entry) {
+      StringBuilder payload = new StringBuilder();
+      manageGlobalParameter(entry.base(), jsonElement, null, payload);
+      this.renderCache.patch(key, entry, paramsKey, payload.toString());
+      out.append(payload);
+      return;
+    }
+    
+    //
+    // Transform the resource, then set the global params
+    //
+    
+    String base = serialized;
+    if (null != transform) {
+      base = resources.once(key, transformation);
+    }
+    String payload = base;
+    if (null != paramsKey) {
+      StringBuilder withParams = new StringBuilder();
+      manageGlobalParameter(base, jsonElement, null, withParams);
+      payload = withParams.toString();
+    }
+    this.renderCache.put(key, base, paramsKey, payload);
+    out.append(payload);
+  }
+
+  /**
+   * Transform and encode the data of an element in columnar format, using the render cache 
+   * when the resource was already rendered with the same options
+   * @param source source of the series (resource pool, Warp 10 request)
+   * @param serialized serialized series
+   * @param jsonElement current data element
+   * @param transform transform of the element
+   * @param transformOptions options identifying the output of the transform
+   * @param resources series of the paragraph, each series being encoded once
+   * @return base64 frame
+   * @throws Exception when the resource or the user params are invalid
+   */
+  private String encodeColumnar(String source, final String serialized, 
+      final JSONObject jsonElement, final QuantumRewriter.DecodingTransform transform, 
+      String transformOptions, ParagraphResources resources) throws Exception {
+    
+    final boolean hasGlobalParams = hasGlobalParams(jsonElement);
+    String paramsKey = hasGlobalParams ? getGlobalParams(jsonElement).toString() : null;
+    Callable<String> encoding = new Callable<String>() {
+      @Override
+      public String call() throws Exception {
+        return ColumnarCodec.encode(serialized, 
+            hasGlobalParams ? getGlobalParams(jsonElement) : null, 
+            new QuantumRewriter.Merger() {
+              @Override
+              public JSONObject merge(JSONObject globalParams) throws Exception {
+                return modifyGlobalParams(globalParams, jsonElement);
+              }
+            }, transform);
+      }
+    };
+    
+    //
+    // Frames can not be patched, they are cached for each set of global params
+    //
+    
+    String key = RenderCache.key(source, serialized, 
+        transformOptions + "|" + ColumnarCodec.COLUMNAR + "|" + paramsKey);
+    RenderCache.Entry entry = this.renderCache.isEnabled() 
+        ? this.renderCache.get(key, paramsKey) : null;
+    String cached = null == entry ? null : entry.payload(paramsKey);
+    if (null != cached) {
+      return cached;
+    }
+    String frame = resources.once(key, encoding);
+    if (this.renderCache.isEnabled()) {
+      this.renderCache.put(key, "", paramsKey, frame);
+    }
+    return frame;
+  }
+
+  /**
+   * Check if the user asked for a zoomable element, starting the data endpoint its rollups
+   * are queried on
+   * @param jsonElement current data element
+   * @return true if the rollups of the element series are published
+   * @throws Exception to return a Zeppelin error
+   */
+  private boolean isRollup(JSONObject jsonElement) throws Exception {
+    if (!jsonElement.has(this.JSON_ROLLUP_KEY)) {
+      return false;
+    }
+    if (!(jsonElement.get(this.JSON_ROLLUP_KEY) instanceof Boolean)) {
+      throw new Exception("Quantumviz interpreter encouters an incorrect rollup type: "
+          + "rollup corresponds to a boolean.");
+    }
+    if (!jsonElement.getBoolean(this.JSON_ROLLUP_KEY) || !this.rollupCache.isEnabled()) {
+      return false;
+    }
+    try {
+      this.dataTransport.start();
+    } catch (IOException eTransport) {
+      throw new Exception("Quantumviz interpreter can not start its data endpoint: " 
+          + eTransport.getMessage());
+    }
+    return true;
+  }
+
+  /**
+   * Check if the user asked for a tiled map, starting the data endpoint its tiles are 
+   * queried on
+   * @param jsonElement current data element
+   * @param display web component of the element
+   * @return true if the located points of the element series are indexed by tile
+   * @throws Exception to return a Zeppelin error
+   */
+  private boolean isTiled(JSONObject jsonElement, String display) throws Exception {
+    if (!jsonElement.has(this.JSON_TILES_KEY)) {
+      return false;
+    }
+    if (!(jsonElement.get(this.JSON_TILES_KEY) instanceof Boolean)) {
+      throw new Exception("Quantumviz interpreter encouters an incorrect tiles type: "
+          + "tiles corresponds to a boolean.");
+    }
+    if (!this.DISPLAY_GEO.equals(display)) {
+      throw new Exception("Quantumviz interpreter expects tiles to be used "
+          + "with the " + this.SETTING_TYPE_GEO + " type");
+    }
+    if (!jsonElement.getBoolean(this.JSON_TILES_KEY) || !this.tileCache.isEnabled()) {
+      return false;
+    }
+    try {
+      this.dataTransport.start();
+    } catch (IOException eTransport) {
+      throw new Exception("Quantumviz interpreter can not start its data endpoint: " 
+          + eTransport.getMessage());
+    }
+    return true;
+  }
+
+  /**
+   * Check if the user asked for a delta refresh, starting the data endpoint the base of 
+   * the deltas is published on
+   * @param jsonElement current data element
+   * @return true if only the points appended since the last refresh are sent
+   * @throws Exception to return a Zeppelin error
+   */
+  private boolean isDeltaRefresh(JSONObject jsonElement) throws Exception {
+    if (!jsonElement.has(this.JSON_REFRESH_KEY)) {
+      return false;
+    }
+    String refresh = jsonElement.optString(this.JSON_REFRESH_KEY);
+    if (!(DeltaTracker.FULL.equals(refresh) || DeltaTracker.DELTA.equals(refresh))) {
+      throw new Exception("Quantumviz interpreter expects refresh to be "
+          + "one of the following one [" + DeltaTracker.FULL + ", " + DeltaTracker.DELTA + "].");
+    }
+    if (DeltaTracker.FULL.equals(refresh)) {
+      return false;
+    }
+    try {
+      this.dataTransport.start();
+    } catch (IOException eTransport) {
+      throw new Exception("Quantumviz interpreter can not start its data endpoint: " 
+          + eTransport.getMessage());
+    }
+    return true;
+  }
+
+  /**
+   * Render the points appended to the series of an element since its last refresh, 
+   * appended by the chart to its previous data
+   * @param res HTML of the element, up to the attributes of the component
+   * @param display web component to use
+   * @param elementKey paragraph id and index of the element
+   * @param delta points appended since the last refresh
+   * @param input size of the serialized resource
+   * @param paragraph metrics of the paragraph
+   * @return HTML of the element
+   * @throws IOException if the delta can not be published
+   */
+  private String renderDelta(StringBuilder res, String display, String elementKey, 
+      DeltaTracker.Delta delta, long input, QuantumVizMetrics.Paragraph paragraph) 
+      throws IOException {
+    long start = System.nanoTime();
+    String payload = null;
+    if (delta.count() > 0) {
+      DataTransport.Payload published = this.dataTransport.publish(delta.points());
+      payload = published.id() + "/" + published.chunks();
+    }
+    DeltaTracker.State state = this.deltaTracker.appended(elementKey, delta, payload);
+    String elementId = "qv-" + UUID.randomUUID().toString();
+    res.append(" id=\"" + elementId + "\">");
+    res.append(" </" + display + "> <p> </p>");
+    res.append("</div>");
+    res.append(DeltaTracker.appender(elementId, elementKey, delta, state, 
+        this.dataTransport.url()));
+    paragraph.record(QuantumVizMetrics.Phase.OUTPUT, start);
+    paragraph.element(input, delta.points().length(), delta.count());
+    return res.toString();
+  }
+
+  /**
+   * Build the rollup pyramids of the numeric series of a resource, or reuse the cached ones
+   * @param source source of the series (resource pool, Warp 10 request)
+   * @param serialized serialized series
+   * @param resources series of the paragraph, the pyramids of a series being built once
+   * @return ids of the pyramids, null if they do not fit in the rollup cache
+   * @throws Exception when the resource is invalid
+   */
+  private List<String> getRollupIds(String source, final String serialized, 
+      ParagraphResources resources) throws Exception {
+    final String key = RenderCache.key(source, serialized, this.JSON_ROLLUP_KEY);
+    List<String> ids = this.rollupCache.get(key);
+    if (null != ids) {
+      return ids;
+    }
+    return resources.once(this.JSON_ROLLUP_KEY + "\n" + key, new Callable<List<String>>() {
+      @Override
+      public List<String> call() throws Exception {
+        final List<RollupPyramid> pyramids = new ArrayList<>();
+        final GtsParser parser = new GtsParser();
+        try {
+          new QuantumRewriter(null, null, new QuantumRewriter.SeriesTransform() {
+            @Override
+            public void transform(JsonScanner scanner, StringBuilder out) throws Exception {
+              GeoTimeSerie gts = parser.parse(scanner);
+              if (null == gts) {
+                scanner.skipValue();
+              } else if (gts.isNumeric() && gts.size() > 0) {
+                pyramids.add(new RollupPyramid(gts, spillStore));
+              }
+            }
+          }).rewrite(serialized, new StringBuilder());
+        } catch (Exception eRollup) {
+          
+          //
+          // Release the spilled columns of the pyramids built before the failure
+          //
+          
+          for (RollupPyramid pyramid : pyramids) {
+            pyramid.close();
+          }
+          throw eRollup;
+        }
+        return rollupCache.put(key, pyramids);
+      }
+    });
+  }
+
+  /**
+   * Script defining element.zoom(start, end, points, mode), which replaces the data of 
+   * the component by the rollups of its numeric series over a time range
+   * @param elementId id of the component in the page
+   * @param ids ids of the pyramids of the element, null if they were not published
+   * @param jsonElement current data element
+   * @param width width of the current div
+   * @return HTML script element
+   */
+  private String zoomScript(String elementId, List<String> ids, JSONObject jsonElement, 
+      String width) {
+    if (null == ids || ids.isEmpty()) {
+      return "";
+    }
+    StringBuilder idList = new StringBuilder();
+    for (String id : ids) {
+      idList.append(idList.length() > 0 ? "," : "").append(id);
+    }
+    
+    //
+    // The global params of the element are set on the zoomed series
+    //
+    
+    String params = hasGlobalParams(jsonElement) 
+        ? getGlobalParams(jsonElement).toString().replace("</", "<\\/") : "null";
+    return "<script>"
+        + "(function() {"
+        + "var element = document.getElementById('" + elementId + "');"
+        + "var base = '" + this.dataTransport.url() + DataTransport.CONTEXT 
+        + DataTransport.ROLLUP + "/" + idList + "';"
+        + "var params = " + params + ";"
+        + "element.zoom = function(start, end, points, mode) {"
+        + "var request = new XMLHttpRequest();"
+        + "request.open('GET', base + '?start=' + Math.floor(start) + '&end=' + Math.ceil(end)"
+        + " + '&points=' + (points || " + 2 * getPixelWidth(width) + ")"
+        + " + (mode ? '&mode=' + mode : ''));"
+        + "request.onload = function() {"
+        + "if (200 != request.status) { return; }"
+        + "element.setAttribute('data', null == params ? request.responseText "
+        + ": '[{\"" + this.JSON_GTS_KEY + "\":' + request.responseText "
+        + "+ ',\"" + this.JSON_GLOBALPARAMS_KEY + "\":' + JSON.stringify(params) + '}]');"
+        + "};"
+        + "request.send();"
+        + "};"
+        + "})();"
+        + "</script>";
+  }
+
+  /**
+   * Index the located points of a resource by tile, or reuse the cached index
+   * @param source source of the series (resource pool, Warp 10 request)
+   * @param serialized serialized series
+   * @param resources series of the paragraph, the index of a resource being built once
+   * @return id of the index, null if it does not fit in the tile cache
+   * @throws Exception when the resource is invalid
+   */
+  private String getTileId(String source, final String serialized, 
+      ParagraphResources resources) throws Exception {
+    final String key = RenderCache.key(source, serialized, this.JSON_TILES_KEY);
+    String id = this.tileCache.get(key);
+    if (null != id) {
+      return id;
+    }
+    return resources.once(this.JSON_TILES_KEY + "\n" + key, new Callable<String>() {
+      @Override
+      public String call() throws Exception {
+        final List<GeoTimeSerie> list = new ArrayList<>();
+        final GtsParser parser = new GtsParser();
+        new QuantumRewriter(null, null, new QuantumRewriter.SeriesTransform() {
+          @Override
+          public void transform(JsonScanner scanner, StringBuilder out) throws Exception {
+            GeoTimeSerie gts = parser.parse(scanner);
+            if (null == gts) {
+              scanner.skipValue();
+            } else if (gts.hasLocations()) {
+              list.add(gts);
+            }
+          }
+        }).rewrite(serialized, new StringBuilder());
+        return tileCache.put(key, new GeoTileIndex(list));
+      }
+    });
+  }
+
+  /**
+   * Script defining element.loadTiles(zoom, west, south, east, north), which replaces the 
+   * data of the map by the points of the tiles covering a viewport, the series of the tiles 
+   * being merged by class name and labels. The Leaflet map of the component, once it exposes 
+   * it, loads the tiles of its viewport each time it moves
+   * @param elementId id of the component in the page
+   * @param id id of the tile index of the element, null if it was not published
+   * @param jsonElement current data element
+   * @return HTML script element
+   * @throws Exception to return a Zeppelin error
+   */
+  private String tileScript(String elementId, String id, JSONObject jsonElement) 
+      throws Exception {
+    if (null == id) {
+      return "";
+    }
+    int points = getPositiveInteger(jsonElement, this.JSON_MAXPOINTS_KEY, 
+        DataTransport.DEFAULT_TILE_POINTS);
+    String params = hasGlobalParams(jsonElement) 
+        ? getGlobalParams(jsonElement).toString().replace("</", "<\\/") : "null";
+    return "<script>"
+        + "(function() {"
+        + "var element = document.getElementById('" + elementId + "');"
+        + "var base = '" + this.dataTransport.url() + DataTransport.CONTEXT 
+        + DataTransport.TILES + "/" + id + "/';"
+        + "var params = " + params + ";"
+        + "var loaded = {};"
+        + "var current = 0;"
+        + "element.loadTiles = function(zoom, west, south, east, north) {"
+        + "var z = Math.max(0, Math.min(" + GeoTileIndex.MAX_ZOOM + ", Math.round(zoom)));"
+        + "var keys;"
+        + "do {"
+        + "var n = Math.pow(2, z);"
+        + "var column = function(lon) { "
+        + "return Math.max(0, Math.min(n - 1, Math.floor((lon + 180) / 360 * n))); };"
+        + "var row = function(lat) { "
+        + "var r = Math.max(-85.0511, Math.min(85.0511, lat)) * Math.PI / 180; "
+        + "return Math.max(0, Math.min(n - 1, "
+        + "Math.floor((1 - Math.log(Math.tan(r) + 1 / Math.cos(r)) / Math.PI) / 2 * n))); };"
+        + "keys = [];"
+        + "for (var x = column(west); x <= column(east); x++) {"
+        + "for (var y = row(north); y <= row(south); y++) { keys.push(z + '/' + x + '/' + y); }"
+        + "}"
+        + "} while (keys.length > 16 && z-- > 0);"
+        + "if (Object.keys(loaded).length > 256) { loaded = {}; }"
+        + "var generation = ++current;"
+        + "var pending = keys.length;"
+        + "var done = function() {"
+        + "if (0 != --pending || generation != current) { return; }"
+        + "var merged = {};"
+        + "var list = [];"
+        + "keys.forEach(function(key) { (loaded[key] || []).forEach(function(gts) {"
+        + "var name = JSON.stringify([gts.c, gts.l]);"
+        + "if (merged[name]) { merged[name].v = merged[name].v.concat(gts.v); return; }"
+        + "merged[name] = { c: gts.c, l: gts.l, a: gts.a, v: gts.v.slice() };"
+        + "list.push(merged[name]);"
+        + "}); });"
+        + "var data = JSON.stringify(list);"
+        + "element.setAttribute('data', null == params ? data "
+        + ": '[{\"" + this.JSON_GTS_KEY + "\":' + data "
+        + "+ ',\"" + this.JSON_GLOBALPARAMS_KEY + "\":' + JSON.stringify(params) + '}]');"
+        + "};"
+        + "keys.forEach(function(key) {"
+        + "if (loaded[key]) { done(); return; }"
+        + "var request = new XMLHttpRequest();"
+        + "request.open('GET', base + key + '?points=" + points + "');"
+        + "request.onload = function() {"
+        + "if (200 == request.status) { loaded[key] = JSON.parse(request.responseText); }"
+        + "done();"
+        + "};"
+        + "request.onerror = done;"
+        + "request.send();"
+        + "});"
+        + "};"
+        + "var bind = function(attempts) {"
+        + "var map = element.map || element._map;"
+        + "if (!(map && map.on && map.getBounds)) {"
+        + "if (attempts > 0) { setTimeout(function() { bind(attempts - 1); }, 500); }"
+        + "return;"
+        + "}"
+        + "var update = function() { var bounds = map.getBounds(); "
+        + "element.loadTiles(map.getZoom(), bounds.getWest(), bounds.getSouth(), "
+        + "bounds.getEast(), bounds.getNorth()); };"
+        + "map.on('moveend', update);"
+        + "update();"
+        + "};"
+        + "bind(10);"
+        + "})();"
+        + "</script>";
+  }
+
+  /**
+   * Check if JsonElement given as parameter contains one of the global param key
+   */
+  private boolean hasGlobalParams(JSONObject jsonElement) {
+    return jsonElement.has(this.JSON_INTEPOLATE_KEY) || jsonElement.has(this.JSON_TIMESTAMP_KEY) 
+        || jsonElement.has(this.JSON_XLABEL_KEY) || jsonElement.has(this.JSON_YLABEL_KEY);
+  }
+
+  /**
+   * Write the resource in out, in Quantum format, with the global params defined by the user
+   * @param resource serialized resource
+   * @param jsonElement current data element
+   * @param transform transform applied on each series, can be null
+   * @param out builder receiving the result
+   * @throws Exception when the resource or the user params are invalid
+   */
+  private void manageGlobalParameter(String resource, final JSONObject jsonElement, 
+      QuantumRewriter.SeriesTransform transform, StringBuilder out) throws JSONException, Exception {
+    
+    boolean hasGlobalParams = hasGlobalParams(jsonElement);
+    
+    if (!hasGlobalParams && null == transform) {
+      out.append(resource);
+      return;
+    }
+    
+    //
+    // Stream the resource, only its global params and the series to transform are decoded
+    //
+    
+    QuantumRewriter rewriter = new QuantumRewriter(
+        hasGlobalParams ? getGlobalParams(jsonElement) : null, 
+        new QuantumRewriter.Merger() {
+          @Override
+          public JSONObject merge(JSONObject globalParams) throws Exception {
+            return modifyGlobalParams(globalParams, jsonElement);
+          }
+        }, transform);
+    rewriter.rewrite(resource, out);
+  }
+
+  /**
+   * Build the downsampler of a data element, when the user asked for one
+   * 
+   * @param jsonElement current data element
+   * @param width width of the current div
+   * @return the downsampler or null if series are kept as they are
+   * @throws Exception to return a Zeppelin error
+   */
+  private Downsampler getDownsampler(JSONObject jsonElement, String width) throws Exception {
+    
+    if (!(jsonElement.has(this.JSON_DOWNSAMPLE_KEY) || jsonElement.has(this.JSON_MAXPOINTS_KEY))) {
+      return null;
+    }
+    
+    //
+    // Verify downsampling algorithm, LTTB by default
     //
-
-    String display = "";
-    if (type.equals(this.SETTING_TYPE_GRAPH)) {
-      res.append("<link   rel=\"import\" href=\"" + current_Url 
-        + "/warp10-quantumviz/warp10-display-alt-chart.html\"> ");
-      display = "warp10-display-chart";
-    } else if (type.equals(this.SETTING_TYPE_GEO)) {
-      res.append("<link   rel=\"import\" href=\"" + current_Url 
-          + "/warp10-quantumviz/warp10-display-map.html\">");
-      display = "warp10-display-map";
+    
+    String algorithm = Downsampler.LTTB;
+    if (jsonElement.has(this.JSON_DOWNSAMPLE_KEY)) {
+      Object algorithmObj = jsonElement.get(this.JSON_DOWNSAMPLE_KEY);
+      if (!(algorithmObj instanceof String && this.listDownsample.contains(algorithmObj))) {
+        throw new Exception("Quantumviz interpreter expects downsample value to be one of "
+            + this.listDownsample.toString());
+      }
+      algorithm = (String) algorithmObj;
     }
     
     //
-    // Check if data types match a single object or a list thereof
+    // Use max points set by the user, otherwise the number of points the div can display
     //
     
-    JSONArray bodyElements = new JSONArray();
-    if (jsObject.get(this.JSON_DATA_KEY) instanceof JSONArray) {
-      bodyElements = jsObject.getJSONArray(this.JSON_DATA_KEY);
-    } else if (jsObject.get(this.JSON_DATA_KEY) instanceof JSONObject) {
-      bodyElements.put(jsObject.get(this.JSON_DATA_KEY));
-    } else {
-      
-      // return a Zeppelin error
-      return new InterpreterResult(InterpreterResult.Code.ERROR, 
-          "Quantumviz interpreter encouters an incorrect data type: "
-          + "expects a single JSON object or list thereof.");
+    int maxPoints = getPositiveInteger(jsonElement, this.JSON_MAXPOINTS_KEY, 
+        getPixelWidth(width) * Downsampler.pointsPerPixel(algorithm));
+    
+    return new Downsampler(algorithm, maxPoints);
+  }
+
+  /**
+   * Build the quantizer of a data element, when the user asked for one
+   * 
+   * @param jsonElement current data element
+   * @param transform transform of the element whose output is rounded, can be null
+   * @return the quantizer or null if values are kept as they are
+   * @throws Exception to return a Zeppelin error
+   */
+  private Quantizer getQuantizer(JSONObject jsonElement, 
+      QuantumRewriter.SeriesTransform transform) throws Exception {
+    
+    int digits = getPositiveInteger(jsonElement, this.JSON_DIGITS_KEY, 0);
+    if (0 == digits) {
+      return null;
     }
+    if (digits > GtsWriter.MAX_DIGITS) {
+      throw new Exception("Quantumviz interpreter expects digits value "
+          + "to be an integer between 1 and " + GtsWriter.MAX_DIGITS);
+    }
+    return new Quantizer(transform, digits);
+  }
 
+  /**
+   * Build the aligner of a data element, when the user asked for one
+   * 
+   * @param jsonElement current data element
+   * @param reduced true if the element reduces its located points
+   * @return the aligner or null if series keep their own ticks
+   * @throws Exception to return a Zeppelin error
+   */
+  private Aligner getAligner(JSONObject jsonElement, boolean reduced) throws Exception {
+    
+    if (!(jsonElement.has(this.JSON_ALIGN_KEY) || jsonElement.has(this.JSON_STEP_KEY))) {
+      return null;
+    }
+    if (reduced || jsonElement.has(this.JSON_DOWNSAMPLE_KEY)) {
+      throw new Exception("Quantumviz interpreter expects align and step not to be used "
+          + "with downsample or reduce");
+    }
+    
     //
-    // Append a result string for each different graph/geo map the user add
+    // Verify aggregator, mean by default
     //
     
-    for (Object dataObject : bodyElements) {
-      
-      //
-      // Verify it the current element is valid
-      //
-      
-      if (!(dataObject instanceof JSONObject)) {
-        // return a Zeppelin error
-        return new InterpreterResult(InterpreterResult.Code.ERROR, 
-            "Quantumviz interpreter encouters an incorrect data type: "
-            + "each element must be a valid JSON object.");
-      }
-      JSONObject jsonElement = (JSONObject) dataObject;
-      
-      //
-      // Check if there is a series key
-      //
-      
-      if (!jsonElement.has(this.JSON_SERIES_KEY)) {
-        
-        // return a Zeppelin error
-        return new InterpreterResult(InterpreterResult.Code.ERROR, 
-            "Quantumviz interpreter encouters an incorrect data type: "
-            + "each element needs a series key.");
-      }
-      
-      //
-      // Check if there is a series key
-      //
-      
-      if (!(jsonElement.get(this.JSON_SERIES_KEY) instanceof String )) {
-        
-        // return a Zeppelin error
-        return new InterpreterResult(InterpreterResult.Code.ERROR, 
-            "Quantumviz interpreter encouters an incorrect series type: "
-            + "series corresponds to a key string to load an element from "
-            + "Zeppelin resource pool.");
-      }
-      
-      String seriesKey = jsonElement.getString(this.JSON_SERIES_KEY);
-      
-      //
-      // Create visualization div
-      //
-      
-      res.append("<div>");
-      
-      //
-      // Check if user defined an height for current div
-      //
-      String height = maxHeight;
-      
-      try {
-        height = initializeWidthHeight(maxHeight, jsonElement, this.JSON_HEIGHT_KEY);
-      } catch (Exception eWidth){
-        
-        // return a Zeppelin error
-        return new InterpreterResult(InterpreterResult.Code.ERROR, eWidth.getMessage());
-      }
-      
-      //
-      // Check if user defined a width for current div
-      //
-      
-      String width = maxWidth;
-      try {
-        width = initializeWidthHeight(maxWidth, jsonElement, this.JSON_WIDTH_KEY);
-      } catch (Exception eWidth){
-        
-        // return a Zeppelin error
-        return new InterpreterResult(InterpreterResult.Code.ERROR, eWidth.getMessage());
-      }
-      
-      //
-      // Set up its style (height and width)
-      //
-      
-      res.append("<" + display + " style=\"height:" + height + ";"
-          + "max-width:" + width + ";\"");
-      
-      //
-      // Load resources from Zeppelin if founded
-      //
-      
-      Resource resource = resources.get(seriesKey);
-      String valueString = "";
-      if (resource != null) {
-        Object value = resources.get(seriesKey).get();
-        valueString = parseObjectToString(value);
-        
-        //
-        // Manage globalParams key with user value
-        //
-        
-        try {
-          valueString = manageGlobalParameter(parseObjectToString(value), jsonElement);  
-        } catch (Exception eValue){
-          
-          // return a Zeppelin error
-          return new InterpreterResult(InterpreterResult.Code.ERROR, eValue.getMessage());
-        }
-      } else {
-        
-        // return a Zeppelin error
-        return new InterpreterResult(InterpreterResult.Code.ERROR, 
-            "Quantumviz interpreter encouters an incorrect series type: "
-            + "series not found in Zeppelin resource pool.");
+    String aggregator = Aligner.MEAN;
+    if (jsonElement.has(this.JSON_ALIGN_KEY)) {
+      Object aggregatorObj = jsonElement.get(this.JSON_ALIGN_KEY);
+      if (!(aggregatorObj instanceof String && this.listAlign.contains(aggregatorObj))) {
+        throw new Exception("Quantumviz interpreter expects align value to be one of "
+            + this.listAlign.toString());
       }
-      
-      
-      //
-      // Append data string and then close web component
-      // 
-      
-      res.append("data='" + valueString + "'");
-      res.append(" </" + display + "> <p> </p>");
-      res.append("</div>");
-      //System.out.println(res.toString());
+      aggregator = (String) aggregatorObj;
     }
     
-    //res.append("");
-
-    return new InterpreterResult(InterpreterResult.Code.SUCCESS, Type.HTML, res.toString());
-    //return new InterpreterResult(InterpreterResult.Code.SUCCESS, res.toString());
-
+    //
+    // Buckets are only bounded by max points when the user set it
+    //
+    
+    long step = getPositiveLong(jsonElement, this.JSON_STEP_KEY, 0);
+    int maxPoints = getPositiveInteger(jsonElement, this.JSON_MAXPOINTS_KEY, Integer.MAX_VALUE);
+    
+    return new Aligner(aggregator, step, maxPoints);
   }
 
-  private String manageGlobalParameter(String resource, 
-      JSONObject jsonElement) throws JSONException, Exception {
+  /**
+   * Build the geo reducer of a data element, when the user asked for one
+   * 
+   * @param jsonElement current data element
+   * @param width width of the current div
+   * @param display web component of the element
+   * @return the reducer or null if located points are kept as they are
+   * @throws Exception to return a Zeppelin error
+   */
+  private GeoReducer getGeoReducer(JSONObject jsonElement, String width, String display) 
+      throws Exception {
     
-    String result = resource;
+    if (!(jsonElement.has(this.JSON_REDUCE_KEY) || jsonElement.has(this.JSON_PRECISION_KEY))) {
+      return null;
+    }
+    if (!this.DISPLAY_GEO.equals(display)) {
+      throw new Exception("Quantumviz interpreter expects reduce and precision to be used "
+          + "with the " + this.SETTING_TYPE_GEO + " type");
+    }
     
     //
-    // Check if JsonElement given as parameter contains one of the global param key
+    // Verify reduction algorithm, clustering by default
     //
     
-    if (!(jsonElement.has(this.JSON_INTEPOLATE_KEY) || jsonElement.has(this.JSON_TIMESTAMP_KEY) 
-        || jsonElement.has(this.JSON_XLABEL_KEY) || jsonElement.has(this.JSON_YLABEL_KEY))) {
-      return result;
+    String algorithm = GeoReducer.CLUSTER;
+    if (jsonElement.has(this.JSON_REDUCE_KEY)) {
+      Object algorithmObj = jsonElement.get(this.JSON_REDUCE_KEY);
+      if (!(algorithmObj instanceof String && this.listReduce.contains(algorithmObj))) {
+        throw new Exception("Quantumviz interpreter expects reduce value to be one of "
+            + this.listReduce.toString());
+      }
+      algorithm = (String) algorithmObj;
     }
     
     //
-    // Check if it corresponds to an array
+    // Geohash precision of the clusters, by default the finest one fitting in max points
     //
     
-    if (resource.startsWith("[")) {
-      JSONArray resourceAsArray = new JSONArray(resource);   
-      JSONArray secondaryArray = new JSONArray();
-      
-      //
-      // Check if first elem of resourceArray contains a global param
-      //
-      if (resourceAsArray.getJSONObject(0).has(JSON_GLOBALPARAMS_KEY)) {
-      
-        for (Object object : resourceAsArray) {
-          if (object instanceof JSONObject) {
-            JSONObject resourceAsJson = (JSONObject) object;  
-            
-            //
-            // Get global params if it exists then set it
-            //
-            
-            if (resourceAsJson.has(JSON_GLOBALPARAMS_KEY)) {
-              JSONObject globalParams = modifyGlobalParams(resourceAsJson.
-                  getJSONObject(JSON_GLOBALPARAMS_KEY), jsonElement);
-              resourceAsJson.put(JSON_GLOBALPARAMS_KEY, globalParams);
-            }
-            secondaryArray.put(resourceAsJson);
-          } else {
-            secondaryArray.put(object);
-          }
-        }
-        result = secondaryArray.toString();
-      }
-      
-      //
-      // Check if first elem of resourceArray contains a global param
-      //
-      else if (resourceAsArray.getJSONObject(0).has(JSON_GTS_KEY)) {
-        for (Object object : resourceAsArray) {
-          JSONObject resourceAsJson = (JSONObject) object;  
-          resourceAsJson.put(this.JSON_GLOBALPARAMS_KEY, getGlobalParams(jsonElement));
-          secondaryArray.put(resourceAsJson);
-        }
-        result = secondaryArray.toString();
-      } else {
+    int precision = getPositiveInteger(jsonElement, this.JSON_PRECISION_KEY, 0);
+    if (precision > GeoReducer.MAX_PRECISION) {
+      throw new Exception("Quantumviz interpreter expects precision value "
+          + "to be an integer between 1 and " + GeoReducer.MAX_PRECISION);
+    }
+    
+    int maxPoints = getPositiveInteger(jsonElement, this.JSON_MAXPOINTS_KEY, 
+        getPixelWidth(width));
+    
+    return new GeoReducer(algorithm, maxPoints, precision);
+  }
 
-        //
-        // Else then it is a GTS arrayList on the stack
-        //
-        JSONObject element = new JSONObject();
-        element.put(this.JSON_GTS_KEY, resourceAsArray);
-        element.put(this.JSON_GLOBALPARAMS_KEY, getGlobalParams(jsonElement));
-        secondaryArray.put(element);
-        result = secondaryArray.toString();
-      }  
+  /**
+   * Read a positive integer option of a data element
+   * 
+   * @param jsonElement current data element
+   * @param key option key
+   * @param defaultValue value used when the option is not set
+   * @return option value
+   * @throws Exception to return a Zeppelin error
+   */
+  private int getPositiveInteger(JSONObject jsonElement, String key, int defaultValue) 
+      throws Exception {
+    
+    if (!jsonElement.has(key)) {
+      return defaultValue;
+    }
+    int value = 0;
+    Object valueObj = jsonElement.get(key);
+    if (valueObj instanceof Number) {
+      value = ((Number) valueObj).intValue();
+    } else if (valueObj instanceof String && NumberUtils.isDigits((String) valueObj)) {
+      value = NumberUtils.toInt((String) valueObj);
+    }
+    if (value <= 0) {
+      throw new Exception("Quantumviz interpreter expects " + key + " value "
+          + "to be a positive integer");
+    }
+    return value;
+  }
 
-      
-      //element.append(JSON_GTS_KEY, value)
-     
-    //
-    // Check if it's an object
-    //
-      
-    } else if (resource.startsWith("{")) {
-      JSONArray arrayResult = new JSONArray();
-      JSONObject resourceAsJson = new JSONObject(resource);  
-      
-      //
-      // If it's an object in quantum format, update Global params
-      //
-      
-      if (resourceAsJson.has(this.JSON_GLOBALPARAMS_KEY)) {
-        JSONObject globalParams = modifyGlobalParams(
-            resourceAsJson.getJSONObject(JSON_GLOBALPARAMS_KEY), jsonElement);
-        resourceAsJson.put(this.JSON_GLOBALPARAMS_KEY, globalParams);
-        arrayResult.put(resourceAsJson);
-        result = arrayResult.toString();
-        
-      //
-      // If it's an object in quantum format, without Global Params
-      //  
-        
-      } else if (resourceAsJson.has(this.JSON_GTS_KEY)) {
-        resourceAsJson.put(this.JSON_GLOBALPARAMS_KEY, getGlobalParams(jsonElement));
-        arrayResult.put(resourceAsJson);
-        result = arrayResult.toString();
-      } else {
-        
-        //
-        // Else then expect a GTS on the stack
-        //
-        
-        JSONObject element = new JSONObject();
-        element.put(this.JSON_GTS_KEY, resourceAsJson);
-        element.put(this.JSON_GLOBALPARAMS_KEY, getGlobalParams(jsonElement));
-        arrayResult.put(element);
-        result = arrayResult.toString();
-      }
+  /**
+   * Read a positive long option of a data element, such as a duration in time units
+   * 
+   * @param jsonElement current data element
+   * @param key option key
+   * @param defaultValue value used when the option is not set
+   * @return option value
+   * @throws Exception to return a Zeppelin error
+   */
+  private long getPositiveLong(JSONObject jsonElement, String key, long defaultValue) 
+      throws Exception {
+    
+    if (!jsonElement.has(key)) {
+      return defaultValue;
+    }
+    long value = 0;
+    Object valueObj = jsonElement.get(key);
+    if (valueObj instanceof Number) {
+      value = ((Number) valueObj).longValue();
+    } else if (valueObj instanceof String && NumberUtils.isDigits((String) valueObj)) {
+      value = NumberUtils.toLong((String) valueObj);
     }
+    if (value <= 0) {
+      throw new Exception("Quantumviz interpreter expects " + key + " value "
+          + "to be a positive integer");
+    }
+    return value;
+  }
 
-    return result;
+  /**
+   * Convert a valid width to pixels, a percentage being applied on a reference screen width
+   * @param width width ending with px or %
+   * @return number of pixels
+   */
+  private int getPixelWidth(String width) {
+    if (width.endsWith("%")) {
+      double percent = NumberUtils.toDouble(width.substring(0, width.length() - 1));
+      return (int) Math.max(1, this.SETTING_REFERENCE_PIXEL_WIDTH * percent / 100);
+    }
+    return (int) Math.max(1, NumberUtils.toDouble(width.substring(0, width.length() - 2)));
   }
 
-  private Object getGlobalParams(JSONObject jsonElement) {
+  private JSONObject getGlobalParams(JSONObject jsonElement) {
     JSONObject jsonObject = new JSONObject();
     
     if (jsonElement.has(this.JSON_INTEPOLATE_KEY)) {
@@ -751,65 +2220,13 @@ public class QuantumVizInterpreter extends Interpreter
     return true;
   }
 
-  private String parseObjectToString(Object object) {
-
-    if ( object instanceof Number ) {
-      return object.toString();
-    } else if ( object instanceof String ) {
-      return object.toString(); 
-    } else if (object instanceof List) {
-      JSONArray array = new JSONArray();
-
-      for (Object element : (List) object) {
-        array.put(element);
-      }
-      return array.toString();
-    } else if (object instanceof Map) {
-      JSONObject map = new JSONObject();
-      Map mapObj = (Map) object;
-      for (Object key : mapObj.keySet()) {
-        map.put(key.toString(), mapObj.get(key));
-      }
-      return map.toString();
-    }
-    return "";
-  }
-
-  private Object parseObject(Object object) {
-    if (isListJSONValid(object.toString())) {
-      ArrayList<Object> thisList = new ArrayList<>();
-      JSONArray listObjects = new JSONArray(object.toString());
-      for (Object currentElem : listObjects) {
-        thisList.add(parseObject(currentElem));
-      }
-      //parseType.put(object.toString(), "List");
-      return thisList;
-    } else if (isMapJSONValid(object.toString())) {
-      Map<Object, Object> map = new HashMap<>();
-      JSONObject mapObjects = new JSONObject(object.toString());
-      for (String element : mapObjects.keySet()) {
-        map.put(element, parseObject(mapObjects.get(element)));
-      }
-      //parseType.put(object.toString(), "Map");
-      return map;
-    } else {
-      //parseType.put(object.toString(), object.getClass().toString());
-      return object;
-    }
-  }
-
   /**
    * Function to test if a String is a Valid JSON Map
    * @param test String to test
    * @return
    */
   public boolean isMapJSONValid(String test) {
-    try {
-      new JSONObject(test);
-    } catch (JSONException ex) {
-      return false;
-    }
-    return true;
+    return isJSONValid(test, '{');
   }
 
   /**
@@ -818,8 +2235,15 @@ public class QuantumVizInterpreter extends Interpreter
    * @return
    */
   public boolean isListJSONValid(String test) {
+    return isJSONValid(test, '[');
+  }
+  
+  /**
+   * Check a String with the lenient grammar of org.json, without building its objects
+   */
+  private boolean isJSONValid(String test, char open) {
     try {
-      new JSONArray(test);
+      new JsonScanner(test).checkLenientValue(open);
     } catch (JSONException ex) {
       return false;
     }
@@ -836,6 +2260,104 @@ public class QuantumVizInterpreter extends Interpreter
     final String keyValue = getProperty(URL_KEY);
     this.current_Url = keyValue;
     
+    //
+    // Bound the cache of rendered elements, in entries and bytes
+    //
+    
+    this.renderCache = new RenderCache(
+        NumberUtils.toInt(getProperty(CACHE_ENTRIES_KEY), DEFAULT_CACHE_ENTRIES), 
+        NumberUtils.toLong(getProperty(CACHE_BYTES_KEY), DEFAULT_CACHE_BYTES));
+    
+    //
+    // Configure the data endpoint, started when a paragraph first uses the chunked transport
+    //
+    
+    if (null != getProperty(TRANSPORT_KEY) && !getProperty(TRANSPORT_KEY).isEmpty()) {
+      this.defaultTransport = getProperty(TRANSPORT_KEY);
+    }
+    if (null != getProperty(OUTPUT_KEY) && !getProperty(OUTPUT_KEY).isEmpty()) {
+      this.defaultOutput = getProperty(OUTPUT_KEY);
+    }
+    this.dataTransport = new DataTransport(
+        null == getProperty(TRANSPORT_HOST_KEY) || getProperty(TRANSPORT_HOST_KEY).isEmpty() 
+            ? DEFAULT_TRANSPORT_HOST : getProperty(TRANSPORT_HOST_KEY), 
+        NumberUtils.toInt(getProperty(TRANSPORT_PORT_KEY), 0), 
+        getProperty(TRANSPORT_URL_KEY), 
+        null == getProperty(TRANSPORT_ORIGINS_KEY) 
+            ? DEFAULT_TRANSPORT_ORIGINS : getProperty(TRANSPORT_ORIGINS_KEY), 
+        NumberUtils.toInt(getProperty(TRANSPORT_CHUNK_KEY), DEFAULT_TRANSPORT_CHUNK), 
+        NumberUtils.toLong(getProperty(TRANSPORT_BYTES_KEY), DEFAULT_TRANSPORT_BYTES));
+    
+    //
+    // Bound the rollup pyramids of the zoomable elements, queried on the data endpoint
+    //
+    
+    this.rollupCache = new RollupCache(
+        NumberUtils.toLong(getProperty(ROLLUP_BYTES_KEY), DEFAULT_ROLLUP_BYTES));
+    this.dataTransport.rollups(this.rollupCache);
+    
+    //
+    // Bound the tile indexes of the tiled maps, also queried on the data endpoint
+    //
+    
+    this.tileCache = new GeoTileCache(
+        NumberUtils.toLong(getProperty(TILES_BYTES_KEY), DEFAULT_TILES_BYTES));
+    this.dataTransport.tiles(this.tileCache);
+    
+    //
+    // The columns of large series are mapped from files of the spill directory, if any,
+    // instead of living on the heap
+    //
+    
+    String spillDir = getProperty(SPILL_DIR_KEY);
+    if (null != spillDir && !spillDir.isEmpty()) {
+      this.spillStore = new SpillStore(new File(spillDir), 
+          NumberUtils.toLong(getProperty(SPILL_THRESHOLD_KEY), DEFAULT_SPILL_THRESHOLD), 
+          NumberUtils.toLong(getProperty(SPILL_BYTES_KEY), DEFAULT_SPILL_BYTES));
+    }
+    
+    //
+    // Bound the number of data elements rendered at the same time
+    //
+    
+    this.concurrency = Math.max(1, NumberUtils.toInt(getProperty(CONCURRENCY_KEY), 
+        Runtime.getRuntime().availableProcessors()));
+    this.resourceTimeout = Math.max(0, NumberUtils.toLong(getProperty(RESOURCE_TIMEOUT_KEY), 
+        DEFAULT_RESOURCE_TIMEOUT));
+    this.elementExecutor = Executors.newFixedThreadPool(this.concurrency, 
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "quantumviz-element");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    
+    //
+    // Series are fetched from the Warp 10 API url, by default the url of the backend
+    //
+    
+    String apiUrl = getProperty(API_URL_KEY);
+    if (null == apiUrl || apiUrl.isEmpty()) {
+      apiUrl = null == keyValue ? "" : keyValue;
+    }
+    this.warp10Client = new Warp10Client(apiUrl, WARP10_CONNECT_TIMEOUT, 
+        Math.max(0, NumberUtils.toInt(getProperty(WARP10_READ_TIMEOUT_KEY), 
+            DEFAULT_WARP10_READ_TIMEOUT)));
+    
+    //
+    // Expose the metrics over JMX, optionally logging a summary of each paragraph
+    //
+    
+    this.logMetrics = BooleanUtils.toBoolean(getProperty(METRICS_LOG_KEY));
+    try {
+      this.metrics.register("quantumviz-" + Integer.toHexString(System.identityHashCode(this)));
+    } catch (Exception eMetrics) {
+      LOGGER.warn("Quantumviz interpreter can not register its metrics: " 
+          + eMetrics.getMessage());
+    }
+    
     //Map<>
   }
 }
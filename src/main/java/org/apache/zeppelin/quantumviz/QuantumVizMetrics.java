@@ -0,0 +1,250 @@
+//
+//   Copyright 2016  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package org.apache.zeppelin.quantumviz;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and per phase timers of the interpreter, cumulated since its opening and
+ * per paragraph.
+ *
+ * Phases are the parse of the paragraph body, the load of the series (resource pool or
+ * Warp 10), their serialization, their transformation (global params, downsampling,
+ * geo reduction, render cache), their columnar encoding and the output of the element.
+ */
+final class QuantumVizMetrics implements QuantumVizMetricsMXBean {
+
+  enum Phase {
+    PARSE, LOAD, SERIALIZE, TRANSFORM, ENCODE, OUTPUT
+  }
+
+  static final String DOMAIN = "org.apache.zeppelin.quantumviz";
+
+  private final AtomicLongArray counts = new AtomicLongArray(Phase.values().length);
+  private final AtomicLongArray nanos = new AtomicLongArray(Phase.values().length);
+  private final AtomicLongArray maxNanos = new AtomicLongArray(Phase.values().length);
+  private final AtomicLong paragraphs = new AtomicLong();
+  private final AtomicLong elements = new AtomicLong();
+  private final AtomicLong errors = new AtomicLong();
+  private final AtomicLong inputBytes = new AtomicLong();
+  private final AtomicLong outputBytes = new AtomicLong();
+  private final AtomicLong points = new AtomicLong();
+
+  private ObjectName name;
+
+  /**
+   * Metrics of a running paragraph
+   */
+  final class Paragraph {
+    private volatile int total = 0;
+    private final AtomicInteger done = new AtomicInteger();
+    private final AtomicLongArray phases = new AtomicLongArray(Phase.values().length);
+    private final AtomicLong input = new AtomicLong();
+    private final AtomicLong output = new AtomicLong();
+    private final AtomicLong decoded = new AtomicLong();
+    private final long start = System.nanoTime();
+
+    /**
+     * @param total number of data elements of the paragraph
+     */
+    void total(int total) {
+      this.total = total;
+    }
+
+    /**
+     * Time a phase
+     * @param phase timed phase
+     * @param startNanos System.nanoTime() at the start of the phase
+     */
+    void record(Phase phase, long startNanos) {
+      long elapsed = System.nanoTime() - startNanos;
+      this.phases.addAndGet(phase.ordinal(), elapsed);
+      QuantumVizMetrics.this.record(phase, elapsed);
+    }
+
+    /**
+     * Count a rendered element
+     * @param inputChars characters of its series
+     * @param outputChars characters of its data
+     * @param decodedPoints points decoded by its transform
+     */
+    void element(long inputChars, long outputChars, long decodedPoints) {
+      this.input.addAndGet(inputChars);
+      this.output.addAndGet(outputChars);
+      this.decoded.addAndGet(decodedPoints);
+      this.done.incrementAndGet();
+      elements.incrementAndGet();
+      inputBytes.addAndGet(inputChars);
+      outputBytes.addAndGet(outputChars);
+      points.addAndGet(decodedPoints);
+    }
+
+    void error() {
+      errors.incrementAndGet();
+    }
+
+    /**
+     * @return percentage of the elements already rendered
+     */
+    int progress() {
+      int elements = this.total;
+      return 0 == elements ? 0 : this.done.get() * 100 / elements;
+    }
+
+    /**
+     * @return one line summary of the paragraph
+     */
+    String summary() {
+      StringBuilder summary = new StringBuilder();
+      summary.append(this.done.get()).append('/').append(this.total).append(" elements in ")
+          .append(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.start)).append(" ms");
+      for (Phase phase : Phase.values()) {
+        summary.append(", ").append(phase.name().toLowerCase()).append(' ')
+            .append(TimeUnit.NANOSECONDS.toMillis(this.phases.get(phase.ordinal()))).append(" ms");
+      }
+      summary.append(", input ").append(this.input.get()).append(" chars, output ")
+          .append(this.output.get()).append(" chars, ").append(this.decoded.get())
+          .append(" points decoded");
+      return summary.toString();
+    }
+  }
+
+  /**
+   * Start the metrics of a paragraph
+   * @return paragraph metrics
+   */
+  Paragraph paragraph() {
+    this.paragraphs.incrementAndGet();
+    return new Paragraph();
+  }
+
+  void record(Phase phase, long elapsed) {
+    int index = phase.ordinal();
+    this.counts.incrementAndGet(index);
+    this.nanos.addAndGet(index, elapsed);
+    long max;
+    do {
+      max = this.maxNanos.get(index);
+    } while (elapsed > max && !this.maxNanos.compareAndSet(index, max, elapsed));
+  }
+
+  /**
+   * Register the metrics in the platform MBean server
+   * @param id identifier of the interpreter instance
+   * @throws Exception if the MBean can not be registered
+   */
+  synchronized void register(String id) throws Exception {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName objectName = new ObjectName(DOMAIN + ":type=QuantumVizInterpreter,name="
+        + ObjectName.quote(id));
+    if (server.isRegistered(objectName)) {
+      server.unregisterMBean(objectName);
+    }
+    server.registerMBean(this, objectName);
+    this.name = objectName;
+  }
+
+  synchronized void unregister() {
+    if (null == this.name) {
+      return;
+    }
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.name);
+    } catch (Exception e) {
+      // Already unregistered
+    }
+    this.name = null;
+  }
+
+  @Override
+  public long getParagraphs() {
+    return this.paragraphs.get();
+  }
+
+  @Override
+  public long getElements() {
+    return this.elements.get();
+  }
+
+  @Override
+  public long getErrors() {
+    return this.errors.get();
+  }
+
+  @Override
+  public long getInputBytes() {
+    return this.inputBytes.get();
+  }
+
+  @Override
+  public long getOutputBytes() {
+    return this.outputBytes.get();
+  }
+
+  @Override
+  public long getPoints() {
+    return this.points.get();
+  }
+
+  @Override
+  public Map<String, Long> getPhaseCounts() {
+    return phases(this.counts, false);
+  }
+
+  @Override
+  public Map<String, Long> getPhaseMillis() {
+    return phases(this.nanos, true);
+  }
+
+  @Override
+  public Map<String, Long> getPhaseMaxMillis() {
+    return phases(this.maxNanos, true);
+  }
+
+  @Override
+  public void reset() {
+    for (int i = 0; i < Phase.values().length; i++) {
+      this.counts.set(i, 0);
+      this.nanos.set(i, 0);
+      this.maxNanos.set(i, 0);
+    }
+    this.paragraphs.set(0);
+    this.elements.set(0);
+    this.errors.set(0);
+    this.inputBytes.set(0);
+    this.outputBytes.set(0);
+    this.points.set(0);
+  }
+
+  private static Map<String, Long> phases(AtomicLongArray values, boolean millis) {
+    Map<String, Long> map = new LinkedHashMap<>();
+    for (Phase phase : Phase.values()) {
+      long value = values.get(phase.ordinal());
+      map.put(phase.name().toLowerCase(), millis ? TimeUnit.NANOSECONDS.toMillis(value) : value);
+    }
+    return map;
+  }
+}
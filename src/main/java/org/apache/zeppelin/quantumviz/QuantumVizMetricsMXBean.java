@@ -0,0 +1,63 @@
+//
+//   Copyright 2016  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package org.apache.zeppelin.quantumviz;
+
+import java.util.Map;
+
+/**
+ * Metrics of the QuantumViz interpreter, exposed through JMX.
+ */
+public interface QuantumVizMetricsMXBean {
+
+  long getParagraphs();
+
+  long getElements();
+
+  long getErrors();
+
+  /**
+   * @return characters of the series loaded by the data elements
+   */
+  long getInputBytes();
+
+  /**
+   * @return characters of the data written in the paragraph results
+   */
+  long getOutputBytes();
+
+  /**
+   * @return points decoded by the downsampling and geo reduction of the data elements
+   */
+  long getPoints();
+
+  /**
+   * @return number of timed executions of each phase
+   */
+  Map<String, Long> getPhaseCounts();
+
+  /**
+   * @return total time spent in each phase, in milliseconds
+   */
+  Map<String, Long> getPhaseMillis();
+
+  /**
+   * @return longest execution of each phase, in milliseconds
+   */
+  Map<String, Long> getPhaseMaxMillis();
+
+  void reset();
+}
@@ -0,0 +1,230 @@
+//
+//   Copyright 2016  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package org.apache.zeppelin.quantumviz;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of the data payloads rendered for each data element.
+ *
+ * An entry is keyed by the resource identity, a fingerprint of its content and the series
+ * transform options. It holds the transformed resource (base) and the payload rendered with
+ * the last global params, so that a change of global params only patches the base.
+ */
+final class RenderCache {
+
+  //
+  // Number of trailing characters hashed in the fingerprint of a resource
+  //
+
+  private static final int FINGERPRINT_TAIL = 1024;
+
+  /**
+   * Payload rendered with some global params, replaced as a whole when the entry is patched
+   */
+  private static final class Rendered {
+    private final String paramsKey;
+    private final String payload;
+
+    private Rendered(String paramsKey, String payload) {
+      this.paramsKey = paramsKey;
+      this.payload = payload;
+    }
+
+    private boolean matches(String paramsKey) {
+      return null == paramsKey ? null == this.paramsKey : paramsKey.equals(this.paramsKey);
+    }
+  }
+
+  static final class Entry {
+    private final String base;
+    private volatile Rendered rendered;
+    private long bytes;
+
+    private Entry(String base, String paramsKey, String payload) {
+      this.base = base;
+      this.rendered = new Rendered(paramsKey, payload);
+      this.bytes = weigh(base, payload);
+    }
+
+    String base() {
+      return this.base;
+    }
+
+    String payload() {
+      return this.rendered.payload;
+    }
+
+    boolean matches(String paramsKey) {
+      return this.rendered.matches(paramsKey);
+    }
+
+    /**
+     * @param paramsKey global params of the element
+     * @return the payload if it was rendered with these global params, null otherwise
+     */
+    String payload(String paramsKey) {
+      Rendered current = this.rendered;
+      return current.matches(paramsKey) ? current.payload : null;
+    }
+  }
+
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private final int maxEntries;
+  private final long maxBytes;
+
+  private long bytes = 0;
+  private long hits = 0;
+  private long misses = 0;
+  private long patches = 0;
+  private long evictions = 0;
+
+  /**
+   * @param maxEntries maximum number of cached elements, 0 to disable the cache
+   * @param maxBytes maximum size of the cached payloads, in bytes
+   */
+  RenderCache(int maxEntries, long maxBytes) {
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+  }
+
+  boolean isEnabled() {
+    return this.maxEntries > 0 && this.maxBytes > 0;
+  }
+
+  /**
+   * Build the key of a data element
+   * @param resourceId identity of the resource in Zeppelin resource pool
+   * @param serialized resource content
+   * @param options series transform options
+   * @return cache key
+   */
+  static String key(String resourceId, String serialized, String options) {
+    return resourceId + "|" + fingerprint(serialized) + "|" + options;
+  }
+
+  /**
+   * Fingerprint of a resource: its length, its String hash and a 64 bits hash of its end,
+   * where appended points are written. The resource being serialized again by each run, its
+   * String hash is computed each time, in a single pass over its characters
+   */
+  static String fingerprint(String serialized) {
+    long tail = 0xcbf29ce484222325L;
+    for (int i = Math.max(0, serialized.length() - FINGERPRINT_TAIL);
+        i < serialized.length(); i++) {
+      tail ^= serialized.charAt(i);
+      tail *= 0x100000001b3L;
+    }
+    return serialized.length() + ":" + Integer.toHexString(serialized.hashCode())
+        + ":" + Long.toHexString(tail);
+  }
+
+  /**
+   * Look for a cached element, a hit being counted only if its global params match
+   * @param key cache key
+   * @param paramsKey global params of the element
+   * @return cached entry or null
+   */
+  synchronized Entry get(String key, String paramsKey) {
+    Entry entry = this.entries.get(key);
+    if (null == entry) {
+      this.misses++;
+    } else if (entry.matches(paramsKey)) {
+      this.hits++;
+    }
+    return entry;
+  }
+
+  /**
+   * Cache a rendered element
+   * @param key cache key
+   * @param base transformed resource, without user global params
+   * @param paramsKey global params used to render the payload
+   * @param payload rendered data
+   */
+  synchronized void put(String key, String base, String paramsKey, String payload) {
+    Entry entry = new Entry(base, paramsKey, payload);
+    if (entry.bytes > this.maxBytes) {
+      return;
+    }
+    Entry previous = this.entries.put(key, entry);
+    if (null != previous) {
+      this.bytes -= previous.bytes;
+    }
+    this.bytes += entry.bytes;
+    evict();
+  }
+
+  /**
+   * Replace the payload of a cached element rendered with other global params
+   * @param key cache key
+   * @param entry cached entry
+   * @param paramsKey new global params
+   * @param payload data rendered from the base with the new global params
+   */
+  synchronized void patch(String key, Entry entry, String paramsKey, String payload) {
+    this.patches++;
+    if (this.entries.get(key) != entry) {
+      return;
+    }
+    this.bytes -= entry.bytes;
+    entry.rendered = new Rendered(paramsKey, payload);
+    entry.bytes = weigh(entry.base, payload);
+    this.bytes += entry.bytes;
+    evict();
+  }
+
+  synchronized void clear() {
+    this.entries.clear();
+    this.bytes = 0;
+  }
+
+  /**
+   * @return size, hit, miss, patch and eviction counters
+   */
+  synchronized Map<String, Long> getStatistics() {
+    Map<String, Long> statistics = new LinkedHashMap<>();
+    statistics.put("entries", (long) this.entries.size());
+    statistics.put("bytes", this.bytes);
+    statistics.put("hits", this.hits);
+    statistics.put("misses", this.misses);
+    statistics.put("patches", this.patches);
+    statistics.put("evictions", this.evictions);
+    return statistics;
+  }
+
+  private void evict() {
+    Iterator<Entry> iterator = this.entries.values().iterator();
+    while (iterator.hasNext()
+        && (this.entries.size() > this.maxEntries || this.bytes > this.maxBytes)) {
+      Entry eldest = iterator.next();
+      iterator.remove();
+      this.bytes -= eldest.bytes;
+      this.evictions++;
+    }
+  }
+
+  private static long weigh(String base, String payload) {
+    long chars = base.length();
+    if (payload != base) {
+      chars += payload.length();
+    }
+    return 2 * chars;
+  }
+}
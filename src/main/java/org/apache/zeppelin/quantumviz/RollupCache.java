@@ -0,0 +1,140 @@
+//
+//   Copyright 2016  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package org.apache.zeppelin.quantumviz;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * LRU cache of the rollup pyramids of the rendered resources, bounded in bytes.
+ *
+ * Each pyramid is published under a random id, queried by the charts when they zoom.
+ * The ids of a resource are kept under its render cache key, so that a resource rendered
+ * again reuses its pyramids as long as none of them was evicted. Pyramids whose columns were
+ * spilled weigh little on the heap, they are rather evicted with their spill store segment.
+ */
+final class RollupCache {
+
+  private final LinkedHashMap<String, RollupPyramid> pyramids =
+      new LinkedHashMap<>(16, 0.75f, true);
+  private final Map<String, List<String>> resources = new HashMap<>();
+  private final Map<String, String> owners = new HashMap<>();
+  private final long maxBytes;
+
+  private long bytes = 0;
+
+  /**
+   * @param maxBytes maximum size of the cached pyramids, 0 to disable the cache
+   */
+  RollupCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  boolean isEnabled() {
+    return this.maxBytes > 0;
+  }
+
+  /**
+   * @param key render cache key of a resource
+   * @return ids of the pyramids of the resource, null if they are not all cached
+   */
+  synchronized List<String> get(String key) {
+    List<String> ids = this.resources.get(key);
+    if (null == ids) {
+      return null;
+    }
+    for (String id : ids) {
+      if (null == pyramid(id)) {
+        this.resources.remove(key);
+        return null;
+      }
+    }
+    return ids;
+  }
+
+  /**
+   * Publish the pyramids of a resource
+   * @param key render cache key of the resource
+   * @param list pyramids of the numeric series of the resource
+   * @return ids of the pyramids, null if they do not fit in the cache
+   */
+  synchronized List<String> put(String key, List<RollupPyramid> list) {
+    long size = 0;
+    for (RollupPyramid pyramid : list) {
+      size += pyramid.bytes();
+    }
+    if (size > this.maxBytes) {
+      for (RollupPyramid pyramid : list) {
+        pyramid.close();
+      }
+      return null;
+    }
+
+    List<String> ids = new ArrayList<>();
+    for (RollupPyramid pyramid : list) {
+      String id = UUID.randomUUID().toString();
+      this.pyramids.put(id, pyramid);
+      this.owners.put(id, key);
+      ids.add(id);
+    }
+    this.resources.put(key, ids);
+    this.bytes += size;
+
+    Iterator<Map.Entry<String, RollupPyramid>> iterator = this.pyramids.entrySet().iterator();
+    while (this.bytes > this.maxBytes && iterator.hasNext()) {
+      Map.Entry<String, RollupPyramid> eldest = iterator.next();
+      iterator.remove();
+      this.bytes -= eldest.getValue().bytes();
+      eldest.getValue().close();
+      String owner = this.owners.remove(eldest.getKey());
+      if (null != owner && this.resources.get(owner) != ids) {
+        this.resources.remove(owner);
+      }
+    }
+    return ids;
+  }
+
+  /**
+   * @param id id of a published pyramid
+   * @return the pyramid, null if it was evicted
+   */
+  synchronized RollupPyramid pyramid(String id) {
+    RollupPyramid pyramid = this.pyramids.get(id);
+    if (null != pyramid && !pyramid.isAvailable()) {
+      this.pyramids.remove(id);
+      this.bytes -= pyramid.bytes();
+      this.owners.remove(id);
+      return null;
+    }
+    return pyramid;
+  }
+
+  synchronized void clear() {
+    for (RollupPyramid pyramid : this.pyramids.values()) {
+      pyramid.close();
+    }
+    this.pyramids.clear();
+    this.resources.clear();
+    this.owners.clear();
+    this.bytes = 0;
+  }
+}
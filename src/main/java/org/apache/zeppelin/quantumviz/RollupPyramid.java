@@ -0,0 +1,402 @@
+//
+//   Copyright 2016  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package org.apache.zeppelin.quantumviz;
+
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Min, max, sum and count rollups of a numeric series, at power of two bucket widths.
+ *
+ * Buckets of the first level are twice as wide as the mean interval between two points,
+ * each following level merging two buckets of the previous one, up to MIN_BUCKETS buckets.
+ * Buckets are aligned on multiples of their width, so a range query at any resolution reads
+ * a contiguous run of buckets of a single level.
+ *
+ * The columns of a large series are moved to a segment of the spill store once built, so
+ * that queries read them from the mapped file.
+ */
+final class RollupPyramid {
+
+  static final String AVG = "avg";
+  static final String MIN = "min";
+  static final String MAX = "max";
+  static final String MINMAX = "minmax";
+  static final String COUNT = "count";
+
+  static final int MIN_BUCKETS = 256;
+
+  /**
+   * Buckets of a level, the bucket of a tick being tick >> shift
+   */
+  static final class Level {
+    private final int shift;
+    private final int size;
+    private final LongBuffer buckets;
+    private final DoubleBuffer min;
+    private final DoubleBuffer max;
+    private final DoubleBuffer sum;
+    private final IntBuffer count;
+
+    private Level(Builder builder, LongBuffer buckets, DoubleBuffer min, DoubleBuffer max,
+        DoubleBuffer sum, IntBuffer count) {
+      this.shift = builder.shift;
+      this.size = builder.size;
+      this.buckets = buckets;
+      this.min = min;
+      this.max = max;
+      this.sum = sum;
+      this.count = count;
+    }
+
+    long width() {
+      return 1L << this.shift;
+    }
+
+    int size() {
+      return this.size;
+    }
+  }
+
+  /**
+   * Level being rolled up, on the heap
+   */
+  private static final class Builder {
+    private final int shift;
+    private final long[] buckets;
+    private final double[] min;
+    private final double[] max;
+    private final double[] sum;
+    private final int[] count;
+    private int size = 0;
+
+    private Builder(int shift, int capacity) {
+      this.shift = shift;
+      this.buckets = new long[capacity];
+      this.min = new double[capacity];
+      this.max = new double[capacity];
+      this.sum = new double[capacity];
+      this.count = new int[capacity];
+    }
+
+    private void add(long bucket, double min, double max, double sum, int count) {
+      int last = this.size - 1;
+      if (last >= 0 && this.buckets[last] == bucket) {
+        this.min[last] = Math.min(this.min[last], min);
+        this.max[last] = Math.max(this.max[last], max);
+        this.sum[last] += sum;
+        this.count[last] += count;
+        return;
+      }
+      this.buckets[this.size] = bucket;
+      this.min[this.size] = min;
+      this.max[this.size] = max;
+      this.sum[this.size] = sum;
+      this.count[this.size++] = count;
+    }
+
+    private Level heap() {
+      return new Level(this, LongBuffer.wrap(Arrays.copyOf(this.buckets, this.size)),
+          DoubleBuffer.wrap(Arrays.copyOf(this.min, this.size)),
+          DoubleBuffer.wrap(Arrays.copyOf(this.max, this.size)),
+          DoubleBuffer.wrap(Arrays.copyOf(this.sum, this.size)),
+          IntBuffer.wrap(Arrays.copyOf(this.count, this.size)));
+    }
+  }
+
+  private final GeoTimeSerie metadata;
+  private final int size;
+  private final LongBuffer ticks;
+  private final DoubleBuffer values;
+  private final List<Level> levels = new ArrayList<>();
+  private final SpillStore store;
+  private final SpillStore.Segment segment;
+
+  /**
+   * @param gts numeric series
+   */
+  RollupPyramid(GeoTimeSerie gts) {
+    this(gts, null);
+  }
+
+  /**
+   * @param gts numeric series
+   * @param store store receiving the columns of large series, null to keep them on the heap
+   */
+  RollupPyramid(GeoTimeSerie gts, SpillStore store) {
+    this.size = gts.size();
+    this.metadata = gts.cloneEmpty(0);
+    long[] ticks = new long[this.size];
+    double[] values = new double[this.size];
+
+    //
+    // Points sorted by tick
+    //
+
+    int[] order = gts.order();
+    for (int i = 0; i < this.size; i++) {
+      ticks[i] = gts.tick(order[i]);
+      values[i] = gts.doubleValue(order[i]);
+    }
+
+    List<Builder> builders = new ArrayList<>();
+    if (this.size > MIN_BUCKETS) {
+      long interval = Math.max(1L, 2 * ((ticks[this.size - 1] - ticks[0]) / this.size));
+      int shift = 64 - Long.numberOfLeadingZeros(interval - 1);
+      Builder level = new Builder(shift, this.size);
+      for (int i = 0; i < this.size; i++) {
+        if (0 == (i & GtsParser.CHECKPOINT_MASK)) {
+          Cancellation.checkpoint();
+        }
+        double value = values[i];
+        if (!Double.isNaN(value)) {
+          level.add(ticks[i] >> shift, value, value, value, 1);
+        }
+      }
+      builders.add(level);
+
+      while (level.size > MIN_BUCKETS && level.shift < 62) {
+        Builder next = new Builder(level.shift + 1, level.size / 2 + 1);
+        for (int i = 0; i < level.size; i++) {
+          next.add(level.buckets[i] >> 1, level.min[i], level.max[i], level.sum[i],
+              level.count[i]);
+        }
+        builders.add(next);
+        level = next;
+      }
+    }
+
+    //
+    // Move the columns of a large series off the heap. When the segment can not be
+    // mapped, they stay on the heap
+    //
+
+    long length = 16L * this.size;
+    for (Builder builder : builders) {
+      length += 36L * builder.size;
+    }
+    SpillStore.Segment spilled = null;
+    if (null != store && store.accepts(length)) {
+      try {
+        spilled = store.allocate(length);
+      } catch (IOException e) {
+        spilled = null;
+      }
+    }
+    this.store = null == spilled ? null : store;
+    this.segment = spilled;
+
+    if (null == spilled) {
+      this.ticks = LongBuffer.wrap(ticks);
+      this.values = DoubleBuffer.wrap(values);
+      for (Builder builder : builders) {
+        this.levels.add(builder.heap());
+      }
+      return;
+    }
+
+    //
+    // Longs and doubles first, then the counts, so that each column is aligned
+    //
+
+    long offset = 0;
+    this.ticks = spilled.slice(offset, 8L * this.size).asLongBuffer().put(ticks);
+    offset += 8L * this.size;
+    this.values = spilled.slice(offset, 8L * this.size).asDoubleBuffer().put(values);
+    offset += 8L * this.size;
+    long counts = offset;
+    for (Builder builder : builders) {
+      counts += 32L * builder.size;
+    }
+    for (Builder builder : builders) {
+      int levelSize = builder.size;
+      LongBuffer buckets = spilled.slice(offset, 8L * levelSize).asLongBuffer()
+          .put(builder.buckets, 0, levelSize);
+      offset += 8L * levelSize;
+      DoubleBuffer min = spilled.slice(offset, 8L * levelSize).asDoubleBuffer()
+          .put(builder.min, 0, levelSize);
+      offset += 8L * levelSize;
+      DoubleBuffer max = spilled.slice(offset, 8L * levelSize).asDoubleBuffer()
+          .put(builder.max, 0, levelSize);
+      offset += 8L * levelSize;
+      DoubleBuffer sum = spilled.slice(offset, 8L * levelSize).asDoubleBuffer()
+          .put(builder.sum, 0, levelSize);
+      offset += 8L * levelSize;
+      IntBuffer count = spilled.slice(counts, 4L * levelSize).asIntBuffer()
+          .put(builder.count, 0, levelSize);
+      counts += 4L * levelSize;
+      this.levels.add(new Level(builder, buckets, min, max, sum, count));
+    }
+  }
+
+  /**
+   * @return approximate size on the heap, in bytes
+   */
+  long bytes() {
+    if (null != this.segment) {
+      return 64;
+    }
+    long bytes = 16L * this.size + 64;
+    for (Level level : this.levels) {
+      bytes += 36L * level.size;
+    }
+    return bytes;
+  }
+
+  List<Level> levels() {
+    return this.levels;
+  }
+
+  /**
+   * @return true if the columns are mapped from the spill store
+   */
+  boolean isSpilled() {
+    return null != this.segment;
+  }
+
+  /**
+   * @return false if the columns were evicted from the spill store
+   */
+  boolean isAvailable() {
+    return null == this.segment || !this.segment.isEvicted();
+  }
+
+  /**
+   * Take a reference on the columns before a query
+   * @return false if they were evicted from the spill store
+   */
+  boolean retain() {
+    if (null == this.segment) {
+      return true;
+    }
+    if (!this.segment.retain()) {
+      return false;
+    }
+    this.store.touch(this.segment);
+    return true;
+  }
+
+  void release() {
+    if (null != this.segment) {
+      this.segment.release();
+    }
+  }
+
+  /**
+   * Evict the columns from the spill store, once the running queries are done
+   */
+  void close() {
+    if (null != this.segment) {
+      this.store.remove(this.segment);
+      this.segment.evict();
+    }
+  }
+
+  /**
+   * Write the points of a time range at a given resolution, as a GTS object
+   * @param start first tick of the range
+   * @param end last tick of the range
+   * @param maxPoints maximum number of points to write
+   * @param mode rollup written for each bucket: avg, min, max, minmax or count
+   * @param out builder receiving the GTS object
+   */
+  void query(long start, long end, int maxPoints, String mode, StringBuilder out) {
+    StringBuilder values = new StringBuilder();
+    values.append('[');
+
+    int from = lowerBound(this.ticks, this.size, start);
+    int to = lowerBound(this.ticks, this.size, end == Long.MAX_VALUE ? end : end + 1);
+    if (to - from <= maxPoints || this.levels.isEmpty()) {
+      for (int i = from; i < to; i++) {
+        if (i > from) {
+          values.append(',');
+        }
+        values.append('[').append(this.ticks.get(i)).append(',');
+        GtsWriter.writeDouble(COUNT.equals(mode) ? 1 : this.values.get(i), values);
+        values.append(']');
+      }
+    } else {
+
+      //
+      // Finest level fitting in the number of points, two points per bucket for minmax
+      //
+
+      int perBucket = MINMAX.equals(mode) ? 2 : 1;
+      Level level = this.levels.get(this.levels.size() - 1);
+      int first = 0;
+      int last = 0;
+      for (Level candidate : this.levels) {
+        int candidateFirst = lowerBound(candidate.buckets, candidate.size,
+            start >> candidate.shift);
+        int candidateLast = lowerBound(candidate.buckets, candidate.size,
+            (end >> candidate.shift) + 1);
+        if ((candidateLast - candidateFirst) * perBucket <= maxPoints
+            || candidate == level) {
+          level = candidate;
+          first = candidateFirst;
+          last = candidateLast;
+          break;
+        }
+      }
+      for (int i = first; i < last; i++) {
+        if (i > first) {
+          values.append(',');
+        }
+        long tick = level.buckets.get(i) << level.shift;
+        values.append('[').append(tick).append(',');
+        if (MINMAX.equals(mode)) {
+          GtsWriter.writeDouble(level.min.get(i), values);
+          values.append("],[").append(tick + level.width() / 2).append(',');
+          GtsWriter.writeDouble(level.max.get(i), values);
+        } else if (MIN.equals(mode)) {
+          GtsWriter.writeDouble(level.min.get(i), values);
+        } else if (MAX.equals(mode)) {
+          GtsWriter.writeDouble(level.max.get(i), values);
+        } else if (COUNT.equals(mode)) {
+          values.append(level.count.get(i));
+        } else {
+          GtsWriter.writeDouble(level.sum.get(i) / level.count.get(i), values);
+        }
+        values.append(']');
+      }
+    }
+    values.append(']');
+    GtsWriter.write(this.metadata, values, out);
+  }
+
+  /**
+   * @return index of the first element greater than or equal to value
+   */
+  private static int lowerBound(LongBuffer array, int length, long value) {
+    int low = 0;
+    int high = length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (array.get(middle) < value) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+}
@@ -0,0 +1,249 @@
+//
+//   Copyright 2016  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package org.apache.zeppelin.quantumviz;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Off-heap store of the decoded columns of large series, backed by memory-mapped files.
+ *
+ * A segment is a file mapped in memory, so its columns are paged by the OS instead of living
+ * on the interpreter heap. Segments are reference counted: the store holds one reference until
+ * the segment is evicted, readers hold one while they read it. The file is deleted when the
+ * last reference is released. When the mapped bytes exceed the maximum size, the least
+ * recently used segments are evicted. The files live in a directory of their own, created in
+ * the spill directory and deleted with the files left when the store is closed.
+ */
+final class SpillStore {
+
+  /**
+   * Memory-mapped file holding the columns of a series
+   */
+  static final class Segment {
+    private final File file;
+    private final long bytes;
+    private final AtomicInteger references = new AtomicInteger(1);
+    private final AtomicBoolean evicted = new AtomicBoolean(false);
+    private volatile ByteBuffer buffer;
+
+    private Segment(File file, long bytes, ByteBuffer buffer) {
+      this.file = file;
+      this.bytes = bytes;
+      this.buffer = buffer;
+    }
+
+    /**
+     * Slice the mapped bytes, in the native byte order
+     * @param offset offset of the column in the segment
+     * @param length length of the column in bytes
+     * @return view of the column
+     */
+    ByteBuffer slice(long offset, long length) {
+      ByteBuffer duplicate = this.buffer.duplicate();
+      duplicate.position((int) offset);
+      duplicate.limit((int) (offset + length));
+      return duplicate.slice().order(ByteOrder.nativeOrder());
+    }
+
+    long bytes() {
+      return this.bytes;
+    }
+
+    boolean isEvicted() {
+      return this.evicted.get();
+    }
+
+    /**
+     * Take a reference on the segment before reading it
+     * @return false if the segment was evicted, it must not be read anymore
+     */
+    boolean retain() {
+      while (!this.evicted.get()) {
+        int count = this.references.get();
+        if (count <= 0) {
+          return false;
+        }
+        if (this.references.compareAndSet(count, count + 1)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    void release() {
+      if (0 == this.references.decrementAndGet()) {
+
+        //
+        // The mapping is released with the last view of the buffer, the file right now
+        //
+
+        this.buffer = null;
+        this.file.delete();
+      }
+    }
+
+    /**
+     * Release the reference of the store, the segment being closed once its readers are done
+     */
+    void evict() {
+      if (this.evicted.compareAndSet(false, true)) {
+        release();
+      }
+    }
+  }
+
+  private final File parent;
+  private final long threshold;
+  private final long maxBytes;
+
+  private File directory = null;
+
+  private final LinkedHashMap<Segment, Boolean> segments = new LinkedHashMap<>(16, 0.75f, true);
+  private long bytes = 0;
+
+  /**
+   * @param parent spill directory, the store creating the directory of its files in it
+   * @param threshold minimum size in bytes of the columns spilled
+   * @param maxBytes maximum size of the mapped files
+   */
+  SpillStore(File parent, long threshold, long maxBytes) {
+    this.parent = parent;
+    this.threshold = threshold;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * @param length size in bytes of the columns of a series
+   * @return true if the columns are large enough to be spilled, and fit in a mapping
+   */
+  boolean accepts(long length) {
+    return length >= this.threshold && length <= this.maxBytes && length <= Integer.MAX_VALUE;
+  }
+
+  /**
+   * Map a new segment, evicting the least recently used ones to make room for it
+   * @param length size of the segment in bytes
+   * @return segment holding a reference for the store
+   * @throws IOException if the file can not be created or mapped
+   */
+  Segment allocate(long length) throws IOException {
+    List<Segment> evicted = new ArrayList<>();
+    synchronized (this) {
+      Iterator<Segment> iterator = this.segments.keySet().iterator();
+      while (this.bytes + length > this.maxBytes && iterator.hasNext()) {
+        Segment eldest = iterator.next();
+        iterator.remove();
+        this.bytes -= eldest.bytes;
+        evicted.add(eldest);
+      }
+    }
+    for (Segment segment : evicted) {
+      segment.evict();
+    }
+
+    File file = File.createTempFile("quantumviz-", ".series", directory());
+    ByteBuffer buffer;
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(length);
+      buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+    } catch (IOException e) {
+      file.delete();
+      throw e;
+    }
+
+    Segment segment = new Segment(file, length, buffer);
+    synchronized (this) {
+      this.segments.put(segment, Boolean.TRUE);
+      this.bytes += length;
+    }
+    return segment;
+  }
+
+  /**
+   * @return directory of the mapped files, created with the first segment
+   * @throws IOException if the directory can not be created
+   */
+  synchronized File directory() throws IOException {
+    if (null == this.directory) {
+      if (!this.parent.isDirectory() && !this.parent.mkdirs()) {
+        throw new IOException("can not create directory " + this.parent);
+      }
+      this.directory = Files.createTempDirectory(this.parent.toPath(), "quantumviz-").toFile();
+    }
+    return this.directory;
+  }
+
+  /**
+   * Mark a segment as recently used
+   */
+  synchronized void touch(Segment segment) {
+    this.segments.get(segment);
+  }
+
+  /**
+   * Forget an evicted segment
+   */
+  synchronized void remove(Segment segment) {
+    if (null != this.segments.remove(segment)) {
+      this.bytes -= segment.bytes;
+    }
+  }
+
+  /**
+   * @return size of the mapped segments
+   */
+  synchronized long bytes() {
+    return this.bytes;
+  }
+
+  synchronized void clear() {
+    for (Segment segment : this.segments.keySet()) {
+      segment.evict();
+    }
+    this.segments.clear();
+    this.bytes = 0;
+  }
+
+  /**
+   * Evict all the segments, then delete the directory with the files still read. Their
+   * mappings stay valid until the readers release them
+   */
+  synchronized void close() {
+    clear();
+    if (null == this.directory) {
+      return;
+    }
+    File[] files = this.directory.listFiles();
+    for (File file : null == files ? new File[0] : files) {
+      file.delete();
+    }
+    this.directory.delete();
+    this.directory = null;
+  }
+}
@@ -0,0 +1,184 @@
+//
+//   Copyright 2016  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package org.apache.zeppelin.quantumviz;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Load series from the fetch and exec endpoints of a Warp 10 platform.
+ *
+ * Responses are requested gzip compressed. Responses are read to their end and their streams
+ * closed without disconnecting, so that the JDK keep-alive cache reuses the connections from
+ * one request to the other. A cancelled request is disconnected instead, its reads failing
+ * at once whatever the read timeout.
+ */
+final class Warp10Client {
+
+  static final String FETCH = "/fetch";
+  static final String EXEC = "/exec";
+
+  static final String ERROR_HEADER = "X-Warp10-Error-Message";
+
+  private final String url;
+  private final int connectTimeout;
+  private final int readTimeout;
+
+  /**
+   * @param url url of the Warp 10 API, ending with /api/v0
+   * @param connectTimeout connect timeout in milliseconds
+   * @param readTimeout read timeout in milliseconds, 0 for none
+   */
+  Warp10Client(String url, int connectTimeout, int readTimeout) {
+    this.url = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    this.connectTimeout = connectTimeout;
+    this.readTimeout = readTimeout;
+  }
+
+  String url() {
+    return this.url;
+  }
+
+  /**
+   * Fetch series, the response in GTS input format being decoded line by line
+   * @param params parameters of the fetch request (token, selector, start, stop...)
+   * @param out builder receiving a JSON list of GTS
+   * @param cancellation cancellation of the paragraph, disconnecting the request
+   * @throws IOException if the request fails
+   */
+  void fetch(Map<String, String> params, StringBuilder out, Cancellation cancellation)
+      throws IOException {
+    StringBuilder query = new StringBuilder();
+    for (Map.Entry<String, String> param : params.entrySet()) {
+      query.append(0 == query.length() ? '?' : '&');
+      query.append(URLEncoder.encode(param.getKey(), "UTF-8")).append('=');
+      query.append(URLEncoder.encode(param.getValue(), "UTF-8"));
+    }
+    HttpURLConnection connection = open(FETCH + query);
+    cancellation.track(connection);
+    try (BufferedReader reader = new BufferedReader(response(connection), 65536)) {
+      new GtsTextParser().parse(reader, out);
+    } catch (IOException e) {
+      throw cancelled(cancellation, e);
+    } finally {
+      cancellation.untrack(connection);
+    }
+  }
+
+  /**
+   * Execute a WarpScript, the top of the resulting stack being written in out
+   * @param warpscript script to execute
+   * @param out builder receiving the JSON value on top of the stack
+   * @param cancellation cancellation of the paragraph, disconnecting the request
+   * @throws IOException if the request fails
+   * @throws Exception if the stack is empty or malformed
+   */
+  void exec(String warpscript, StringBuilder out, Cancellation cancellation) throws Exception {
+    HttpURLConnection connection = open(EXEC);
+    connection.setDoOutput(true);
+    connection.setRequestMethod("POST");
+    byte[] body = warpscript.getBytes(StandardCharsets.UTF_8);
+    connection.setFixedLengthStreamingMode(body.length);
+    StringBuilder stack = new StringBuilder();
+    cancellation.track(connection);
+    try {
+      try (OutputStream request = connection.getOutputStream()) {
+        request.write(body);
+      }
+      try (Reader reader = response(connection)) {
+        char[] buffer = new char[65536];
+        int read;
+        while ((read = reader.read(buffer)) > 0) {
+          Cancellation.checkpoint();
+          stack.append(buffer, 0, read);
+        }
+      }
+    } catch (IOException e) {
+      throw cancelled(cancellation, e);
+    } finally {
+      cancellation.untrack(connection);
+    }
+
+    JsonScanner scanner = new JsonScanner(stack);
+    scanner.expect('[');
+    if (scanner.consume(']')) {
+      throw new Exception("Quantumviz interpreter expects a WarpScript leaving "
+          + "a value on the stack");
+    }
+    scanner.copyValue(out);
+  }
+
+  private HttpURLConnection open(String path) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(this.url + path).openConnection();
+    connection.setConnectTimeout(this.connectTimeout);
+    connection.setReadTimeout(this.readTimeout);
+    connection.setRequestProperty("Accept-Encoding", "gzip");
+    return connection;
+  }
+
+  /**
+   * @return the failure of a request, a CancellationException if it was disconnected by a cancel
+   */
+  private static IOException cancelled(Cancellation cancellation, IOException e) {
+    if (cancellation.isCancelled()) {
+      throw new CancellationException(Cancellation.MESSAGE);
+    }
+    return e;
+  }
+
+  /**
+   * @return decoded body of a successful response
+   * @throws IOException with the Warp 10 error message otherwise
+   */
+  private static Reader response(HttpURLConnection connection) throws IOException {
+    int status = connection.getResponseCode();
+    if (HttpURLConnection.HTTP_OK != status) {
+
+      //
+      // Read the error body so that the connection can be reused
+      //
+
+      InputStream error = connection.getErrorStream();
+      if (null != error) {
+        byte[] buffer = new byte[4096];
+        while (error.read(buffer) > 0) {
+          continue;
+        }
+        error.close();
+      }
+      String message = connection.getHeaderField(ERROR_HEADER);
+      throw new IOException("Warp 10 returned " + status + " "
+          + (null == message ? connection.getResponseMessage() : message));
+    }
+    InputStream in = connection.getInputStream();
+    if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+      in = new GZIPInputStream(in, 65536);
+    }
+    return new InputStreamReader(in, StandardCharsets.UTF_8);
+  }
+}
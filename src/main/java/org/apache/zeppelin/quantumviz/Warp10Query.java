@@ -0,0 +1,143 @@
+//
+//   Copyright 2016  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package org.apache.zeppelin.quantumviz;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.json.JSONObject;
+
+/**
+ * WarpScript fetching series and reducing them on the Warp 10 platform.
+ *
+ * The series of a selector over a time range are reduced to a number of points before being
+ * sent, either downsampled with LTTB or bucketized with a bucketizer, so that a year of raw
+ * data never leaves the platform. The script is executed on the exec endpoint.
+ */
+final class Warp10Query {
+
+  static final String TOKEN_KEY = "token";
+  static final String SELECTOR_KEY = "selector";
+  static final String END_KEY = "end";
+  static final String TIMESPAN_KEY = "timespan";
+  static final String SAMPLE_KEY = "sample";
+  static final String POINTS_KEY = "points";
+
+  static final String LTTB = "lttb";
+
+  static final List<String> SAMPLES = Arrays.asList(LTTB, "mean", "min", "max", "sum", "first",
+      "last");
+
+  private final String token;
+  private final String selector;
+  private final Object end;
+  private final long timespan;
+  private final String sample;
+  private final int points;
+
+  private Warp10Query(String token, String selector, Object end, long timespan, String sample,
+      int points) {
+    this.token = token;
+    this.selector = selector;
+    this.end = end;
+    this.timespan = timespan;
+    this.sample = sample;
+    this.points = points;
+  }
+
+  /**
+   * Read a query of a data element
+   * @param query token, selector, end, timespan, sample and points of the query
+   * @param defaultPoints number of points used when the query does not set it
+   * @return the query
+   * @throws Exception to return a Zeppelin error
+   */
+  static Warp10Query parse(JSONObject query, int defaultPoints) throws Exception {
+    if (!(query.opt(TOKEN_KEY) instanceof String && query.opt(SELECTOR_KEY) instanceof String)) {
+      throw new Exception("Quantumviz interpreter expects query to hold a token and a selector");
+    }
+    long timespan = query.optLong(TIMESPAN_KEY, 0);
+    if (timespan <= 0) {
+      throw new Exception("Quantumviz interpreter expects query timespan "
+          + "to be a positive number of time units");
+    }
+    Object end = query.opt(END_KEY);
+    if (null != end && !(end instanceof String || end instanceof Number)) {
+      throw new Exception("Quantumviz interpreter expects query end "
+          + "to be an ISO 8601 date or a timestamp");
+    }
+    String sample = query.optString(SAMPLE_KEY, LTTB);
+    if (!SAMPLES.contains(sample)) {
+      throw new Exception("Quantumviz interpreter expects query sample to be one of " + SAMPLES);
+    }
+    int points = query.optInt(POINTS_KEY, defaultPoints);
+    if (points <= 0) {
+      throw new Exception("Quantumviz interpreter expects query points "
+          + "to be a positive integer");
+    }
+    return new Warp10Query(query.getString(TOKEN_KEY), query.getString(SELECTOR_KEY),
+        end instanceof Number ? ((Number) end).longValue() : end, timespan, sample, points);
+  }
+
+  /**
+   * @return WarpScript leaving the reduced series on top of the stack
+   */
+  String script() {
+    StringBuilder script = new StringBuilder();
+    if (null == this.end) {
+      script.append("NOW");
+    } else if (this.end instanceof String) {
+      script.append(literal((String) this.end)).append(" TOTIMESTAMP");
+    } else {
+      script.append(this.end);
+    }
+    script.append(" 'end' STORE\n");
+    script.append("{ 'token' ").append(literal(this.token));
+    script.append(" 'selector' ").append(literal(this.selector));
+    script.append(" 'end' $end 'timespan' ").append(this.timespan).append(" } FETCH\n");
+
+    if (LTTB.equals(this.sample)) {
+      script.append(this.points).append(" LTTB\n");
+    } else {
+
+      //
+      // Buckets ending at the end of the range, and covering it
+      //
+
+      long span = Math.max(1, (this.timespan + this.points - 1) / this.points);
+      script.append("[ SWAP bucketizer.").append(this.sample).append(" $end ").append(span);
+      script.append(' ').append(this.points).append(" ] BUCKETIZE\n");
+    }
+    return script.toString();
+  }
+
+  /**
+   * Quote a WarpScript string, its quotes and percent signs being percent encoded
+   */
+  static String literal(String value) {
+    StringBuilder out = new StringBuilder("'");
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if ('\'' == c || '%' == c || '\n' == c || '\r' == c) {
+        out.append('%').append(String.format("%02X", (int) c));
+      } else {
+        out.append(c);
+      }
+    }
+    return out.append('\'').toString();
+  }
+}
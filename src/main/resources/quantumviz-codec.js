@@ -0,0 +1,289 @@
+//
+//   Copyright 2016  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+//
+// Decoder of the columnar encoding written by ColumnarCodec, returns the
+// payload as a JSON string in Quantum format
+//
+
+(function() {
+  if (window.QuantumVizCodec) {
+    return;
+  }
+
+  //
+  // Bits are read by 32 bits words, the 64 bits values being held as two words. BigInt is
+  // only used for the integers beyond the safe range of Numbers
+  //
+
+  var view = new DataView(new ArrayBuffer(8));
+
+  function Reader(bytes) {
+    this.bytes = bytes;
+    this.view = new DataView(bytes.buffer, bytes.byteOffset, bytes.byteLength);
+    this.pos = 0;
+    this.bit = 0;
+  }
+
+  Reader.prototype.byte = function() {
+    return this.bytes[this.pos++];
+  };
+
+  //
+  // Varints of up to 7 bytes fit in a Number, longer ones are read as BigInt
+  //
+
+  Reader.prototype.varint = function() {
+    var start = this.pos;
+    var result = 0;
+    var scale = 1;
+    var b;
+    for (var i = 0; i < 7; i++) {
+      b = this.bytes[this.pos++];
+      result += (b & 0x7f) * scale;
+      if (!(b & 0x80)) {
+        return result;
+      }
+      scale *= 128;
+    }
+    this.pos = start;
+    var big = BigInt(0);
+    var shift = BigInt(0);
+    do {
+      b = this.bytes[this.pos++];
+      big |= BigInt(b & 0x7f) << shift;
+      shift += BigInt(7);
+    } while (b & 0x80);
+    return big;
+  };
+
+  Reader.prototype.zigzag = function() {
+    var n = this.varint();
+    if (typeof n === 'number') {
+      return n % 2 ? -(n + 1) / 2 : n / 2;
+    }
+    return (n >> BigInt(1)) ^ -(n & BigInt(1));
+  };
+
+  //
+  // Read up to 32 bits, MSB first, from the word at the current byte and the byte after it.
+  // The bytes are padded so that the last word can be read
+  //
+
+  Reader.prototype.bits = function(count) {
+    var word = this.view.getUint32(this.pos);
+    var end = this.bit + count;
+    var result = (word << this.bit) >>> (32 - count);
+    if (end > 32) {
+      result = (result | (this.bytes[this.pos + 4] >>> (40 - end))) >>> 0;
+    }
+    this.pos += end >> 3;
+    this.bit = end & 7;
+    return result;
+  };
+
+  Reader.prototype.align = function() {
+    if (this.bit) {
+      this.bit = 0;
+      this.pos++;
+    }
+  };
+
+  function toDouble(high, low) {
+    view.setUint32(0, high);
+    view.setUint32(4, low);
+    return view.getFloat64(0);
+  }
+
+  //
+  // Sum of integers, kept as a Number as long as it is exact
+  //
+
+  function add(a, b) {
+    if (typeof a === 'number' && typeof b === 'number') {
+      var sum = a + b;
+      if (Number.isSafeInteger(sum)) {
+        return sum;
+      }
+    }
+    var big = BigInt(a) + BigInt(b);
+    return big >= BigInt(Number.MIN_SAFE_INTEGER) && big <= BigInt(Number.MAX_SAFE_INTEGER)
+        ? Number(big) : big;
+  }
+
+  function doubles(reader, size) {
+    var out = new Array(size);
+    if (!size) {
+      return out;
+    }
+    var high = reader.bits(32);
+    var low = reader.bits(32);
+    var leading = 0;
+    var trailing = 0;
+    out[0] = toDouble(high, low);
+    for (var i = 1; i < size; i++) {
+      if (0 === reader.bits(1)) {
+        out[i] = out[i - 1];
+        continue;
+      }
+      if (1 === reader.bits(1)) {
+        leading = reader.bits(5);
+        var significant = reader.bits(6) || 64;
+        trailing = 64 - leading - significant;
+      }
+
+      //
+      // Read the significant bits as two words, then shift them in place
+      //
+
+      var count = 64 - leading - trailing;
+      var xorHigh = 0;
+      var xorLow;
+      if (count > 32) {
+        xorHigh = reader.bits(count - 32);
+        xorLow = reader.bits(32);
+      } else {
+        xorLow = reader.bits(count);
+      }
+      if (trailing >= 32) {
+        xorHigh = xorLow << (trailing - 32);
+        xorLow = 0;
+      } else if (trailing > 0) {
+        xorHigh = (xorHigh << trailing) | (xorLow >>> (32 - trailing));
+        xorLow = xorLow << trailing;
+      }
+      high = (high ^ xorHigh) >>> 0;
+      low = (low ^ xorLow) >>> 0;
+      out[i] = toDouble(high, low);
+    }
+    reader.align();
+    return out;
+  }
+
+  function longs(reader, size) {
+    var out = new Array(size);
+    var previous = 0;
+    for (var i = 0; i < size; i++) {
+      previous = add(previous, reader.zigzag());
+      out[i] = Number(previous);
+    }
+    return out;
+  }
+
+  function booleans(reader, size) {
+    var out = new Array(size);
+    for (var i = 0; i < size; i++) {
+      out[i] = 1 === reader.bits(1);
+    }
+    reader.align();
+    return out;
+  }
+
+  function block(reader, previous) {
+    var size = reader.varint();
+    var flags = reader.byte();
+
+    //
+    // Timestamps: first value, first delta, then delta of deltas, unless the block
+    // shares the timestamps of the previous one
+    //
+
+    var ticks = flags & 16 ? previous : new Array(size);
+    var tick = 0;
+    var delta = 0;
+    for (var i = 0; i < size && !(flags & 16); i++) {
+      var z = reader.zigzag();
+      if (0 === i) {
+        tick = z;
+      } else {
+        delta = 1 === i ? z : add(delta, z);
+        tick = add(tick, delta);
+      }
+      ticks[i] = Number(tick);
+    }
+
+    var latitudes = null;
+    var longitudes = null;
+    var elevations = null;
+    if (flags & 1) {
+      latitudes = doubles(reader, size);
+      longitudes = doubles(reader, size);
+    }
+    if (flags & 2) {
+      elevations = longs(reader, size);
+    }
+    var type = (flags >> 2) & 3;
+    var values = 0 === type ? doubles(reader, size)
+        : 1 === type ? longs(reader, size) : booleans(reader, size);
+
+    var points = new Array(size);
+    for (var j = 0; j < size; j++) {
+      var point = [ticks[j]];
+      if (latitudes) {
+        point.push(latitudes[j], longitudes[j]);
+      }
+      if (elevations) {
+        point.push(elevations[j]);
+      }
+      point.push(values[j]);
+      points[j] = point;
+    }
+    reader.ticks = ticks;
+    return points;
+  }
+
+  function replace(node, blocks) {
+    if (Array.isArray(node)) {
+      for (var i = 0; i < node.length; i++) {
+        replace(node[i], blocks);
+      }
+    } else if (node && typeof node === 'object') {
+      if (typeof node.v === 'number') {
+        node.v = blocks[node.v];
+        return;
+      }
+      for (var key in node) {
+        replace(node[key], blocks);
+      }
+    }
+  }
+
+  window.QuantumVizCodec = {
+    decode: function(base64) {
+      var binary = atob(base64);
+      var bytes = new Uint8Array(binary.length + 8);
+      for (var i = 0; i < binary.length; i++) {
+        bytes[i] = binary.charCodeAt(i);
+      }
+      if (bytes[0] !== 81 || bytes[1] !== 86 || bytes[2] !== 67 || bytes[3] !== 1) {
+        throw new Error('QuantumViz: unknown data encoding');
+      }
+      var reader = new Reader(bytes);
+      reader.pos = 4;
+      var length = reader.varint();
+      var skeleton = JSON.parse(new TextDecoder('utf-8').decode(
+          bytes.subarray(reader.pos, reader.pos + length)));
+      reader.pos += length;
+      var count = reader.varint();
+      var blocks = new Array(count);
+      for (var b = 0; b < count; b++) {
+        blocks[b] = block(reader, reader.ticks);
+      }
+      replace(skeleton, blocks);
+      return JSON.stringify(skeleton);
+    }
+  };
+})();
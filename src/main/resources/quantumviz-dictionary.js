@@ -0,0 +1,69 @@
+//
+//   Copyright 2016  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+//
+// Decoder of the dictionary encoding written by DictionaryCodec, returns the
+// payload as a JSON string in Quantum format
+//
+
+(function() {
+  if (window.QuantumVizDictionary) {
+    return;
+  }
+
+  function strings(table, indices) {
+    var out = {};
+    for (var i = 0; i + 1 < indices.length; i += 2) {
+      out[table[indices[i]]] = table[indices[i + 1]];
+    }
+    return out;
+  }
+
+  function replace(node, table) {
+    if (Array.isArray(node)) {
+      for (var i = 0; i < node.length; i++) {
+        replace(node[i], table);
+      }
+    } else if (node && typeof node === 'object') {
+
+      //
+      // Encoded series have the index of their class name, plain series its name
+      //
+
+      if (typeof node.c === 'number') {
+        node.c = table[node.c];
+        if (Array.isArray(node.l)) {
+          node.l = strings(table, node.l);
+        }
+        if (Array.isArray(node.a)) {
+          node.a = strings(table, node.a);
+        }
+        return;
+      }
+      for (var key in node) {
+        replace(node[key], table);
+      }
+    }
+  }
+
+  window.QuantumVizDictionary = {
+    decode: function(text) {
+      var payload = JSON.parse(text);
+      replace(payload.d, payload.s);
+      return JSON.stringify(payload.d);
+    }
+  };
+})();
@@ -0,0 +1,76 @@
+package org.apache.zeppelin.quantumviz;
+
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+
+/**
+ * Unit test for the alignment of the series of a resource.
+ */
+public class AlignerTest extends TestCase {
+
+  private String series(String name, int size, long period, long offset) {
+    StringBuilder gts = new StringBuilder("{\"c\":\"" + name + "\",\"l\":{},\"v\":[");
+    for (int i = 0; i < size; i++) {
+      gts.append(i > 0 ? "," : "").append('[').append(offset + i * period).append(',')
+          .append(i).append(']');
+    }
+    return gts.append("]}").toString();
+  }
+
+  private String align(String resource, String aggregator, long step) throws Exception {
+    StringBuilder out = new StringBuilder();
+    new QuantumRewriter(null, null, new Aligner(aggregator, step, Integer.MAX_VALUE))
+        .rewrite(resource, out);
+    return out.toString();
+  }
+
+  public void testSharedTicksAreUnchanged() throws Exception {
+    String list = "[" + series("a", 50, 1000, 0) + "," + series("b", 50, 1000, 0)
+        + ",{\"c\":\"s\",\"v\":[[1,\"x\"]]}]";
+    assertEquals(list, align(list, Aligner.MEAN, 0));
+  }
+
+  public void testSeriesAreBucketized() throws Exception {
+    String list = "[" + series("a", 20, 1000, 0) + "," + series("b", 40, 500, 250) + "]";
+    JSONArray aligned = new JSONArray(align(list, Aligner.MEAN, 0));
+    JSONArray a = aligned.getJSONObject(0).getJSONArray("v");
+    JSONArray b = aligned.getJSONObject(1).getJSONArray("v");
+    assertEquals(20, a.length());
+    assertEquals(20, b.length());
+    for (int i = 0; i < 20; i++) {
+      assertEquals(i * 1000L, a.getJSONArray(i).getLong(0));
+      assertEquals(i * 1000L, b.getJSONArray(i).getLong(0));
+      assertEquals(2 * i + 0.5, b.getJSONArray(i).getDouble(1), 1e-9);
+    }
+
+    //
+    // Buckets where a series has no value hold null
+    //
+
+    aligned = new JSONArray(align(list, Aligner.MAX, 250));
+    a = aligned.getJSONObject(0).getJSONArray("v");
+    b = aligned.getJSONObject(1).getJSONArray("v");
+    assertEquals(a.length(), b.length());
+    assertTrue(a.getJSONArray(1).isNull(1));
+    assertEquals(0, b.getJSONArray(1).getLong(1));
+  }
+
+  public void testSharedTicksAreEncodedOnce() throws Exception {
+    String one = "[" + series("a", 1000, 1000, 0) + "]";
+    String two = "[" + series("a", 1000, 1000, 0) + "," + series("b", 1000, 1000, 0) + "]";
+    String shifted = "[" + series("a", 1000, 1000, 0) + "," + series("b", 1000, 1000, 1) + "]";
+    int single = ColumnarCodec.encode(one).length();
+    int shared = ColumnarCodec.encode(two).length();
+    assertTrue(shared - single < ColumnarCodec.encode(shifted).length() - single);
+  }
+
+  public void testAlignedSeriesAreEncodedAsRewritten() throws Exception {
+    String list = "[" + series("a", 20, 1000, 0) + "," + series("b", 40, 500, 250) + "]";
+    StringBuilder rewritten = new StringBuilder();
+    new QuantumRewriter(null, null, new Aligner(Aligner.MAX, 250, Integer.MAX_VALUE))
+        .rewrite(list, rewritten);
+    assertEquals(ColumnarCodec.encode(rewritten), ColumnarCodec.encode(list, null, null,
+        new Aligner(Aligner.MAX, 250, Integer.MAX_VALUE)));
+  }
+}
@@ -0,0 +1,90 @@
+package org.apache.zeppelin.quantumviz;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the cancellation of paragraphs.
+ */
+public class CancellationTest extends TestCase {
+
+  private String series(int size) {
+    StringBuilder gts = new StringBuilder("{\"c\":\"name\",\"l\":{},\"v\":[");
+    for (int i = 0; i < size; i++) {
+      gts.append(i > 0 ? "," : "").append('[').append(i).append(',').append(i % 7).append(']');
+    }
+    return gts.append("]}").toString();
+  }
+
+  public void testCheck() {
+    Cancellation cancellation = new Cancellation();
+    cancellation.check();
+    cancellation.cancel();
+    try {
+      cancellation.check();
+      fail();
+    } catch (CancellationException e) {
+      assertEquals(Cancellation.MESSAGE, e.getMessage());
+    }
+  }
+
+  public void testCheckpointStopsParsing() throws Exception {
+    String gts = series(100000);
+    Thread.currentThread().interrupt();
+    try {
+      new GtsParser().parse(new JsonScanner(gts));
+      fail();
+    } catch (CancellationException e) {
+      // Expected
+    } finally {
+      Thread.interrupted();
+    }
+    assertEquals(100000, new GtsParser().parse(new JsonScanner(gts)).size());
+  }
+
+  public void testCancelInterruptsRendering() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    final CountDownLatch started = new CountDownLatch(1);
+    try {
+      Cancellation cancellation = new Cancellation();
+      Future<Integer> future = executor.submit(new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          started.countDown();
+          int series = 0;
+          while (true) {
+            Cancellation.checkpoint();
+            series++;
+          }
+        }
+      });
+      cancellation.track(future);
+      assertTrue(started.await(10, TimeUnit.SECONDS));
+      cancellation.cancel();
+      assertTrue(future.isCancelled());
+
+      //
+      // Renderings tracked after the cancel are cancelled as well
+      //
+
+      Future<Integer> late = executor.submit(new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          return 0;
+        }
+      });
+      cancellation.track(late);
+      assertTrue(late.isCancelled() || late.isDone());
+    } finally {
+      executor.shutdownNow();
+      assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+  }
+}
@@ -0,0 +1,152 @@
+package org.apache.zeppelin.quantumviz;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+
+/**
+ * Unit test for the chunked data endpoint.
+ */
+public class DataTransportTest extends TestCase {
+
+  private DataTransport transport;
+
+  @Override
+  protected void setUp() throws Exception {
+    transport = new DataTransport("127.0.0.1", 0, null, "http://zeppelin:8080", 4, 1024);
+    transport.start();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    transport.stop();
+  }
+
+  private String fetch(String url) throws Exception {
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    assertEquals("gzip", connection.getHeaderField("Content-Encoding"));
+    InputStream in = new GZIPInputStream(connection.getInputStream());
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buffer = new byte[1024];
+    int read;
+    while ((read = in.read(buffer)) > 0) {
+      bytes.write(buffer, 0, read);
+    }
+    in.close();
+    return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  public void testChunksAreServed() throws Exception {
+    DataTransport.Payload payload = transport.publish("[{\"c\":\"é\"}]");
+    assertEquals(3, payload.chunks());
+
+    assertTrue(transport.url(), transport.url().startsWith("http://127.0.0.1:"));
+    String base = transport.url() + DataTransport.CONTEXT + payload.id() + "/";
+    StringBuilder data = new StringBuilder();
+    for (int i = 0; i < payload.chunks(); i++) {
+      data.append(fetch(base + i));
+    }
+    assertEquals("[{\"c\":\"é\"}]", data.toString());
+
+    HttpURLConnection missing = (HttpURLConnection) new URL(base + 3).openConnection();
+    assertEquals(404, missing.getResponseCode());
+  }
+
+  public void testLoaderReferencesPayload() throws Exception {
+    DataTransport.Payload payload = transport.publish("[]");
+    String loader = transport.loader(payload, "qv-" + payload.id(), null);
+    assertTrue(loader.contains(payload.id() + "/"));
+    assertTrue(loader.contains("var chunks = 1;"));
+    assertTrue(loader.contains("if (200 != request.status) { expired(); return; }"));
+    assertTrue(loader.contains(DataTransport.EXPIRED));
+  }
+
+  public void testRollupsAreServed() throws Exception {
+    StringBuilder gts = new StringBuilder("{\"c\":\"name\",\"l\":{},\"v\":[");
+    for (int i = 0; i < 1000; i++) {
+      gts.append(i > 0 ? "," : "").append('[').append(i).append(',').append(i).append(']');
+    }
+    RollupCache rollups = new RollupCache(1024 * 1024);
+    transport.rollups(rollups);
+    List<String> ids = rollups.put("key", Arrays.asList(
+        new RollupPyramid(new GtsParser().parse(new JsonScanner(gts.append("]}"))))));
+
+    String base = transport.url()
+        + DataTransport.CONTEXT + DataTransport.ROLLUP + "/";
+    JSONArray series = new JSONArray(fetch(base + ids.get(0) + "?start=100&end=199&points=200"));
+    assertEquals(1, series.length());
+    assertEquals(100, series.getJSONObject(0).getJSONArray("v").length());
+
+    HttpURLConnection missing = (HttpURLConnection) new URL(base + "unknown").openConnection();
+    assertEquals(404, missing.getResponseCode());
+  }
+
+  public void testTilesAreServed() throws Exception {
+    String gts = "{\"c\":\"pos\",\"l\":{},\"v\":[[1,48.8566,2.3522,1],[2,-33.87,151.21,2]]}";
+    GeoTileCache tiles = new GeoTileCache(1024 * 1024);
+    transport.tiles(tiles);
+    String id = tiles.put("key", new GeoTileIndex(
+        Arrays.asList(new GtsParser().parse(new JsonScanner(gts)))));
+
+    String base = transport.url()
+        + DataTransport.CONTEXT + DataTransport.TILES + "/" + id + "/";
+    JSONArray series = new JSONArray(fetch(base + "1/1/0?points=10"));
+    assertEquals(1, series.length());
+    assertEquals(1, series.getJSONObject(0).getJSONArray("v").length());
+    assertEquals(0, new JSONArray(fetch(base + "1/0/1")).length());
+
+    HttpURLConnection missing = (HttpURLConnection) new URL(base + "1/2/0").openConnection();
+    assertEquals(404, missing.getResponseCode());
+  }
+
+  /**
+   * Response headers of a request sent with an Origin header, which HttpURLConnection drops
+   */
+  private String headers(String url, String origin) throws Exception {
+    URL target = new URL(url);
+    Socket socket = new Socket(target.getHost(), target.getPort());
+    try {
+      OutputStream out = socket.getOutputStream();
+      out.write(("GET " + target.getPath() + " HTTP/1.1\r\nHost: " + target.getHost()
+          + "\r\nOrigin: " + origin + "\r\nConnection: close\r\n\r\n")
+          .getBytes(StandardCharsets.UTF_8));
+      out.flush();
+      BufferedReader in = new BufferedReader(
+          new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+      StringBuilder headers = new StringBuilder();
+      String line;
+      while (null != (line = in.readLine()) && !line.isEmpty()) {
+        headers.append(line.toLowerCase()).append('\n');
+      }
+      return headers.toString();
+    } finally {
+      socket.close();
+    }
+  }
+
+  public void testOnlyAllowedOriginsAreGranted() throws Exception {
+    DataTransport.Payload payload = transport.publish("[]");
+    String url = transport.url() + DataTransport.CONTEXT + payload.id() + "/0";
+
+    String allowed = headers(url, "http://zeppelin:8080");
+    assertTrue(allowed, allowed.startsWith("http/1.1 200"));
+    assertTrue(allowed, allowed.contains("access-control-allow-origin: http://zeppelin:8080"));
+
+    String other = headers(url, "http://attacker");
+    assertTrue(other, other.startsWith("http/1.1 200"));
+    assertFalse(other, other.contains("access-control-allow-origin"));
+  }
+}
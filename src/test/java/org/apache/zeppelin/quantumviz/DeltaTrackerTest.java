@@ -0,0 +1,62 @@
+package org.apache.zeppelin.quantumviz;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+
+/**
+ * Unit test for the delta refresh of growing resources.
+ */
+public class DeltaTrackerTest extends TestCase {
+
+  private String resource(int size, int changed) {
+    StringBuilder gts = new StringBuilder("[{\"c\":\"name\",\"l\":{},\"v\":[");
+    for (int i = size - 1; i >= 0; i--) {
+      gts.append(i < size - 1 ? "," : "").append('[').append(i * 1000L).append(',')
+          .append(i == changed ? 99 : i % 7).append(']');
+    }
+    return gts.append("]}]").toString();
+  }
+
+  public void testAppendedPointsAreSent() throws Exception {
+    DeltaTracker tracker = new DeltaTracker(16);
+    DeltaTracker.State state = tracker.rendered("p/0", "source", "base/1",
+        DeltaTracker.parse(resource(100, -1)));
+    DeltaTracker.Delta delta = DeltaTracker.diff(state, "source",
+        DeltaTracker.parse(resource(103, -1)));
+    assertNotNull(delta);
+    assertEquals(3, delta.count());
+    JSONArray points = new JSONArray(delta.points()).getJSONArray(0);
+    assertEquals(3, points.length());
+    assertEquals(102000L, points.getJSONArray(0).getLong(0));
+
+    DeltaTracker.State next = tracker.appended("p/0", delta, "delta/1");
+    assertFalse(next.version().equals(state.version()));
+    assertSame(next, tracker.get("p/0"));
+    assertEquals(0, DeltaTracker.diff(next, "source",
+        DeltaTracker.parse(resource(103, -1))).count());
+  }
+
+  public void testRewrittenResourceIsRenderedInFull() throws Exception {
+    DeltaTracker tracker = new DeltaTracker(16);
+    DeltaTracker.State state = tracker.rendered("p/0", "source", "base/1",
+        DeltaTracker.parse(resource(100, -1)));
+    assertNull(DeltaTracker.diff(state, "source", DeltaTracker.parse(resource(103, 10))));
+    assertNull(DeltaTracker.diff(state, "source", DeltaTracker.parse(resource(90, -1))));
+    assertNull(DeltaTracker.diff(state, "other", DeltaTracker.parse(resource(103, -1))));
+    assertNull(DeltaTracker.diff(null, "source", DeltaTracker.parse(resource(103, -1))));
+
+    //
+    // Deltas outweighing the base are rendered in full as well
+    //
+
+    assertNull(DeltaTracker.diff(state, "source", DeltaTracker.parse(resource(300, -1))));
+  }
+
+  public void testUndecodableSeries() throws Exception {
+    List<GeoTimeSerie> series = DeltaTracker.parse("[{\"c\":\"name\",\"l\":{},\"v\":[[1,[2]]]}]");
+    assertNull(series);
+  }
+}
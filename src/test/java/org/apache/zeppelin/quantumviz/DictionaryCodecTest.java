@@ -0,0 +1,42 @@
+package org.apache.zeppelin.quantumviz;
+
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Unit test for the dictionary encoding of the series metadata.
+ */
+public class DictionaryCodecTest extends TestCase {
+
+  public void testMetadataRefersToStringTable() throws Exception {
+    StringBuilder list = new StringBuilder("[");
+    for (int i = 0; i < 100; i++) {
+      list.append(i > 0 ? "," : "").append("{\"c\":\"cpu\",\"l\":{\"host\":\"h")
+          .append(i % 4).append("\",\"dc\":\"eu\"},\"a\":{},\"v\":[[1,").append(i).append("]]}");
+    }
+    String payload = list.append(']').toString();
+    String encoded = DictionaryCodec.encode(payload);
+    assertTrue(encoded.length() < payload.length() * 3 / 4);
+
+    JSONObject json = new JSONObject(encoded);
+    JSONArray strings = json.getJSONArray(DictionaryCodec.STRINGS_KEY);
+    assertEquals(8, strings.length());
+    JSONObject series = json.getJSONArray(DictionaryCodec.DATA_KEY).getJSONObject(5);
+    assertEquals("cpu", strings.getString(series.getInt("c")));
+    JSONArray labels = series.getJSONArray("l");
+    assertEquals("host", strings.getString(labels.getInt(0)));
+    assertEquals("h1", strings.getString(labels.getInt(1)));
+    assertEquals(5, series.getJSONArray("v").getJSONArray(0).getInt(1));
+  }
+
+  public void testUnencodableSeriesAreCopied() throws Exception {
+    String payload = "[{\"gts\":[{\"l\":{\"k\":\"v\"},\"v\":[[1,2]]},"
+        + "{\"c\":\"n\",\"l\":{\"k\":1},\"v\":[[1,2]]}],\"globalParams\":{\"timestamps\":true}}]";
+    JSONObject json = new JSONObject(DictionaryCodec.encode(payload));
+    assertEquals(0, json.getJSONArray(DictionaryCodec.STRINGS_KEY).length());
+    assertEquals(new JSONArray(payload).toString(), json.getJSONArray(DictionaryCodec.DATA_KEY)
+        .toString());
+  }
+}
@@ -0,0 +1,158 @@
+package org.apache.zeppelin.quantumviz;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Unit test for the series downsampling.
+ */
+public class DownsamplerTest extends TestCase {
+
+  private String series(int size) {
+    StringBuilder gts = new StringBuilder("{\"c\":\"name\",\"l\":{},\"v\":[");
+    for (int i = 0; i < size; i++) {
+      if (i > 0) {
+        gts.append(',');
+      }
+      gts.append('[').append(i * 1000L).append(',').append(Math.sin(i / 10.0)).append(']');
+    }
+    return gts.append("]}").toString();
+  }
+
+  private String reversed(int size) {
+    StringBuilder gts = new StringBuilder("{\"c\":\"name\",\"l\":{},\"v\":[");
+    for (int i = size - 1; i >= 0; i--) {
+      if (i < size - 1) {
+        gts.append(',');
+      }
+      gts.append('[').append(i * 1000L).append(',').append(Math.sin(i / 10.0)).append(']');
+    }
+    return gts.append("]}").toString();
+  }
+
+  private JSONArray downsample(String algorithm, int maxPoints, String gts) throws Exception {
+    StringBuilder out = new StringBuilder();
+    new Downsampler(algorithm, maxPoints).transform(new JsonScanner(gts), out);
+    return new JSONObject(out.toString()).getJSONArray("v");
+  }
+
+  public void testLttbKeepsBudgetAndBounds() throws Exception {
+    JSONArray values = downsample(Downsampler.LTTB, 100, series(10000));
+    assertEquals(100, values.length());
+    assertEquals(0L, values.getJSONArray(0).getLong(0));
+    assertEquals(9999000L, values.getJSONArray(99).getLong(0));
+  }
+
+  public void testM4KeepsExtrema() throws Exception {
+    JSONArray values = downsample(Downsampler.M4, 400, series(10000));
+    assertTrue(values.length() <= 400);
+    double max = -2;
+    for (int i = 0; i < values.length(); i++) {
+      max = Math.max(max, values.getJSONArray(i).getDouble(1));
+    }
+    assertEquals(1.0, max, 1e-3);
+  }
+
+  public void testMinMaxIsOrdered() throws Exception {
+    JSONArray values = downsample(Downsampler.MINMAX, 50, series(1000));
+    assertTrue(values.length() <= 50);
+    for (int i = 1; i < values.length(); i++) {
+      assertTrue(values.getJSONArray(i - 1).getLong(0) < values.getJSONArray(i).getLong(0));
+    }
+  }
+
+  public void testSmallAndNonNumericSeriesAreUnchanged() throws Exception {
+    String small = series(10);
+    StringBuilder out = new StringBuilder();
+    new Downsampler(Downsampler.LTTB, 100).transform(new JsonScanner(small), out);
+    assertEquals(small, out.toString());
+
+    String strings = "{\"c\":\"s\",\"v\":[[1,\"a\"],[2,\"b\"],[3,\"c\"],[4,\"d\"]]}";
+    out.setLength(0);
+    new Downsampler(Downsampler.LTTB, 3).transform(new JsonScanner(strings), out);
+    assertEquals(strings, out.toString());
+  }
+
+  public void testColumnarEncodingOfDownsampledSeries() throws Exception {
+    String list = "[" + series(5000) + "," + series(10) + ",{\"c\":\"s\",\"l\":{},\"a\":{},"
+        + "\"v\":[[1,\"a\"]]}]";
+    StringBuilder rewritten = new StringBuilder();
+    new QuantumRewriter(null, null, new Quantizer(new Downsampler(Downsampler.LTTB, 100), 4))
+        .rewrite(list, rewritten);
+    assertEquals(ColumnarCodec.encode(rewritten), ColumnarCodec.encode(list, null, null,
+        new Quantizer(new Downsampler(Downsampler.LTTB, 100), 4)));
+
+    //
+    // Global params are set on the skeleton
+    //
+
+    rewritten.setLength(0);
+    JSONObject params = new JSONObject("{\"type\":\"line\"}");
+    new QuantumRewriter(params, null, new Downsampler(Downsampler.M4, 100))
+        .rewrite(list, rewritten);
+    assertEquals(ColumnarCodec.encode(rewritten), ColumnarCodec.encode(list, params, null,
+        new Downsampler(Downsampler.M4, 100)));
+  }
+
+  public void testTinyBudgetKeepsDistinctBounds() throws Exception {
+    String pair = series(2);
+    StringBuilder out = new StringBuilder();
+    new Downsampler(Downsampler.LTTB, 2).transform(new JsonScanner(pair), out);
+    assertEquals(pair, out.toString());
+
+    JSONArray values = downsample(Downsampler.LTTB, 1, pair);
+    assertEquals(1, values.length());
+    assertEquals(1000L, values.getJSONArray(0).getLong(0));
+
+    values = downsample(Downsampler.LTTB, 2, series(10));
+    assertEquals(2, values.length());
+    assertEquals(0L, values.getJSONArray(0).getLong(0));
+    assertEquals(9000L, values.getJSONArray(1).getLong(0));
+  }
+
+  public void testNewestFirstSeriesIsDownsampledInTimeOrder() throws Exception {
+    for (String algorithm : new String[] { Downsampler.LTTB, Downsampler.M4 }) {
+      JSONArray ascending = downsample(algorithm, 100, series(10000));
+      JSONArray descending = downsample(algorithm, 100, reversed(10000));
+
+      //
+      // The same points are selected, in the order of the series
+      //
+
+      assertEquals(ascending.length(), descending.length());
+      for (int i = 0; i < ascending.length(); i++) {
+        JSONArray point = descending.getJSONArray(descending.length() - 1 - i);
+        assertEquals(ascending.getJSONArray(i).getLong(0), point.getLong(0));
+        assertEquals(ascending.getJSONArray(i).getDouble(1), point.getDouble(1), 0);
+      }
+    }
+  }
+
+  public void testShuffledTicksAreSortedStably() throws Exception {
+    Random random = new Random(42);
+    for (int size : new int[] { 0, 1, 15, 16, 1000 }) {
+      long[] keys = new long[size];
+      int[] order = new int[size + 3];
+      for (int i = 0; i < size; i++) {
+        keys[i] = random.nextInt(size / 4 + 1) - size / 8;
+        order[i] = i;
+      }
+      GeoTimeSerie.sort(order, size, keys);
+
+      //
+      // Keys are ascending, indices with the same key keep their order
+      //
+
+      for (int i = 1; i < size; i++) {
+        long previous = keys[order[i - 1]];
+        assertTrue(previous <= keys[order[i]]);
+        assertTrue(previous < keys[order[i]] || order[i - 1] < order[i]);
+      }
+      assertEquals(0, order[size]);
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package org.apache.zeppelin.quantumviz;
+
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Unit test for the reduction of located series.
+ */
+public class GeoReducerTest extends TestCase {
+
+  private String cloud(int size) {
+    StringBuilder gts = new StringBuilder("{\"c\":\"pos\",\"l\":{},\"v\":[");
+    for (int i = 0; i < size; i++) {
+      if (i > 0) {
+        gts.append(',');
+      }
+      double lat = 48.0 + (i % 2) * 10 + (i % 7) * 0.0001;
+      double lon = -4.0 + (i % 2) * 10 + (i % 5) * 0.0001;
+      gts.append('[').append(i).append(',').append(lat).append(',').append(lon).append(",1]");
+    }
+    return gts.append("]}").toString();
+  }
+
+  private JSONArray reduce(GeoReducer reducer, String gts) throws Exception {
+    StringBuilder out = new StringBuilder();
+    reducer.transform(new JsonScanner(gts), out);
+    return new JSONObject(out.toString()).getJSONArray("v");
+  }
+
+  public void testGeohash() {
+    // ezs42 is the reference geohash of 42.6, -5.6
+    long expected = 0;
+    for (char c : "ezs42".toCharArray()) {
+      expected = (expected << 5) | "0123456789bcdefghjkmnpqrstuvwxyz".indexOf(c);
+    }
+    assertEquals(expected, GeoReducer.geohash(42.6, -5.6, 5));
+  }
+
+  public void testClusterCountsPoints() throws Exception {
+    JSONArray values = reduce(new GeoReducer(GeoReducer.CLUSTER, 10, 0), cloud(1000));
+    assertEquals(2, values.length());
+    assertEquals(500L, values.getJSONArray(0).getLong(3));
+    assertEquals(48.0, values.getJSONArray(0).getDouble(1), 1e-3);
+    assertEquals(998L, values.getJSONArray(0).getLong(0));
+  }
+
+  public void testSimplifyKeepsCorners() throws Exception {
+    StringBuilder gts = new StringBuilder("{\"c\":\"track\",\"v\":[");
+    for (int i = 0; i <= 200; i++) {
+      double lat = i <= 100 ? i * 0.01 : 1.0;
+      double lon = i <= 100 ? 0 : (i - 100) * 0.01;
+      gts.append(i > 0 ? "," : "").append('[').append(i).append(',').append(lat).append(',')
+          .append(lon).append(",0.5]");
+    }
+    JSONArray values = reduce(new GeoReducer(GeoReducer.SIMPLIFY, 3, 0), gts.append("]}").toString());
+    assertEquals(3, values.length());
+    assertEquals(100L, values.getJSONArray(1).getLong(0));
+  }
+
+  public void testSeriesWithoutLocationIsUnchanged() throws Exception {
+    String gts = "{\"c\":\"x\",\"v\":[[1,2],[2,3],[3,4]]}";
+    StringBuilder out = new StringBuilder();
+    new GeoReducer(GeoReducer.CLUSTER, 2, 0).transform(new JsonScanner(gts), out);
+    assertEquals(gts, out.toString());
+  }
+}
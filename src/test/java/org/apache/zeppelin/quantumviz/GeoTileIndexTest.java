@@ -0,0 +1,81 @@
+package org.apache.zeppelin.quantumviz;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+
+/**
+ * Unit test for the tiling of located series.
+ */
+public class GeoTileIndexTest extends TestCase {
+
+  private GeoTileIndex index() throws Exception {
+    // A grid of 100 x 100 points over Brittany, and two points in Paris and Sydney
+    StringBuilder gts = new StringBuilder("{\"c\":\"grid\",\"l\":{},\"v\":[");
+    for (int i = 0; i < 10000; i++) {
+      double lat = 47.0 + (i / 100) * 0.01;
+      double lon = -4.0 + (i % 100) * 0.01;
+      gts.append(i > 0 ? "," : "").append('[').append(i).append(',').append(lat).append(',')
+          .append(lon).append(",1]");
+    }
+    String other = "{\"c\":\"cities\",\"l\":{},\"v\":[[1,48.8566,2.3522,1],[2,-33.87,151.21,2]]}";
+    GtsParser parser = new GtsParser();
+    return new GeoTileIndex(Arrays.asList(parser.parse(new JsonScanner(gts.append("]}"))),
+        parser.parse(new JsonScanner(other))));
+  }
+
+  private JSONArray tile(GeoTileIndex index, int z, int x, int y, int points) {
+    StringBuilder out = new StringBuilder();
+    assertTrue(index.tile(z, x, y, points, out));
+    return new JSONArray(out.toString());
+  }
+
+  public void testBounds() {
+    double[] bounds = GeoTileIndex.bounds(1, 1, 0);
+    assertEquals(0.0, bounds[0], 1e-9);
+    assertEquals(0.0, bounds[1], 1e-9);
+    assertEquals(85.0511, bounds[2], 1e-4);
+    assertEquals(180.0, bounds[3], 1e-9);
+  }
+
+  public void testTilesHoldTheirPoints() throws Exception {
+    GeoTileIndex index = index();
+    assertEquals(10002, index.points());
+
+    // Tiles 8/125/89 and 8/125/90 split the grid at 47.04 and 47.99 degrees of latitude
+    JSONArray north = tile(index, 8, 125, 89, 100000);
+    assertEquals(1, north.length());
+    assertEquals(94 * 100, north.getJSONObject(0).getJSONArray("v").length());
+    JSONArray middle = tile(index, 8, 125, 90, 100000);
+    assertEquals(5 * 100, middle.getJSONObject(0).getJSONArray("v").length());
+    assertEquals(1 * 100, tile(index, 8, 125, 88, 100000).getJSONObject(0)
+        .getJSONArray("v").length());
+
+    // Tile 1/1/1 covers the south east quarter of the world
+    JSONArray south = tile(index, 1, 1, 1, 100000);
+    assertEquals(1, south.length());
+    assertEquals("cities", south.getJSONObject(0).getString("c"));
+    assertEquals(1, south.getJSONObject(0).getJSONArray("v").length());
+
+    assertFalse(index.tile(1, 2, 0, 10, new StringBuilder()));
+  }
+
+  public void testTilesOverBudgetAreClustered() throws Exception {
+    JSONArray world = tile(index(), 0, 0, 0, 50);
+    assertEquals(2, world.length());
+    long count = 0;
+    int cells = 0;
+    for (int s = 0; s < world.length(); s++) {
+      JSONArray values = world.getJSONObject(s).getJSONArray("v");
+      cells += values.length();
+      for (int i = 0; i < values.length(); i++) {
+        JSONArray point = values.getJSONArray(i);
+        count += point.getLong(point.length() - 1);
+      }
+    }
+    assertTrue(String.valueOf(cells), cells <= 50);
+    assertEquals(10002, count);
+  }
+}
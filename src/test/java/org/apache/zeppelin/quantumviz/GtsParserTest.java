@@ -0,0 +1,62 @@
+package org.apache.zeppelin.quantumviz;
+
+import junit.framework.TestCase;
+
+import org.json.JSONObject;
+
+/**
+ * Unit test for the columnar series model.
+ */
+public class GtsParserTest extends TestCase {
+
+  public void testParseLayoutsAndTypes() throws Exception {
+    GtsParser parser = new GtsParser();
+    GeoTimeSerie gts = parser.parse(new JsonScanner(
+        "{\"c\":\"temp\",\"l\":{\"room\":\"a\"},\"a\":{},\"v\":[[1,48.5,-4.25,12,3],[2,4.5]]}"));
+    assertEquals("temp", gts.getClassName());
+    assertEquals("a", gts.getLabels().get("room"));
+    assertEquals(2, gts.size());
+    assertEquals(GeoTimeSerie.Type.DOUBLE, gts.type());
+    assertEquals(3.0, gts.doubleValue(0));
+    assertEquals(48.5, gts.latitude(0));
+    assertEquals(12L, gts.elevation(0));
+    assertTrue(gts.hasLocations());
+    assertFalse(gts.isLocated());
+    assertTrue(Double.isNaN(gts.latitude(1)));
+  }
+
+  public void testMetadataIsInterned() throws Exception {
+    GtsParser parser = new GtsParser();
+    GeoTimeSerie first = parser.parse(new JsonScanner("{\"c\":\"name\",\"l\":{\"k\":\"v\"},\"v\":[]}"));
+    GeoTimeSerie second = parser.parse(new JsonScanner("{\"c\":\"name\",\"l\":{\"k\":\"v\"},\"v\":[]}"));
+    assertSame(first.getClassName(), second.getClassName());
+    assertSame(first.getLabels().get("k"), second.getLabels().get("k"));
+    assertSame(first.getLabels(), second.getLabels());
+  }
+
+  public void testUnsupportedObjectsAreRejected() throws Exception {
+    JsonScanner scanner = new JsonScanner("{\"c\":\"name\",\"v\":[[1,true],[2,3]]}");
+    assertNull(new GtsParser().parse(scanner));
+    assertEquals(0, scanner.position());
+    assertNull(new GtsParser().parse(new JsonScanner("{\"c\":\"name\"}")));
+  }
+
+  public void testParseDoubleMatchesJdk() {
+    String[] numbers = { "0", "-0.5", "3.14159", "1e10", "2.5E-3", "123456789012345678",
+        "0.1", "1.7976931348623157e308", "4.9e-324", "-12.000001" };
+    for (String number : numbers) {
+      assertEquals(Double.parseDouble(number), GtsParser.parseDouble(number, 0, number.length()));
+    }
+  }
+
+  public void testWriteRoundTrip() throws Exception {
+    String json = "{\"c\":\"name\",\"l\":{\"k\":\"v\"},\"a\":{},\"x\":[1],\"v\":[[1,1.5],[2,2]]}";
+    GeoTimeSerie gts = new GtsParser().parse(new JsonScanner(json));
+    StringBuilder out = new StringBuilder();
+    GtsWriter.write(gts, out);
+    JSONObject written = new JSONObject(out.toString());
+    assertEquals(1, written.getJSONArray("x").getInt(0));
+    assertEquals(2.0, written.getJSONArray("v").getJSONArray(1).getDouble(1));
+    assertEquals("v", written.getJSONObject("l").getString("k"));
+  }
+}
@@ -0,0 +1,68 @@
+package org.apache.zeppelin.quantumviz;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the writing of series and numbers.
+ */
+public class GtsWriterTest extends TestCase {
+
+  private String write(double value) {
+    StringBuilder out = new StringBuilder();
+    GtsWriter.writeDouble(value, out);
+    return out.toString();
+  }
+
+  public void testDoublesReadBackExactly() throws Exception {
+    Random random = new Random(42);
+    for (int i = 0; i < 100000; i++) {
+      double value;
+      switch (i % 4) {
+        case 0:
+          value = random.nextDouble();
+          break;
+        case 1:
+          value = (random.nextInt(2000000) - 1000000) / 1000.0;
+          break;
+        case 2:
+          value = Double.longBitsToDouble(random.nextLong());
+          break;
+        default:
+          value = random.nextGaussian() * Math.pow(10, random.nextInt(30) - 15);
+          break;
+      }
+      if (Double.isNaN(value) || Double.isInfinite(value)) {
+        continue;
+      }
+      String written = write(value);
+      assertEquals(written, value, Double.parseDouble(written));
+      assertTrue(written, written.length() <= Double.toString(value).length());
+    }
+  }
+
+  public void testShortDecimals() throws Exception {
+    assertEquals("0.1", write(0.1));
+    assertEquals("-21.375", write(-21.375));
+    assertEquals("0.30000000000000004", write(0.1 + 0.2));
+    assertEquals("0.001", write(0.001));
+    assertEquals("1.0E-4", write(0.0001));
+    assertEquals("42", write(42.0));
+    assertEquals("null", write(Double.NaN));
+  }
+
+  public void testValuesAreRounded() throws Exception {
+    assertEquals("21.38", write(GtsWriter.round(21.375001, 4)));
+    assertEquals("1.235E-4", write(GtsWriter.round(0.000123456, 4)));
+    assertEquals("123500", write(GtsWriter.round(123456.7, 4)));
+    assertEquals("-3.1", write(GtsWriter.round(-3.14159, 2)));
+
+    String gts = "{\"c\":\"name\",\"l\":{},"
+        + "\"v\":[[1,48.8566,2.3522,3.14159265],[2,1],[3,2.71828]]}";
+    StringBuilder out = new StringBuilder();
+    new Quantizer(null, 3).transform(new JsonScanner(gts), out);
+    assertTrue(out.toString(), out.toString().contains("[1,48.8566,2.3522,3.14]"));
+    assertTrue(out.toString(), out.toString().contains("[3,2.72]"));
+  }
+}
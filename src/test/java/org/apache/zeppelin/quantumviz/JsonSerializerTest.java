@@ -0,0 +1,90 @@
+package org.apache.zeppelin.quantumviz;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Unit test for the serialization of the objects of Zeppelin resource pool.
+ */
+public class JsonSerializerTest extends TestCase {
+
+  public static class Point {
+    public long getTick() {
+      return 1000L;
+    }
+
+    public double getValue() {
+      return Double.NaN;
+    }
+
+    public String getLabel() {
+      return "a\"b\n";
+    }
+  }
+
+  public void testGtsList() throws Exception {
+    Map<String, Object> gts = new LinkedHashMap<>();
+    gts.put("c", "name");
+    gts.put("l", new LinkedHashMap<String, String>());
+    gts.put("v", Arrays.asList(Arrays.asList(1L, 0.5), Arrays.asList(2L, 1.0)));
+    List<Object> list = new ArrayList<>();
+    list.add(gts);
+    list.add(gts);
+
+    String gtsJson = "{\"c\":\"name\",\"l\":{},\"v\":[[1,0.5],[2,1]]}";
+    assertEquals("[" + gtsJson + "," + gtsJson + "]", new JsonSerializer().serialize(list));
+  }
+
+  public void testArraysAndNonFiniteValues() throws Exception {
+    JsonSerializer serializer = new JsonSerializer();
+    assertEquals("[1,null,null,2.5]",
+        serializer.serialize(new double[] { 1, Double.NaN, Double.POSITIVE_INFINITY, 2.5 }));
+    assertEquals("[0.1,null]", serializer.serialize(new float[] { 0.1f, Float.NaN }));
+    assertEquals("[[1,2],[3]]", serializer.serialize(new long[][] { { 1, 2 }, { 3 } }));
+    assertEquals("[true,\"x\",null]",
+        serializer.serialize(new Object[] { true, 'x', null }));
+    assertEquals("[\"a\"]", serializer.serialize(new LinkedHashSet<>(Arrays.asList("a"))));
+  }
+
+  public void testBean() throws Exception {
+    JSONObject point = new JSONObject(new JsonSerializer().serialize(new Point()));
+    assertEquals(1000L, point.getLong("tick"));
+    assertTrue(point.isNull("value"));
+    assertEquals("a\"b\n", point.getString("label"));
+  }
+
+  public void testStringsAreKept() throws Exception {
+    JsonSerializer serializer = new JsonSerializer();
+    assertEquals("{\"c\":\"x\"}", serializer.serialize("{\"c\":\"x\"}"));
+    assertEquals("", serializer.serialize(null));
+  }
+
+  public void testDepth() throws Exception {
+    List<Object> list = new ArrayList<>();
+    list.add(list);
+    try {
+      new JsonSerializer().serialize(list);
+      fail();
+    } catch (Exception e) {
+      assertTrue(e.getMessage().contains("nested"));
+    }
+  }
+
+  public void testJsonTreesAndNulls() throws Exception {
+    JsonSerializer serializer = new JsonSerializer();
+    assertEquals("[1,null,{\"a\":null},\"x\"]",
+        serializer.serialize(new JSONArray("[1,null,{\"a\":null},\"x\"]")));
+    assertEquals("{\"k\":null}",
+        serializer.serialize(Collections.singletonMap("k", JSONObject.NULL)));
+  }
+}
@@ -0,0 +1,157 @@
+package org.apache.zeppelin.quantumviz;
+
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Unit test for the streaming global params rewriter.
+ */
+public class QuantumRewriterTest extends TestCase {
+
+  private static final String GTS = "{\"c\":\"name\",\"l\":{\"l0\":\"a\"},\"a\":{},"
+      + "\"v\":[[1,0],[1000,1],[2000,2]]}";
+
+  private String rewrite(String resource) throws Exception {
+    JSONObject params = new JSONObject("{\"interpolate\":\"linear\"}");
+    QuantumRewriter rewriter = new QuantumRewriter(params,
+        new QuantumRewriter.Merger() {
+          @Override
+          public JSONObject merge(JSONObject globalParams) throws Exception {
+            return globalParams.put("interpolate", "linear");
+          }
+        }, null);
+    StringBuilder out = new StringBuilder();
+    rewriter.rewrite(resource, out);
+    return out.toString();
+  }
+
+  public void testSingleGtsIsWrapped() throws Exception {
+    JSONArray result = new JSONArray(rewrite(GTS));
+    assertEquals(1, result.length());
+    JSONObject quantum = result.getJSONObject(0);
+    assertEquals("name", quantum.getJSONObject("gts").getString("c"));
+    assertEquals("linear", quantum.getJSONObject("globalParams").getString("interpolate"));
+  }
+
+  public void testGtsListIsWrapped() throws Exception {
+    JSONArray result = new JSONArray(rewrite("[" + GTS + "," + GTS + "]"));
+    assertEquals(2, result.getJSONObject(0).getJSONArray("gts").length());
+  }
+
+  public void testQuantumObjectWithoutParams() throws Exception {
+    JSONArray result = new JSONArray(rewrite("{\"gts\":[" + GTS + "]}"));
+    assertEquals("linear", result.getJSONObject(0).getJSONObject("globalParams")
+        .getString("interpolate"));
+  }
+
+  public void testQuantumListParamsAreMerged() throws Exception {
+    String quantum = "{\"gts\":[" + GTS + "],\"globalParams\":"
+        + "{\"interpolate\":\"step-before\",\"timestamps\":true}}";
+    JSONArray result = new JSONArray(rewrite("[" + quantum + ", 3]"));
+    JSONObject globalParams = result.getJSONObject(0).getJSONObject("globalParams");
+    assertEquals("linear", globalParams.getString("interpolate"));
+    assertTrue(globalParams.getBoolean("timestamps"));
+    assertEquals(3, result.getInt(1));
+  }
+
+  public void testValuesAreCopiedVerbatim() throws Exception {
+    String values = "[[1, 0.10000], [2, \"a\\\"]\"]]";
+    String result = rewrite("{\"c\":\"x\", \"v\":" + values + "}");
+    assertTrue(result.contains(values));
+  }
+
+  public void testOtherResourcesAreUnchanged() throws Exception {
+    assertEquals("42", rewrite("42"));
+  }
+
+  public void testSeriesTransformKeepsShape() throws Exception {
+    QuantumRewriter rewriter = new QuantumRewriter(null, null,
+        new QuantumRewriter.SeriesTransform() {
+          @Override
+          public void transform(JsonScanner scanner, StringBuilder out) throws Exception {
+            scanner.skipValue();
+            out.append("{}");
+          }
+        });
+    StringBuilder out = new StringBuilder();
+    rewriter.rewrite("{\"gts\":[" + GTS + "," + GTS + "],\"globalParams\":{}}", out);
+    assertEquals("{\"gts\":[{},{}],\"globalParams\":{}}", out.toString());
+    out.setLength(0);
+    rewriter.rewrite(GTS, out);
+    assertEquals("{}", out.toString());
+  }
+
+  public void testShape() throws Exception {
+    String quantum = "{\"gts\":[" + GTS + "]}";
+    assertEquals(QuantumRewriter.Shape.GTS, QuantumRewriter.shape(GTS));
+    assertEquals(QuantumRewriter.Shape.GTS_LIST, QuantumRewriter.shape(" [" + GTS + "]"));
+    assertEquals(QuantumRewriter.Shape.QUANTUM, QuantumRewriter.shape(quantum));
+    assertEquals(QuantumRewriter.Shape.QUANTUM_LIST, QuantumRewriter.shape("[" + quantum + "]"));
+    assertEquals(QuantumRewriter.Shape.QUANTUM,
+        QuantumRewriter.shape("{\"name\":\"x\",\"globalParams\":{}}"));
+    assertEquals(QuantumRewriter.Shape.OTHER, QuantumRewriter.shape("[1, 2]"));
+    assertEquals(QuantumRewriter.Shape.OTHER, QuantumRewriter.shape("42"));
+
+    //
+    // Only the first key of a GTS is read
+    //
+
+    assertEquals(QuantumRewriter.Shape.GTS, QuantumRewriter.shape("{\"c\":\"x\",\"v\":[[1,"));
+  }
+
+  public void testQuantumListParamsAreSetOnEachObject() throws Exception {
+    String merged = "{\"gts\":[" + GTS + "],\"globalParams\":{\"timestamps\":true}}";
+    String added = "{\"gts\":[" + GTS + "]}";
+    JSONArray result = new JSONArray(rewrite("[" + merged + "," + added + "]"));
+    JSONObject globalParams = result.getJSONObject(0).getJSONObject("globalParams");
+    assertEquals("linear", globalParams.getString("interpolate"));
+    assertTrue(globalParams.getBoolean("timestamps"));
+    assertEquals("linear", result.getJSONObject(1).getJSONObject("globalParams")
+        .getString("interpolate"));
+  }
+
+  public void testInvalidResource() throws Exception {
+    try {
+      rewrite("[1, 2]");
+      fail();
+    } catch (JSONException e) {
+      // expected
+    }
+  }
+
+  public void testJSONValidity() throws Exception {
+    QuantumVizInterpreter interpreter = new QuantumVizInterpreter(new Properties());
+    assertTrue(interpreter.isMapJSONValid("{\"a\": [1, -2.5e3, true, null, {\"b\": \"}\"}]}"));
+    assertTrue(interpreter.isMapJSONValid(" {} "));
+    assertTrue(interpreter.isListJSONValid("[[], {}, \"x\", 0.5]"));
+
+    //
+    // The lenient grammar of org.json is accepted
+    //
+
+    assertTrue(interpreter.isMapJSONValid("{\"a\":1,}"));
+    assertTrue(interpreter.isMapJSONValid("{a:1}"));
+    assertTrue(interpreter.isMapJSONValid("{'a':'b'}"));
+    assertTrue(interpreter.isMapJSONValid("{\"a\":1} x"));
+    assertTrue(interpreter.isMapJSONValid("{\"a\":NaN}"));
+    assertTrue(interpreter.isMapJSONValid("{\"a\":01; \"b\":2}"));
+    assertTrue(interpreter.isListJSONValid("[1,2,]"));
+    assertTrue(interpreter.isListJSONValid("[1 2]"));
+    assertTrue(interpreter.isListJSONValid("[1,,2]"));
+
+    assertFalse(interpreter.isMapJSONValid("{\"a\" 1}"));
+    assertFalse(interpreter.isMapJSONValid("{foo}"));
+    assertFalse(interpreter.isMapJSONValid("{\"a\":1,\"a\":2}"));
+    assertFalse(interpreter.isMapJSONValid("{\"a\":\"\\x\"}"));
+    assertFalse(interpreter.isMapJSONValid("{\"a\":[1}"));
+    assertFalse(interpreter.isMapJSONValid("[1]"));
+    assertFalse(interpreter.isListJSONValid("[}"));
+    assertFalse(interpreter.isListJSONValid("[1;2]"));
+    assertFalse(interpreter.isListJSONValid("[\"a\""));
+  }
+}
@@ -0,0 +1,330 @@
+package org.apache.zeppelin.quantumviz;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.zeppelin.display.AngularObjectRegistry;
+import org.apache.zeppelin.display.GUI;
+import org.apache.zeppelin.interpreter.InterpreterContext;
+import org.apache.zeppelin.interpreter.InterpreterContextRunner;
+import org.apache.zeppelin.interpreter.InterpreterOutput;
+import org.apache.zeppelin.interpreter.InterpreterResult;
+import org.apache.zeppelin.resource.LocalResourcePool;
+import org.apache.zeppelin.resource.Resource;
+import org.apache.zeppelin.resource.ResourcePool;
+import org.json.JSONObject;
+import org.apache.zeppelin.scheduler.FIFOScheduler;
+import org.apache.zeppelin.scheduler.ParallelScheduler;
+import org.apache.zeppelin.scheduler.Scheduler;
+import org.apache.zeppelin.scheduler.SchedulerFactory;
+
+/**
+ * Unit test for the scheduling and the rendering of the paragraphs.
+ */
+public class QuantumVizInterpreterTest extends TestCase {
+
+  /**
+   * Resource pool counting its reads, each read taking some time
+   */
+  private static class SlowResourcePool extends LocalResourcePool {
+    private final Map<String, Integer> reads = new HashMap<>();
+    private final Map<String, Long> delays = new HashMap<>();
+    private final Set<String> interrupted = new HashSet<>();
+    private final long delay;
+
+    SlowResourcePool(long delay) {
+      super("slow");
+      this.delay = delay;
+    }
+
+    @Override
+    public Resource get(String name) {
+      long delay = this.delay;
+      synchronized (this.reads) {
+        this.reads.put(name, 1 + (this.reads.containsKey(name) ? this.reads.get(name) : 0));
+        if (this.delays.containsKey(name)) {
+          delay = this.delays.get(name);
+        }
+      }
+      try {
+        Thread.sleep(delay);
+      } catch (InterruptedException e) {
+        synchronized (this.reads) {
+          this.interrupted.add(name);
+        }
+        Thread.currentThread().interrupt();
+      }
+      return super.get(name);
+    }
+
+    /**
+     * Set the time taken to read a resource
+     */
+    void delay(String name, long delay) {
+      synchronized (this.reads) {
+        this.delays.put(name, delay);
+      }
+    }
+
+    boolean isInterrupted(String name) {
+      synchronized (this.reads) {
+        return this.interrupted.contains(name);
+      }
+    }
+
+    int reads(String name) {
+      synchronized (this.reads) {
+        return this.reads.containsKey(name) ? this.reads.get(name) : 0;
+      }
+    }
+  }
+
+  private QuantumVizInterpreter open(Properties properties) {
+    properties.setProperty(QuantumVizInterpreter.URL_KEY, "http://localhost");
+    properties.setProperty(QuantumVizInterpreter.TRANSPORT_HOST_KEY, "127.0.0.1");
+    QuantumVizInterpreter interpreter = new QuantumVizInterpreter(properties);
+    interpreter.open();
+    return interpreter;
+  }
+
+  private InterpreterContext context(ResourcePool pool, InterpreterOutput out) {
+    return new InterpreterContext("note", "paragraph", null, "title", "text", null,
+        new HashMap<String, Object>(), new GUI(), new AngularObjectRegistry("quantumviz", null),
+        pool, new ArrayList<InterpreterContextRunner>(), out);
+  }
+
+  private String series(String name, int size) {
+    StringBuilder gts = new StringBuilder("{\"c\":\"" + name + "\",\"l\":{},\"v\":[");
+    for (int i = 0; i < size; i++) {
+      gts.append(i > 0 ? "," : "").append('[').append(i * 1000L).append(',')
+          .append(i % 7).append(']');
+    }
+    return gts.append("]}").toString();
+  }
+
+  private InterpreterResult interpret(QuantumVizInterpreter interpreter, ResourcePool pool,
+      String body) {
+    return interpreter.interpret(body, context(pool, new InterpreterOutput(null)));
+  }
+
+  public void testDeltaRefreshOfDownsampledSeries() {
+    QuantumVizInterpreter interpreter = open(new Properties());
+    try {
+      LocalResourcePool pool = new LocalResourcePool("pool");
+      String raw = "{\"data\":{\"series\":\"gts\",\"refresh\":\"delta\"}}";
+      String downsampled = "{\"data\":{\"series\":\"gts\",\"refresh\":\"delta\","
+          + "\"downsample\":\"lttb\",\"maxPoints\":100}}";
+
+      // Raw series appended to only send their new points
+      pool.put("gts", series("raw", 1000));
+      assertTrue(interpret(interpreter, pool, raw).message().get(0).getData().contains("data='"));
+      pool.put("gts", series("raw", 1100));
+      assertFalse(interpret(interpreter, pool, raw).message().get(0).getData()
+          .contains("data='"));
+
+      // Downsampled series are rendered in full, the raw points not being sent
+      pool.put("gts", series("downsampled", 1000));
+      interpret(interpreter, pool, downsampled);
+      pool.put("gts", series("downsampled", 1100));
+      String html = interpret(interpreter, pool, downsampled).message().get(0).getData();
+      assertTrue(html, html.contains("data='"));
+      int start = html.indexOf("data='") + "data='".length();
+      JSONObject data = new JSONObject(html.substring(start, html.indexOf('\'', start)));
+      assertEquals(100, data.getJSONArray("v").length());
+    } finally {
+      interpreter.close();
+    }
+  }
+
+  public void testParallelScheduler() {
+    QuantumVizInterpreter interpreter = new QuantumVizInterpreter(new Properties());
+    Scheduler scheduler = interpreter.getScheduler();
+    try {
+      assertTrue(scheduler instanceof ParallelScheduler);
+      assertSame(scheduler, interpreter.getScheduler());
+    } finally {
+      SchedulerFactory.singleton().removeScheduler(scheduler.getName());
+    }
+  }
+
+  public void testSequentialScheduler() {
+    Properties properties = new Properties();
+    properties.setProperty(QuantumVizInterpreter.SCHEDULER_CONCURRENCY_KEY, "1");
+    Scheduler scheduler = new QuantumVizInterpreter(properties).getScheduler();
+    try {
+      assertTrue(scheduler instanceof FIFOScheduler);
+    } finally {
+      SchedulerFactory.singleton().removeScheduler(scheduler.getName());
+    }
+  }
+
+  public void testResourcesAreReadOncePerKey() {
+    QuantumVizInterpreter interpreter = open(new Properties());
+    try {
+      SlowResourcePool pool = new SlowResourcePool(0);
+      pool.put("a", series("a", 100));
+      pool.put("b", series("b", 100));
+      InterpreterResult result = interpret(interpreter, pool, "{\"data\":[{\"series\":\"a\"},"
+          + "{\"series\":\"b\"},{\"series\":\"a\",\"maxPoints\":10},{\"series\":\"a\"}]}");
+      assertEquals(InterpreterResult.Code.SUCCESS, result.code());
+      assertEquals(1, pool.reads("a"));
+      assertEquals(1, pool.reads("b"));
+    } finally {
+      interpreter.close();
+    }
+  }
+
+  public void testResourceTimeout() {
+    String body = "{\"data\":[{\"series\":\"a\"},{\"series\":\"b\"},{\"series\":\"c\"}]}";
+    SlowResourcePool pool = new SlowResourcePool(300);
+    pool.put("a", series("a", 100));
+    pool.put("b", series("b", 100));
+    pool.put("c", series("c", 100));
+
+    //
+    // With two threads, c is read after a and b, each resource being read within the timeout
+    // which runs from the start of its read
+    //
+
+    Properties properties = new Properties();
+    properties.setProperty(QuantumVizInterpreter.CONCURRENCY_KEY, "2");
+    properties.setProperty(QuantumVizInterpreter.RESOURCE_TIMEOUT_KEY, "500");
+    QuantumVizInterpreter interpreter = open(properties);
+    try {
+      assertEquals(InterpreterResult.Code.SUCCESS, interpret(interpreter, pool, body).code());
+    } finally {
+      interpreter.close();
+    }
+
+    properties.setProperty(QuantumVizInterpreter.RESOURCE_TIMEOUT_KEY, "100");
+    interpreter = open(properties);
+    try {
+      InterpreterResult result = interpret(interpreter, pool, body);
+      assertEquals(InterpreterResult.Code.ERROR, result.code());
+      assertTrue(result.message().get(0).getData().contains("within 100 ms"));
+    } finally {
+      interpreter.close();
+    }
+
+    //
+    // 0 waits for the resources however long they take
+    //
+
+    properties.setProperty(QuantumVizInterpreter.RESOURCE_TIMEOUT_KEY, "0");
+    interpreter = open(properties);
+    try {
+      assertEquals(InterpreterResult.Code.SUCCESS, interpret(interpreter, pool, body).code());
+    } finally {
+      interpreter.close();
+    }
+  }
+
+  public void testElementsAreWrittenInOrder() {
+    Properties properties = new Properties();
+    properties.setProperty(QuantumVizInterpreter.CONCURRENCY_KEY, "4");
+    QuantumVizInterpreter interpreter = open(properties);
+    try {
+      SlowResourcePool pool = new SlowResourcePool(0);
+      for (String name : new String[] { "a", "b", "c", "d" }) {
+        pool.put(name, series(name, 100));
+      }
+      pool.delay("a", 300);
+      InterpreterResult result = interpret(interpreter, pool, "{\"data\":[{\"series\":\"a\"},"
+          + "{\"series\":\"b\"},{\"series\":\"c\"},{\"series\":\"d\"}]}");
+      assertEquals(InterpreterResult.Code.SUCCESS, result.code());
+      String html = result.message().get(0).getData();
+      int a = html.indexOf("{\"c\":\"a\"");
+      int b = html.indexOf("{\"c\":\"b\"");
+      int c = html.indexOf("{\"c\":\"c\"");
+      int d = html.indexOf("{\"c\":\"d\"");
+      assertTrue(html, a >= 0 && a < b && b < c && c < d);
+    } finally {
+      interpreter.close();
+    }
+  }
+
+  public void testFirstFailingElementIsReported() throws Exception {
+    Properties properties = new Properties();
+    properties.setProperty(QuantumVizInterpreter.CONCURRENCY_KEY, "4");
+    QuantumVizInterpreter interpreter = open(properties);
+    try {
+      SlowResourcePool pool = new SlowResourcePool(0);
+      pool.put("a", series("a", 100));
+      pool.put("c", series("c", 100));
+      pool.put("late", series("late", 100));
+
+      //
+      // The missing series fails after the bad downsampling of the element after it, the
+      // first element in the paragraph order being reported all the same
+      //
+
+      pool.delay("missing", 300);
+      pool.delay("late", 10000);
+      InterpreterResult result = interpret(interpreter, pool, "{\"data\":[{\"series\":\"a\"},"
+          + "{\"series\":\"missing\"},{\"series\":\"c\",\"downsample\":\"bogus\"},"
+          + "{\"series\":\"late\"}]}");
+      assertEquals(InterpreterResult.Code.ERROR, result.code());
+      assertEquals(1, result.message().size());
+      assertEquals("Quantumviz interpreter encouters an incorrect series type: "
+          + "series not found in Zeppelin resource pool.", result.message().get(0).getData());
+
+      //
+      // The elements after it are cancelled, with the loads they wait for
+      //
+
+      for (int i = 0; i < 50 && !pool.isInterrupted("late"); i++) {
+        Thread.sleep(20);
+      }
+      assertTrue(pool.isInterrupted("late"));
+    } finally {
+      interpreter.close();
+    }
+  }
+
+  public void testStreamedParagraphIsWrittenFromItsFirstElement() throws Exception {
+    QuantumVizInterpreter interpreter = open(new Properties());
+    try {
+      LocalResourcePool pool = new LocalResourcePool("pool");
+      pool.put("a", series("a", 10));
+      pool.put("b", series("b", 10));
+
+      InterpreterOutput out = new InterpreterOutput(null);
+      InterpreterResult result = interpreter.interpret("{\"output\":\"stream\",\"data\":["
+          + "{\"series\":\"a\"},{\"series\":\"b\"}]}", context(pool, out));
+      assertEquals(InterpreterResult.Code.SUCCESS, result.code());
+      assertTrue(result.message().isEmpty());
+      String html = new String(out.toByteArray(), "UTF-8");
+      assertTrue(html, html.startsWith("<script>"));
+      assertTrue(html, html.indexOf("{\"c\":\"a\"") < html.indexOf("{\"c\":\"b\""));
+
+      //
+      // Failing on its first element, the paragraph writes nothing, not even its scripts
+      //
+
+      out = new InterpreterOutput(null);
+      result = interpreter.interpret("{\"output\":\"stream\",\"data\":["
+          + "{\"series\":\"missing\"},{\"series\":\"a\"}]}", context(pool, out));
+      assertEquals(InterpreterResult.Code.ERROR, result.code());
+      assertEquals(0, out.toByteArray().length);
+
+      //
+      // Failing on a later element, the elements already written are kept
+      //
+
+      out = new InterpreterOutput(null);
+      result = interpreter.interpret("{\"output\":\"stream\",\"data\":["
+          + "{\"series\":\"a\"},{\"series\":\"missing\"}]}", context(pool, out));
+      assertEquals(InterpreterResult.Code.ERROR, result.code());
+      html = new String(out.toByteArray(), "UTF-8");
+      assertTrue(html, html.startsWith("<script>") && html.contains("{\"c\":\"a\""));
+    } finally {
+      interpreter.close();
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package org.apache.zeppelin.quantumviz;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the metrics of the interpreter.
+ */
+public class QuantumVizMetricsTest extends TestCase {
+
+  public void testPhases() {
+    QuantumVizMetrics metrics = new QuantumVizMetrics();
+    metrics.record(QuantumVizMetrics.Phase.LOAD, 3000000L);
+    metrics.record(QuantumVizMetrics.Phase.LOAD, 5000000L);
+    metrics.record(QuantumVizMetrics.Phase.LOAD, 1000000L);
+    assertEquals(Long.valueOf(3), metrics.getPhaseCounts().get("load"));
+    assertEquals(Long.valueOf(9), metrics.getPhaseMillis().get("load"));
+    assertEquals(Long.valueOf(5), metrics.getPhaseMaxMillis().get("load"));
+    assertEquals(Long.valueOf(0), metrics.getPhaseCounts().get("parse"));
+
+    metrics.reset();
+    assertEquals(Long.valueOf(0), metrics.getPhaseCounts().get("load"));
+  }
+
+  public void testParagraph() {
+    QuantumVizMetrics metrics = new QuantumVizMetrics();
+    QuantumVizMetrics.Paragraph paragraph = metrics.paragraph();
+    assertEquals(0, paragraph.progress());
+    paragraph.total(4);
+    paragraph.element(100, 40, 10);
+    assertEquals(25, paragraph.progress());
+    paragraph.element(200, 60, 20);
+    paragraph.error();
+    assertEquals(50, paragraph.progress());
+
+    assertEquals(1, metrics.getParagraphs());
+    assertEquals(2, metrics.getElements());
+    assertEquals(1, metrics.getErrors());
+    assertEquals(300, metrics.getInputBytes());
+    assertEquals(100, metrics.getOutputBytes());
+    assertEquals(30, metrics.getPoints());
+    assertTrue(paragraph.summary().startsWith("2/4 elements"));
+  }
+
+  public void testRegister() throws Exception {
+    QuantumVizMetrics metrics = new QuantumVizMetrics();
+    metrics.register("test");
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName(QuantumVizMetrics.DOMAIN
+        + ":type=QuantumVizInterpreter,name=\"test\"");
+    try {
+      metrics.paragraph();
+      assertEquals(1L, server.getAttribute(name, "Paragraphs"));
+    } finally {
+      metrics.unregister();
+    }
+    assertFalse(server.isRegistered(name));
+  }
+}
@@ -0,0 +1,52 @@
+package org.apache.zeppelin.quantumviz;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the cache of rendered data elements.
+ */
+public class RenderCacheTest extends TestCase {
+
+  public void testHitsAndPatches() {
+    RenderCache cache = new RenderCache(10, 1024);
+    String key = RenderCache.key("pool/gts", "[1,2,3]", "none");
+    assertNull(cache.get(key, "{}"));
+    cache.put(key, "base", "{}", "payload");
+
+    RenderCache.Entry entry = cache.get(key, "{}");
+    assertEquals("payload", entry.payload());
+
+    entry = cache.get(key, "{\"timestamps\":true}");
+    assertFalse(entry.matches("{\"timestamps\":true}"));
+    cache.patch(key, entry, "{\"timestamps\":true}", "patched");
+    assertEquals("patched", cache.get(key, "{\"timestamps\":true}").payload());
+
+    assertEquals(Long.valueOf(2), cache.getStatistics().get("hits"));
+    assertEquals(Long.valueOf(1), cache.getStatistics().get("misses"));
+    assertEquals(Long.valueOf(1), cache.getStatistics().get("patches"));
+  }
+
+  public void testLeastRecentlyUsedIsEvicted() {
+    RenderCache cache = new RenderCache(2, 1024);
+    cache.put("a", "a", null, "a");
+    cache.put("b", "b", null, "b");
+    cache.get("a", null);
+    cache.put("c", "c", null, "c");
+    assertNotNull(cache.get("a", null));
+    assertNull(cache.get("b", null));
+    assertEquals(Long.valueOf(1), cache.getStatistics().get("evictions"));
+  }
+
+  public void testBytesAreBounded() {
+    RenderCache cache = new RenderCache(10, 10);
+    cache.put("a", "abcd", null, "abcd");
+    cache.put("b", "efgh", null, "efgh");
+    assertNull(cache.get("a", null));
+    cache.put("c", "too large", null, "too large");
+    assertNull(cache.get("c", null));
+  }
+
+  public void testFingerprintChangesWithContent() {
+    assertFalse(RenderCache.fingerprint("[[1,2]]").equals(RenderCache.fingerprint("[[1,3]]")));
+  }
+}
@@ -0,0 +1,84 @@
+package org.apache.zeppelin.quantumviz;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Unit test for the rollup pyramids of the zoomable elements.
+ */
+public class RollupPyramidTest extends TestCase {
+
+  private GeoTimeSerie series(int size, boolean reversed) throws Exception {
+    StringBuilder gts = new StringBuilder("{\"c\":\"name\",\"l\":{\"k\":\"v\"},\"v\":[");
+    for (int i = 0; i < size; i++) {
+      int tick = reversed ? size - 1 - i : i;
+      gts.append(i > 0 ? "," : "").append('[').append(tick * 1000L).append(',')
+          .append(tick == size / 2 ? 1000 : tick % 10).append(']');
+    }
+    return new GtsParser().parse(new JsonScanner(gts.append("]}").toString()));
+  }
+
+  private JSONArray query(RollupPyramid pyramid, long start, long end, int points, String mode) {
+    StringBuilder out = new StringBuilder();
+    pyramid.query(start, end, points, mode, out);
+    JSONObject gts = new JSONObject(out.toString());
+    assertEquals("name", gts.getString("c"));
+    assertEquals("v", gts.getJSONObject("l").getString("k"));
+    return gts.getJSONArray("v");
+  }
+
+  public void testLevels() throws Exception {
+    RollupPyramid pyramid = new RollupPyramid(series(100000, false));
+    List<RollupPyramid.Level> levels = pyramid.levels();
+    assertTrue(levels.size() > 1);
+    for (int i = 1; i < levels.size(); i++) {
+      assertEquals(2 * levels.get(i - 1).width(), levels.get(i).width());
+    }
+    assertTrue(levels.get(levels.size() - 1).size() <= RollupPyramid.MIN_BUCKETS);
+  }
+
+  public void testRawPointsWhenTheyFit() throws Exception {
+    RollupPyramid pyramid = new RollupPyramid(series(100000, true));
+    JSONArray values = query(pyramid, 10000, 19000, 100, RollupPyramid.AVG);
+    assertEquals(10, values.length());
+    assertEquals(10000L, values.getJSONArray(0).getLong(0));
+    assertEquals(19000L, values.getJSONArray(9).getLong(0));
+  }
+
+  public void testZoomKeepsExtremes() throws Exception {
+    RollupPyramid pyramid = new RollupPyramid(series(100000, false));
+    JSONArray values = query(pyramid, Long.MIN_VALUE, Long.MAX_VALUE, 500,
+        RollupPyramid.MINMAX);
+    assertTrue(values.length() <= 500);
+    double max = 0;
+    for (int i = 0; i < values.length(); i++) {
+      max = Math.max(max, values.getJSONArray(i).getDouble(1));
+    }
+    assertEquals(1000.0, max);
+
+    long count = 0;
+    values = query(pyramid, Long.MIN_VALUE, Long.MAX_VALUE, 500, RollupPyramid.COUNT);
+    for (int i = 0; i < values.length(); i++) {
+      count += values.getJSONArray(i).getLong(1);
+    }
+    assertEquals(100000, count);
+  }
+
+  public void testCacheEviction() throws Exception {
+    RollupPyramid pyramid = new RollupPyramid(series(1000, false));
+    RollupCache cache = new RollupCache(pyramid.bytes() * 2);
+    List<String> first = cache.put("a", Arrays.asList(pyramid));
+    assertEquals(first, cache.get("a"));
+    cache.put("b", Arrays.asList(new RollupPyramid(series(1000, false))));
+    cache.put("c", Arrays.asList(new RollupPyramid(series(1000, false))));
+    assertNull(cache.get("a"));
+    assertNull(cache.pyramid(first.get(0)));
+    assertNotNull(cache.get("c"));
+    assertNull(cache.put("d", Arrays.asList(new RollupPyramid(series(10000, false)))));
+  }
+}
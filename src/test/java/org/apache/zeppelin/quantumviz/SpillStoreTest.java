@@ -0,0 +1,125 @@
+package org.apache.zeppelin.quantumviz;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the memory-mapped store of large series.
+ */
+public class SpillStoreTest extends TestCase {
+
+  private File directory;
+
+  @Override
+  protected void setUp() throws Exception {
+    directory = Files.createTempDirectory("quantumviz-spill").toFile();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    delete(directory);
+  }
+
+  private void delete(File file) {
+    File[] files = file.listFiles();
+    for (File child : null == files ? new File[0] : files) {
+      delete(child);
+    }
+    file.delete();
+  }
+
+  private GeoTimeSerie series(int size) throws Exception {
+    StringBuilder gts = new StringBuilder("{\"c\":\"name\",\"l\":{},\"v\":[");
+    for (int i = 0; i < size; i++) {
+      gts.append(i > 0 ? "," : "").append('[').append(i * 10L).append(',')
+          .append(i % 13 * 0.5).append(']');
+    }
+    return new GtsParser().parse(new JsonScanner(gts.append("]}").toString()));
+  }
+
+  private String query(RollupPyramid pyramid, long start, long end, int points, String mode) {
+    StringBuilder out = new StringBuilder();
+    pyramid.query(start, end, points, mode, out);
+    return out.toString();
+  }
+
+  public void testSpilledPyramidMatchesHeap() throws Exception {
+    GeoTimeSerie gts = series(50000);
+    RollupPyramid heap = new RollupPyramid(gts);
+    SpillStore store = new SpillStore(directory, 0, 1L << 30);
+    RollupPyramid spilled = new RollupPyramid(gts, store);
+    assertFalse(heap.isSpilled());
+    assertTrue(spilled.isSpilled());
+    assertTrue(spilled.bytes() < heap.bytes() / 100);
+    assertEquals(1, store.directory().listFiles().length);
+
+    for (String mode : new String[] { RollupPyramid.MINMAX, RollupPyramid.AVG,
+        RollupPyramid.COUNT }) {
+      assertEquals(query(heap, Long.MIN_VALUE, Long.MAX_VALUE, 300, mode),
+          query(spilled, Long.MIN_VALUE, Long.MAX_VALUE, 300, mode));
+      assertEquals(query(heap, 1000, 5000, 1000, mode), query(spilled, 1000, 5000, 1000, mode));
+    }
+  }
+
+  public void testSegmentIsClosedByItsLastReader() throws Exception {
+    SpillStore store = new SpillStore(directory, 0, 1L << 30);
+    RollupPyramid pyramid = new RollupPyramid(series(10000), store);
+    assertTrue(pyramid.retain());
+    pyramid.close();
+    assertFalse(pyramid.isAvailable());
+    assertFalse(pyramid.retain());
+    assertEquals(1, store.directory().listFiles().length);
+    pyramid.release();
+    assertEquals(0, store.directory().listFiles().length);
+  }
+
+  public void testClosedStoreDeletesItsDirectory() throws Exception {
+    SpillStore store = new SpillStore(directory, 0, 1L << 30);
+    RollupPyramid read = new RollupPyramid(series(10000), store);
+    RollupPyramid idle = new RollupPyramid(series(10000), store);
+    assertTrue(read.retain());
+    File files = store.directory();
+    assertEquals(2, files.listFiles().length);
+
+    //
+    // The segment still read is deleted with the directory, and can be read until released
+    //
+
+    store.close();
+    assertFalse(files.exists());
+    assertEquals(0, directory.listFiles().length);
+    assertFalse(idle.isAvailable());
+    assertFalse(query(read, Long.MIN_VALUE, Long.MAX_VALUE, 300, RollupPyramid.AVG).isEmpty());
+    read.release();
+  }
+
+  public void testLeastRecentlyUsedSegmentIsEvicted() throws Exception {
+    GeoTimeSerie gts = series(10000);
+    SpillStore measure = new SpillStore(directory, 0, 1L << 30);
+    RollupPyramid first = new RollupPyramid(gts, measure);
+    long length = measure.bytes();
+    first.close();
+    assertEquals(0, measure.bytes());
+
+    SpillStore store = new SpillStore(directory, 0, 2 * length);
+    RollupPyramid a = new RollupPyramid(gts, store);
+    RollupPyramid b = new RollupPyramid(gts, store);
+    assertTrue(a.retain());
+    a.release();
+    RollupPyramid c = new RollupPyramid(gts, store);
+    assertTrue(a.isAvailable());
+    assertFalse(b.isAvailable());
+    assertTrue(c.isAvailable());
+    assertEquals(2 * length, store.bytes());
+    assertEquals(2, store.directory().listFiles().length);
+
+    //
+    // Series below the threshold stay on the heap
+    //
+
+    assertFalse(new RollupPyramid(series(100), new SpillStore(directory, 1L << 20, 1L << 30))
+        .isSpilled());
+  }
+}
@@ -0,0 +1,210 @@
+package org.apache.zeppelin.quantumviz;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Unit test for the Warp 10 client, against a local stub of the Warp 10 API.
+ */
+public class Warp10ClientTest extends TestCase {
+
+  private static final String FETCH_RESPONSE =
+      "1000/48.5:-4.5/10 temp{room=a%2Cb}{unit=C} 21.5\n"
+      + "=2000/48.5:-4.5/10 22\n"
+      + "1000// status%20code{} 'on%20line'\n"
+      + "=3000// 'off'\n";
+
+  private HttpServer server;
+  private Warp10Client client;
+  private String query;
+  private String script;
+  private Cancellation cancellation;
+  private CountDownLatch stalled;
+
+  @Override
+  protected void setUp() throws Exception {
+    cancellation = new Cancellation();
+    stalled = new CountDownLatch(1);
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/api/v0/fetch", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        query = exchange.getRequestURI().getRawQuery();
+        if (null == query || !query.contains("token=")) {
+          exchange.getResponseHeaders().set(Warp10Client.ERROR_HEADER, "Missing token.");
+          exchange.sendResponseHeaders(500, -1);
+          exchange.close();
+          return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        gzip.write(FETCH_RESPONSE.getBytes(StandardCharsets.UTF_8));
+        gzip.close();
+        exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        send(exchange, bytes.toByteArray());
+      }
+    });
+    server.createContext("/api/v0/exec", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+          bytes.write(buffer, 0, read);
+        }
+        script = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        send(exchange, "[{\"c\":\"top\",\"l\":{},\"a\":{},\"v\":[[1,2]]},42]"
+            .getBytes(StandardCharsets.UTF_8));
+      }
+    });
+    server.createContext("/api/v0/stalled/exec", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        try {
+          stalled.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        exchange.close();
+      }
+    });
+    server.start();
+    client = new Warp10Client("http://127.0.0.1:" + server.getAddress().getPort() + "/api/v0/",
+        1000, 1000);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    stalled.countDown();
+    server.stop(0);
+  }
+
+  private static void send(HttpExchange exchange, byte[] body) throws IOException {
+    exchange.sendResponseHeaders(200, body.length);
+    OutputStream out = exchange.getResponseBody();
+    out.write(body);
+    out.close();
+  }
+
+  public void testFetchDecodesTextFormat() throws Exception {
+    Map<String, String> params = new LinkedHashMap<>();
+    params.put("token", "t");
+    params.put("selector", "~.*{}");
+    StringBuilder out = new StringBuilder();
+    client.fetch(params, out, cancellation);
+    assertEquals("token=t&selector=%7E.*%7B%7D", query);
+
+    JSONArray list = new JSONArray(out.toString());
+    assertEquals(2, list.length());
+    JSONObject temp = list.getJSONObject(0);
+    assertEquals("temp", temp.getString("c"));
+    assertEquals("a,b", temp.getJSONObject("l").getString("room"));
+    assertEquals("C", temp.getJSONObject("a").getString("unit"));
+    JSONArray point = temp.getJSONArray("v").getJSONArray(1);
+    assertEquals(5, point.length());
+    assertEquals(2000L, point.getLong(0));
+    assertEquals(10L, point.getLong(3));
+    assertEquals(22.0, point.getDouble(4));
+
+    JSONObject status = list.getJSONObject(1);
+    assertEquals("status code", status.getString("c"));
+    assertEquals("on line", status.getJSONArray("v").getJSONArray(0).getString(1));
+  }
+
+  public void testFetchReportsWarp10Error() throws Exception {
+    try {
+      client.fetch(new LinkedHashMap<String, String>(), new StringBuilder(), cancellation);
+      fail();
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("Missing token."));
+    }
+  }
+
+  public void testExecReturnsTopOfStack() throws Exception {
+    StringBuilder out = new StringBuilder();
+    client.exec("NOW", out, cancellation);
+    assertEquals("NOW", script);
+    assertEquals("top", new JSONObject(out.toString()).getString("c"));
+  }
+
+  public void testQueryReducesSeriesOnWarp10() throws Exception {
+    JSONObject json = new JSONObject("{\"token\":\"t'1\",\"selector\":\"temp{room=a}\","
+        + "\"end\":\"2017-01-01T00:00:00Z\",\"timespan\":3600000000,\"sample\":\"max\"}");
+    StringBuilder out = new StringBuilder();
+    client.exec(Warp10Query.parse(json, 900).script(), out, cancellation);
+    assertTrue(script, script.startsWith("'2017-01-01T00:00:00Z' TOTIMESTAMP 'end' STORE"));
+    assertTrue(script, script.contains("'token' 't%271' 'selector' 'temp{room=a}'"));
+    assertTrue(script, script.contains("[ SWAP bucketizer.max $end 4000000 900 ] BUCKETIZE"));
+    assertEquals("top", new JSONObject(out.toString()).getString("c"));
+
+    json.remove("sample");
+    json.remove("end");
+    json.put("points", 100);
+    String lttb = Warp10Query.parse(json, 900).script();
+    assertTrue(lttb, lttb.startsWith("NOW 'end' STORE"));
+    assertTrue(lttb, lttb.endsWith("100 LTTB\n"));
+
+    try {
+      Warp10Query.parse(new JSONObject("{\"token\":\"t\",\"selector\":\"s\"}"), 900);
+      fail();
+    } catch (Exception e) {
+      assertTrue(e.getMessage().contains("timespan"));
+    }
+  }
+
+  public void testExecTimesOutOnStalledWarp10() throws Exception {
+    Warp10Client stalledClient = new Warp10Client("http://127.0.0.1:"
+        + server.getAddress().getPort() + "/api/v0/stalled", 1000, 200);
+    long start = System.nanoTime();
+    try {
+      stalledClient.exec("NOW", new StringBuilder(), cancellation);
+      fail();
+    } catch (SocketTimeoutException e) {
+      assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+  }
+
+  public void testCancelDisconnectsStalledExec() throws Exception {
+    final Warp10Client stalledClient = new Warp10Client("http://127.0.0.1:"
+        + server.getAddress().getPort() + "/api/v0/stalled", 1000, 0);
+    final Exception[] failure = new Exception[1];
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          stalledClient.exec("NOW", new StringBuilder(), cancellation);
+        } catch (Exception e) {
+          failure[0] = e;
+        }
+      }
+    });
+    thread.start();
+    Thread.sleep(200);
+    cancellation.cancel();
+    thread.join(5000);
+    assertFalse(thread.isAlive());
+    assertTrue(String.valueOf(failure[0]), failure[0] instanceof CancellationException);
+  }
+}